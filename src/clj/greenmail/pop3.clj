@@ -1,12 +1,10 @@
 (ns greenmail.pop3
   (:require [greenmail.store :as store])
-  (:import (com.icegreen.greenmail.pop3.commands Pop3Command)
+  (:import (com.icegreen.greenmail.pop3 Pop3Maildrop)
+           (com.icegreen.greenmail.pop3.commands Pop3Command)
            (com.icegreen.greenmail.store FolderException)
-           (com.icegreen.greenmail.util GreenMailUtil)
-           (com.icegreen.greenmail.foedus.util MsgRangeFilter)
            (javax.mail Flags
-                       Flags$Flag)
-           (java.io StringReader)))
+                       Flags$Flag)))
 
 (def errors (agent []))
 
@@ -18,7 +16,9 @@
 (defn quit-execute [conn state cmd]
   (try
     (when-let [folder (.getFolder state)]
-      (store/expunge (:id folder)))
+      (let [uids (.getDeletedUids (.getMaildrop state))]
+        (when (pos? (alength uids))
+          (store/remove-uids (:id folder) uids))))
     (.println conn "+OK by see you soon")
     (.quit conn)
     (catch FolderException e
@@ -26,9 +26,6 @@
       (.println conn "+OK signing off, but message deletion failed")
       (.quit conn))))
 
-(defn sum-message-sizes [messages]
-  (apply + (map #(.getSize (.getMimeMessage %)) messages)))
-
 (defn authenticated? [state]
   (.isAuthenticated state))
 
@@ -36,28 +33,23 @@
 
 (defn stat-execute [conn state cmd]
   (try
-    (let [folder (.getFolder state)
-          messages (.getNonDeletedMessages folder)]
+    (let [^Pop3Maildrop maildrop (.getMaildrop state)]
       (.println conn
-                (str "+OK " (count messages) " " (sum-message-sizes messages))))
+                (str "+OK " (.getUndeletedCount maildrop) " " (.getUndeletedSize maildrop))))
     (catch Exception e
       (send-off errors conj e)
       (.println conn (str "-ERR " e)))))
 
 (defn dele-execute [conn state cmd]
   (try
-    (let [inbox (.getFolder state)
+    (let [^Pop3Maildrop maildrop (.getMaildrop state)
           [_ msg-number] (.split cmd " ")
-          messages (.getMessages inbox (MsgRangeFilter. msg-number false))]
-      (if (not= 1 (count messages))
+          msn (if msg-number (.getMessageNumber maildrop msg-number) 0)]
+      (if (zero? msn)
         (.println conn "-ERR no such message")
-        (let [[msg] (seq messages)
-              flags (.getFlags msg)]
-          (if (.contains flags Flags$Flag/DELETED)
-            (.println conn "-ERR message already deleted")
-            (do
-              (.add flags Flags$Flag/DELETED)
-              (.println conn "+OK message scheduled for deletion"))))))
+        (do
+          (.delete maildrop msn)
+          (.println conn "+OK message scheduled for deletion"))))
     (catch Exception e
       (send-off errors conj e)
       (.println conn (str "-ERR " e)))))
@@ -70,18 +62,15 @@
 
 (defn retr-execute [conn state cmd]
   (try
-    (let [inbox (.getFolder state)
+    (let [^Pop3Maildrop maildrop (.getMaildrop state)
           [_ msg-number] (.split cmd " ")
-          messages (.getMessages inbox (MsgRangeFilter. msg-number false))]
-      (if (not= 1 (count messages))
+          msn (if msg-number (.getMessageNumber maildrop msg-number) 0)]
+      (if (zero? msn)
         (.println conn "-ERR no such message")
-        (let [[msg] (seq messages)
-              email (GreenMailUtil/getWholeMessage (.getMimeMessage msg))]
+        (let [msg (.getMessage maildrop msn)]
           (doto conn
             (.println "+OK")
-            (.print (StringReader. email))
-            (.println)
-            (.println "."))
+            (.printMessage (.getMimeMessage msg)))
           (-> msg .getFlags (.add Flags$Flag/SEEN)))))
     (catch Exception e
       (send-off errors conj e)
@@ -89,21 +78,21 @@
 
 (defn uidl-execute [conn state cmd]
   (try
-    (let [inbox (.getFolder state)
+    (let [^Pop3Maildrop maildrop (.getMaildrop state)
           cmd-line (.split cmd " ")]
       (if (> (count cmd-line) 1)
-        (let [[_ msg-number] cmd-line
-              messages (.getMessages inbox (MsgRangeFilter. msg-number false))]
-          (if (not= 1 (count messages))
+        (let [msn (.getMessageNumber maildrop (aget cmd-line 1))]
+          (if (zero? msn)
             (.println conn "-ERR no such message")
-            (.println conn (str "+OK " msg-number " " (.getUid (first messages))))))
-        (let [messages (.getNonDeletedMessages inbox)]
+            (.println conn (str "+OK " msn " " (.getUid maildrop msn)))))
+        (do
           (.println conn "+OK")
-          (doseq [message messages]
-            (.println conn (str (.getMsn inbox (.getUid message)) " "
-                                (.getUid message))))
+          (dotimes [i (.getCount maildrop)]
+            (let [msn (inc i)]
+              (when-not (.isDeleted maildrop msn)
+                (.println conn (str msn " " (.getUid maildrop msn))))))
           (.println conn "."))))
-    (catch FolderException e
+    (catch Exception e
       (send-off errors conj e)
       (.println conn (str "-ERR " e)))))
 
@@ -154,5 +143,7 @@
          "PASS" com.icegreen.greenmail.pop3.commands.PassCommand
          "LIST" com.icegreen.greenmail.pop3.commands.ListCommand
          "TOP" com.icegreen.greenmail.pop3.commands.TopCommand
-         "RSET" com.icegreen.greenmail.pop3.commands.RsetCommand}]
+         "RSET" com.icegreen.greenmail.pop3.commands.RsetCommand
+         "CAPA" com.icegreen.greenmail.pop3.commands.CapaCommand
+         "STLS" com.icegreen.greenmail.pop3.commands.StlsCommand}]
   (swap! commands assoc command (.newInstance klass)))
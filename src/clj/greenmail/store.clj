@@ -2,22 +2,94 @@
   (:require [clojure.set :as set]
             [clojure.stacktrace :as s])
   (:import (javax.mail Flags$Flag
-                       Flags)
-           (javax.mail.internet MimeMessage)
+                       Flags
+                       MessagingException)
+           (javax.mail.internet MimeMessage
+                                InternetAddress)
            (com.icegreen.greenmail.store MailFolder
+                                         MessageCountListener
                                          SimpleStoredMessage
                                          MessageFlags
                                          FolderListener
+                                         FolderStatus
                                          InMemoryStore
                                          FolderException)
            (java.util UUID
-                      StringTokenizer)))
+                      StringTokenizer
+                      Locale)))
 
 (def mail (ref {}))
 
+;; folders by [root id, lower-cased full name], kept in step with the
+;; :children links so a mailbox path resolves without walking the tree
+(def paths (ref {}))
+
+;; a counter seeded from the clock (in seconds), so a folder recreated
+;; after clear-mail always gets a new UIDVALIDITY, and one recreated after
+;; a restart does too unless the previous run handed out more values than
+;; seconds have passed since it started
+(def uid-validity-seq (atom (quot (System/currentTimeMillis) 1000)))
+
+(defn next-uid-validity []
+  (swap! uid-validity-seq inc))
+
+;; secondary indexes over every stored message, by recipient address,
+;; recipient domain, Message-ID and delivery time. entries are
+;; [folder id, uid] and are kept in step with the folders by the same
+;; transactions that add and remove messages. the matches for a term
+;; are a sorted map by [delivery millis, seq], like :time, so a page of
+;; them is taken in delivery order without sorting
+(def empty-index {:entries {}
+                  :recipient {}
+                  :domain {}
+                  :message-id {}
+                  :time (sorted-map)
+                  :seq 0})
+
+(def index (ref empty-index))
+
+(def indexed-terms [:recipient :domain :message-id])
+
+(defn release-messages
+  "gives back the store's reference to messages that have left it for
+  good, closing their spool files unless a POP3 maildrop still holds
+  them. called once the removing transaction has committed, as a retried
+  transaction could otherwise release a message that stays"
+  [messages]
+  (doseq [^SimpleStoredMessage message messages]
+    (.release message)))
+
+(defn all-messages
+  "the stored messages of a folder"
+  [id]
+  (map :message (:all (:messages (get @mail id)))))
+
 (defn clear-mail []
-  (dosync
-   (ref-set mail {})))
+  (release-messages
+   (dosync
+    (let [messages (doall (mapcat all-messages (keys @mail)))]
+      (ref-set mail {})
+      (ref-set paths {})
+      (ref-set index empty-index)
+      messages))))
+
+(defn get-stored-count
+  "the number of messages in all folders, read from the index"
+  []
+  (count (:entries @index)))
+
+(defn watch-stored-count
+  "calls the listener with the number of messages in all folders after
+  every transaction that changes it"
+  [key ^MessageCountListener listener]
+  (add-watch index key
+             (fn [_ _ old new]
+               (let [n (count (:entries new))]
+                 (when (not= n (count (:entries old)))
+                   (.messageCountChanged listener n))))))
+
+(defn unwatch-stored-count [key]
+  (remove-watch index key))
 
 (defn agent-print-trace [_ e]
   (s/print-stack-trace e))
@@ -51,15 +123,50 @@
 (declare ->HiMF)
 
 (defn get-full-name [id]
-  (if (:root? (get @mail id))
-    (:name (get @mail id))
-    (str (get-full-name (:parent (get @mail id)))
-         hierarchy-delimiter-char
-         (:name (get @mail id)))))
+  (:full-name (get @mail id)))
+
+(defn path-key [root-id ^String full-name]
+  [root-id (.toLowerCase full-name Locale/ENGLISH)])
+
+(defn subtree-ids [id]
+  (cons id (mapcat subtree-ids (:children (get @mail id)))))
+
+(defn index-subtree
+  "adds a folder and its descendants to the path index, must be called
+  inside a transaction"
+  [id]
+  (doseq [i (subtree-ids id)
+          :let [{:keys [root full-name]} (get @mail i)]]
+    (alter paths assoc (path-key root full-name) i)))
+
+(defn unindex-subtree
+  "removes a folder and its descendants from the path index, must be
+  called inside a transaction"
+  [id]
+  (doseq [i (subtree-ids id)
+          :let [{:keys [root full-name]} (get @mail i)]]
+    (alter paths dissoc (path-key root full-name))))
+
+(defn refresh-full-names
+  "recomputes the cached full names below a renamed folder, must be
+  called inside a transaction"
+  [id]
+  (let [{:keys [parent name root?]} (get @mail id)]
+    (alter mail assoc-in [id :full-name]
+           (if root?
+             name
+             (str (get-full-name parent) hierarchy-delimiter-char name)))
+    (doseq [child-id (:children (get @mail id))]
+      (refresh-full-names child-id))))
 
 (defn get-message-count [id]
   (count (:all (:messages (get @mail id)))))
 
+(defn get-size
+  "the total size of the messages in a folder"
+  [id]
+  (or (:size (:messages (get @mail id))) 0))
+
 (defn recent-count [id reset?]
   (apply + (for [{:keys [^SimpleStoredMessage message]} (:all (:messages (get @mail id)))
                  :when (.contains (.getFlags message) Flags$Flag/RECENT)]
@@ -79,12 +186,55 @@
                  :when (not (.contains (.getFlags message) Flags$Flag/SEEN))]
              1)))
 
+(defn folder-status
+  "the STATUS counters of a folder in the given state of the store,
+  counted in one pass over its messages"
+  [m id]
+  (let [{:keys [messages next-uid uid-validity highest-modseq]} (get m id)
+        [recent unseen] (reduce (fn [[recent unseen] {:keys [^SimpleStoredMessage message]}]
+                                  (let [flags (.getFlags message)]
+                                    [(if (.contains flags Flags$Flag/RECENT) (inc recent) recent)
+                                     (if (.contains flags Flags$Flag/SEEN) unseen (inc unseen))]))
+                                [0 0]
+                                (:all messages))]
+    (FolderStatus. (count (:all messages)) recent unseen
+                   next-uid uid-validity highest-modseq (or (:size messages) 0))))
+
+(defn folder-statuses
+  "STATUS counters for several folders from a single snapshot of the
+  store"
+  [folders]
+  (let [m @mail]
+    (java.util.ArrayList. ^java.util.Collection (map #(folder-status m (:id %)) folders))))
+
 (defn messages-get [id k]
   (get (:messages (get @mail id)) k))
 
 (defn get-msn [id uid]
   (:msn (first (messages-get id {:uid uid}))))
 
+(defn next-modseq
+  "bumps the folder's HIGHESTMODSEQ and returns the new value, must be
+  called inside a transaction"
+  [id]
+  (let [modseq (inc (:highest-modseq (get @mail id)))]
+    (alter mail assoc-in [id :highest-modseq] modseq)
+    modseq))
+
+(defn touch-message
+  "assigns a fresh mod-sequence to a message whose metadata just changed"
+  [id ^SimpleStoredMessage message]
+  (dosync
+   (let [modseq (next-modseq id)]
+     (.setModSeq message modseq)
+     modseq)))
+
+(defn vanished-since
+  "uids expunged from the folder with a mod-sequence greater than modseq,
+  read from the folder's expunge tombstone log"
+  [id modseq]
+  (sort (mapcat val (subseq (:vanished (get @mail id)) > modseq))))
+
 (defn signal-deletion [id]
   (let [a (agent nil)]
     (set-error-handler! a agent-print-trace)
@@ -94,33 +244,191 @@
        (send-off a (fn [_] (.mailboxDeleted listener)))))
     (await a)))
 
-(defn add-message [m ^SimpleStoredMessage msg]
+(defn add-message
+  "adds a message to a folder's message index, keeping the running total
+  of the message sizes under :size"
+  [m ^SimpleStoredMessage msg]
   (let [uid (.getUid msg)
         msn (inc (count (:all m)))
         nm {:uid uid
             :msn msn
             :message msg}]
-    (merge-with into
-                m
-                (set/index #{nm} [:uid])
-                (set/index #{nm} [:msn])
-                {:all #{nm}})))
+    (-> (merge-with into
+                    m
+                    (set/index #{nm} [:uid])
+                    (set/index #{nm} [:msn])
+                    {:all #{nm}})
+        (assoc :size (+ (or (:size m) 0) (.getSize msg))))))
+
+(defn domain-suffixes
+  "a.b.com -> (a.b.com b.com com), so a domain also finds its subdomains"
+  [^String domain]
+  (take-while identity (iterate #(let [i (.indexOf ^String % ".")]
+                                (when (pos? i) (subs % (inc i))))
+                             domain)))
+
+(defn normalize-message-id [^String message-id]
+  (let [s (.trim message-id)]
+    (if (and (.startsWith s "<") (.endsWith s ">"))
+      (subs s 1 (dec (count s)))
+      s)))
+
+(defn message-terms
+  "the index terms of a stored message, read from its headers"
+  [^SimpleStoredMessage msg]
+  (let [mm (.getMimeMessage msg)
+        addresses (try (seq (.getAllRecipients mm))
+                       (catch MessagingException _ nil))
+        emails (distinct (for [a addresses
+                               :when (instance? InternetAddress a)
+                               :let [e (.getAddress ^InternetAddress a)]
+                               :when e]
+                           (.toLowerCase ^String e Locale/ENGLISH)))
+        domains (distinct (for [^String e emails
+                                :let [i (.lastIndexOf e "@")]
+                                :when (pos? i)
+                                d (domain-suffixes (subs e (inc i)))]
+                            d))
+        message-ids (try (seq (.getHeader mm "Message-ID"))
+                         (catch MessagingException _ nil))]
+    {:recipient emails
+     :domain domains
+     :message-id (distinct (map normalize-message-id message-ids))}))
+
+(defn index-message
+  "adds a stored message to the indexes, must be called inside a
+  transaction"
+  [id ^SimpleStoredMessage msg]
+  (let [k [id (.getUid msg)]
+        terms (message-terms msg)]
+    (alter index
+           (fn [ix]
+             (let [time-key [(.getTime (.getInternalDate msg)) (:seq ix)]]
+               (-> (reduce (fn [ix field]
+                             (reduce #(update-in %1 [field %2] (fnil assoc (sorted-map)) time-key k)
+                                     ix (field terms)))
+                           ix indexed-terms)
+                   (update-in [:time] assoc time-key k)
+                   (update-in [:entries] assoc k (assoc terms :time time-key))
+                   (update-in [:seq] inc)))))))
+
+(defn unindex-message
+  "drops a message from the indexes, must be called inside a
+  transaction"
+  [id uid]
+  (let [k [id uid]]
+    (when-let [entry (get-in @index [:entries k])]
+      (alter index
+             (fn [ix]
+               (-> (reduce (fn [ix field]
+                             (reduce (fn [ix v]
+                                       (let [ks (dissoc (get-in ix [field v]) (:time entry))]
+                                         (if (empty? ks)
+                                           (update-in ix [field] dissoc v)
+                                           (assoc-in ix [field v] ks))))
+                                     ix (field entry)))
+                           ix indexed-terms)
+                   (update-in [:time] dissoc (:time entry))
+                   (update-in [:entries] dissoc k)))))))
+
+(defn- page [s offset limit]
+  (let [s (drop offset s)]
+    (if (neg? limit) s (take limit s))))
+
+(defn- resolve-messages [m ks]
+  (java.util.ArrayList.
+   ^java.util.Collection
+   (for [[id uid] ks
+         :let [^SimpleStoredMessage msg (:message (first (get (:messages (get m id)) {:uid uid})))]
+         :when msg]
+     (.getMimeMessage msg))))
+
+(defn find-messages
+  "looks messages up by one of the indexed terms, in delivery order.
+  skips offset matches and returns at most limit of them, or all when
+  limit is negative"
+  [field ^String value offset limit]
+  (let [field (keyword field)
+        value (if (= field :message-id)
+                (normalize-message-id value)
+                (.toLowerCase (.trim value) Locale/ENGLISH))
+        [ix m] (dosync [@index @mail])]
+    (resolve-messages m (page (vals (get-in ix [field value])) offset limit))))
+
+(defn find-messages-between
+  "messages delivered from (inclusive) to (exclusive) the given times,
+  in delivery order, paged like find-messages. nil leaves a side open"
+  [from to offset limit]
+  (let [[ix m] (dosync [@index @mail])
+        t (:time ix)
+        entries (cond
+                 (and from to) (subseq t >= [(.getTime ^java.util.Date from) 0]
+                                       < [(.getTime ^java.util.Date to) 0])
+                 from (subseq t >= [(.getTime ^java.util.Date from) 0])
+                 to (subseq t < [(.getTime ^java.util.Date to) 0])
+                 :else (seq t))]
+    (resolve-messages m (page (map val entries) offset limit))))
+
+(defn append-messages
+  "appends a batch of messages in one transaction, allocating a
+  contiguous uid range and a single mod-sequence, and notifies the
+  listeners once with the new message count. returns the uids"
+  [id messages flags internal-dates]
+  (let [a (agent nil)
+        _ (set-error-handler! a agent-print-trace)
+        ;; taken apart once, outside the transaction, which may be retried
+        structures (mapv #(SimpleStoredMessage/structureOf %) messages)
+        uids (dosync
+              (let [first-uid (:next-uid (get @mail id))
+                    modseq (next-modseq id)
+                    smsgs (vec (map (fn [message flags internal-date uid structure]
+                                      (doto (SimpleStoredMessage. message flags internal-date uid structure)
+                                        (-> .getFlags (.add Flags$Flag/RECENT))
+                                        (.setModSeq modseq)))
+                                    messages flags internal-dates (iterate inc first-uid) structures))]
+                (alter mail update-in [id :next-uid] + (count smsgs))
+                (alter mail update-in [id :messages] #(reduce add-message % smsgs))
+                (doseq [smsg smsgs]
+                  (index-message id smsg))
+                (let [i (count (:all (:messages (get @mail id))))]
+                  (doseq [^FolderListener listener (:listeners (get @mail id))]
+                    (send-off a (fn [_] (.added listener i)))))
+                (mapv #(.getUid ^SimpleStoredMessage %) smsgs)))]
+    (await a)
+    uids))
 
 (defn append-message [id message flags internal-date]
+  (first (append-messages id [message] [flags] [internal-date])))
+
+(defn deliver-message
+  "stores one message in several folders in a single transaction, as
+  for the recipients of one smtp DATA. each copy gets its own flags,
+  uid and mod-sequence; a folder given twice gets two copies. listeners
+  are notified once per folder after the commit. returns the uids in
+  the order of the folders"
+  [folders message internal-date]
   (let [a (agent nil)
         _ (set-error-handler! a agent-print-trace)
-        uid (dosync
-             (let [uid (:next-uid (get @mail id))
-                   smsg (SimpleStoredMessage. message flags internal-date uid)]
-               (alter mail update-in [id :next-uid] inc)
-               (.add (.getFlags smsg) Flags$Flag/RECENT)
-               (alter mail update-in [id :messages] add-message smsg)
-               (let [i (count (:all (:messages (get @mail id))))]
-                 (doseq [^FolderListener listener (:listeners (get @mail id))]
-                   (send-off a (fn [_] (.added listener i)))))
-               uid))]
+        ids (map #(.getId ^MailFolder %) folders)
+        structure (SimpleStoredMessage/structureOf message)
+        uids (dosync
+              (let [uids (doall
+                          (for [id ids]
+                            (let [uid (:next-uid (get @mail id))
+                                  smsg (doto (SimpleStoredMessage. message (Flags.) internal-date uid structure)
+                                         (-> .getFlags (.add Flags$Flag/RECENT))
+                                         (.setModSeq (next-modseq id)))]
+                              (alter mail update-in [id :next-uid] inc)
+                              (alter mail update-in [id :messages] add-message smsg)
+                              (index-message id smsg)
+                              uid)))]
+                (doseq [id (distinct ids)
+                        :let [i (get-message-count id)]
+                        ^FolderListener listener (:listeners (get @mail id))]
+                  (send-off a (fn [_] (.added listener i))))
+                uids))]
     (await a)
-    uid))
+    (java.util.ArrayList. ^java.util.Collection uids)))
 
 (defn set-flags [id ^Flags flags value? uid silent-listener add-uid?]
   (let [{:keys [msn ^SimpleStoredMessage message]}
@@ -128,65 +436,127 @@
     (if value?
       (.add (.getFlags message) flags)
       (.remove (.getFlags message) flags))
-    (let [flags (.getFlags message)]
+    (let [flags (.getFlags message)
+          modseq (touch-message id message)]
       (doseq [^FolderListener listener (:listeners (get @mail id))
               :when (not= listener silent-listener)]
-        (.flagsUpdated listener msn flags (when add-uid? uid))))))
+        (.flagsUpdated listener msn flags (when add-uid? uid) modseq)))))
 
 (defn replace-flags [id ^Flags flags uid silent-listener add-uid?]
   (let [{:keys [msn ^SimpleStoredMessage message]}
-        (get (:messages (get @mail id)) {:uid uid})]
+        (first (get (:messages (get @mail id)) {:uid uid}))]
     (.remove (.getFlags message) MessageFlags/ALL_FLAGS)
     (.add (.getFlags message) flags)
-    (let [flags (.getFlags message)]
+    (let [flags (.getFlags message)
+          modseq (touch-message id message)]
       (doseq [^FolderListener listener (:listeners (get @mail id))
               :when (not= listener silent-listener)]
-        (.flagsUpdated listener msn flags (when add-uid? uid))))))
+        (.flagsUpdated listener msn flags (when add-uid? uid) modseq)))))
+
+(defn remove-messages
+  "removes the given message entries from a folder, renumbering the rest
+  and logging their uids as vanished. listeners are sent the expunged
+  msns (with their uids) highest first, so each one is still valid when
+  the client sees it. must be called inside a transaction"
+  [a id removed]
+  (let [removed-uids (set (map :uid removed))
+        kept (remove #(removed-uids (:uid %)) (:all (:messages (get @mail id))))]
+    (alter mail update-in [id] assoc :messages
+           (reduce add-message {} (map :message (sort-by :msn kept))))
+    (when (seq removed)
+      (alter mail update-in [id :vanished] assoc
+             (next-modseq id) (vec (sort removed-uids))))
+    (doseq [uid removed-uids]
+      (unindex-message id uid))
+    (doseq [^FolderListener listener (:listeners (get @mail id))
+            {:keys [msn uid]} (sort-by :msn > removed)]
+      (send-off a (fn [_] (.expunged listener msn uid))))))
 
 (defn expunge [id]
   (let [a (agent nil)]
     (set-error-handler! a agent-print-trace)
-    (dosync
-     (let [{:keys [messages]} (get @mail id)
-           {deleted true
-            kept false} (group-by
-                         (fn [{:keys [^SimpleStoredMessage message]}]
-                           (.contains (.getFlags message) Flags$Flag/DELETED))
-                         (:all messages))]
-       (alter mail update-in [id] assoc :messages
-              (reduce add-message {} (map :message kept)))
-       (doseq [^FolderListener listener (:listeners (get @mail id))
-               {:keys [msn]} deleted]
-         (send-off a (fn [_] (.expunged listener msn))))))
-    (await a)))
+    (let [removed (dosync
+                   (let [removed (doall (filter (fn [{:keys [^SimpleStoredMessage message]}]
+                                                  (.contains (.getFlags message) Flags$Flag/DELETED))
+                                                (:all (:messages (get @mail id)))))]
+                     (remove-messages a id removed)
+                     removed))]
+      (await a)
+      (release-messages (map :message removed)))))
+
+(defn remove-uids
+  "removes the messages with the given uids from a folder in one
+  transaction, ignoring uids that are gone already"
+  [id uids]
+  (let [a (agent nil)
+        uids (set uids)]
+    (set-error-handler! a agent-print-trace)
+    (let [removed (dosync
+                   (let [removed (doall (filter #(uids (:uid %)) (:all (:messages (get @mail id)))))]
+                     (remove-messages a id removed)
+                     removed))]
+      (await a)
+      (release-messages (map :message removed)))))
 
 (defn ^SimpleStoredMessage get-message [id uid]
   (:message (first (get (:messages (get @mail id)) {:uid uid}))))
 
 (defn copy-message [id uid to-id]
-  (let [omsg (get-message uid)
+  (let [omsg (get-message id uid)
         nm (MimeMessage. (.getMimeMessage omsg))
-        nflags (Flags.)]
-    (append-message to-id
-                    (.add nflags (.getFlags omsg))
-                    (.getInternalDate omsg))))
+        nflags (doto (Flags.) (.add (.getFlags omsg)))]
+    (append-message to-id nm nflags (.getInternalDate omsg))))
+
+(defn move-messages
+  "moves messages to another folder (RFC 6851) in one transaction. the
+  stored messages are handed over as they are, content, flags and parsed
+  attributes included, and only get a new uid. returns a map from the
+  source uid of each message actually moved to its new uid"
+  [id uids to-id]
+  (let [a (agent nil)
+        _ (set-error-handler! a agent-print-trace)
+        new-uids (dosync
+                  (let [uid-set (set uids)
+                        moving (sort-by :uid (filter #(uid-set (:uid %))
+                                                     (:all (:messages (get @mail id)))))]
+                    (if (empty? moving)
+                      {}
+                      (do
+                        (remove-messages a id moving)
+                        (let [first-uid (:next-uid (get @mail to-id))
+                              modseq (next-modseq to-id)
+                              moved (vec (map (fn [{:keys [^SimpleStoredMessage message]} uid]
+                                                (doto (.withUid message uid)
+                                                  (.setModSeq modseq)))
+                                              moving (iterate inc first-uid)))]
+                          (alter mail update-in [to-id :next-uid] + (count moved))
+                          (alter mail update-in [to-id :messages] #(reduce add-message % moved))
+                          (doseq [msg moved]
+                            (index-message to-id msg))
+                          (let [i (get-message-count to-id)]
+                            (doseq [^FolderListener listener (:listeners (get @mail to-id))]
+                              (send-off a (fn [_] (.added listener i)))))
+                          (zipmap (map :uid moving)
+                                  (map #(.getUid ^SimpleStoredMessage %) moved)))))))]
+    (await a)
+    new-uids))
 
 (defn -get-child [id child-name]
-  (first (for [child-id (:children (get @mail id))
-               :when (.equalsIgnoreCase
-                      ^String (:name (get @mail child-id))
-                      child-name)]
-           child-id)))
+  (when-let [{:keys [root full-name]} (get @mail id)]
+    (get @paths (path-key root (str full-name hierarchy-delimiter-char child-name)))))
 
 (defn -add-child [id child-id]
   (dosync
-   (alter mail update-in [id :children] conj child-id)))
+   (alter mail update-in [id :children] conj child-id)
+   (index-subtree child-id)))
 
 ;; HiMF is a dummy oop shell around a relational + functional
 ;; implementation
 
 (defrecord HiMF [id]
   MailFolder
+  (getId [_]
+    id)
   (getName [_]
     (:name (get @mail id)))
   (getFullName [folder]
@@ -195,6 +565,8 @@
     permament-flags)
   (getMessageCount [_]
     (get-message-count id))
+  (getSize [_]
+    (get-size id))
   (getRecentCount [_ reset?]
     (recent-count id reset?))
   (getUidValidity [_]
@@ -207,11 +579,24 @@
     (boolean (:selectable? (get @mail id))))
   (getUidNext [_]
     (:next-uid (get @mail id)))
+  (getHighestModSeq [_]
+    (:highest-modseq (get @mail id)))
+  (getVanishedUids [_ modseq]
+    (into-array Long/TYPE (vanished-since id modseq)))
   (appendMessage [folder message flags internal-date]
     (long (append-message id message flags internal-date)))
+  (appendMessages [folder messages flags internal-dates]
+    (into-array Long/TYPE (append-messages id messages flags internal-dates)))
   (deleteAllMessages [_]
-    (dosync
-     (alter mail update-in [id :messages] empty)))
+    (release-messages
+     (dosync
+      (let [messages (doall (all-messages id))]
+        (when-let [uids (seq (map :uid (:all (:messages (get @mail id)))))]
+          (alter mail update-in [id :vanished] assoc (next-modseq id) (vec uids))
+          (doseq [uid uids]
+            (unindex-message id uid)))
+        (alter mail update-in [id :messages] empty)
+        messages))))
   (expunge [_]
     (throw (Exception.)))
   (addListener [_ listener]
@@ -232,11 +617,13 @@
     (get-message id uid))
   (search [_ search-term]
     (into-array Long/TYPE
-                (for [{:keys [message uid]} (:all (:messages (get @mail id)))
+                (for [{:keys [message uid]} (sort-by :msn (:all (:messages (get @mail id))))
                       :when (.match search-term message)]
                   uid)))
   (copyMessage [_ uid to-folder]
     (copy-message id uid (:id to-folder)))
+  (moveMessages [_ uids to-folder]
+    (java.util.TreeMap. ^java.util.Map (move-messages id uids (:id to-folder))))
   (setFlags [_ flags value? uid listener add-uid?]
     (set-flags id flags value? uid listener add-uid?))
   (replaceFlags [_ flags uid silent-listener add-uid?]
@@ -267,6 +654,8 @@
     (-add-child id (:id child)))
   (remove-child [_ child]
     (dosync
+     (when (contains? (:children (get @mail id)) (:id child))
+       (unindex-subtree (:id child)))
      (alter mail update-in [id :children] disj (:id child))))
   HasParent
   (get-parent [_]
@@ -275,38 +664,71 @@
   Nameable
   (set-name [_ new-name]
     (dosync
-     (alter mail update-in [id] assoc :name new-name)))
+     (let [{:keys [parent root?]} (get @mail id)
+           linked? (or root? (contains? (:children (get @mail parent)) id))]
+       (when linked?
+         (unindex-subtree id))
+       (alter mail update-in [id] assoc :name new-name)
+       (refresh-full-names id)
+       (when linked?
+         (index-subtree id)))))
   SelectEnabling
   (set-selectable [_ v]
     (dosync
      (alter mail update-in [id] assoc :selectable? (boolean v)))))
 
 (defn mail-folder [parent name & [root?]]
-  (let [id (UUID/randomUUID)]
+  (let [id (UUID/randomUUID)
+        uid-validity (next-uid-validity)]
     (dosync
-     (alter mail assoc id {:parent (:id parent)
-                           :name name
-                           :uid-validity 0
-                           :next-uid 1
-                           :messages {}
-                           :children #{}
-                           :root? (boolean root?)}))
+     (let [parent-id (:id parent)
+           {parent-root :root parent-name :full-name} (get @mail parent-id)]
+       (alter mail assoc id {:parent parent-id
+                             :root (if root? id parent-root)
+                             :name name
+                             :full-name (if root?
+                                          name
+                                          (str parent-name hierarchy-delimiter-char name))
+                             :uid-validity uid-validity
+                             :next-uid 1
+                             :highest-modseq 1
+                             :vanished (sorted-map)
+                             :messages {}
+                             :children #{}
+                             :root? (boolean root?)})
+       (when root?
+         (index-subtree id))))
     (->HiMF id)))
 
 (defn get-mailbox
   ([store absolute-name]
      (let [tokens (StringTokenizer. absolute-name hierarchy-delimiter-char)]
-       (if (or (not (.hasMoreTokens tokens))
-               (not (-> tokens .nextToken (.equalsIgnoreCase user-namespace))))
-         nil
-         (loop [parent-id (:id (.rootMailbox store))]
-           (if (and (not (nil? parent-id))
-                    (.hasMoreTokens tokens))
-             (recur (-get-child parent-id (.nextToken tokens)))
-             parent-id)))))
+       (when (and (.hasMoreTokens tokens)
+                  (-> tokens .nextToken (.equalsIgnoreCase user-namespace)))
+         (let [root-id (:id (.rootMailbox store))
+               path (StringBuilder. ^String (get-full-name root-id))]
+           (while (.hasMoreTokens tokens)
+             (.append path hierarchy-delimiter-char)
+             (.append path (.nextToken tokens)))
+           (get @paths (path-key root-id (str path)))))))
   ([store parent name]
      (-get-child (:id parent) name)))
 
+(defn move-folder
+  "renames a folder and moves it under a new parent, keeping the path
+  index of the whole subtree in step"
+  [id new-parent-id new-name]
+  (dosync
+   (when (some #{new-parent-id} (subtree-ids id))
+     (throw (FolderException. "Cannot move a mailbox into itself.")))
+   (let [old-parent-id (:parent (get @mail id))]
+     (unindex-subtree id)
+     (alter mail update-in [old-parent-id :children] disj id)
+     (alter mail update-in [id] assoc :parent new-parent-id :name new-name)
+     (alter mail update-in [new-parent-id :children] conj id)
+     (refresh-full-names id)
+     (index-subtree id))))
+
 (defn create-mailbox [parent mailbox-name selectable?]
   (when (not (= -1 (.indexOf mailbox-name hierarchy-delimiter-char)))
     (throw (FolderException. "Invalid mailbox name.")))
@@ -5,16 +5,22 @@
  */
 package com.icegreen.greenmail;
 
-import com.icegreen.greenmail.util.DummySSLServerSocketFactory;
 import com.icegreen.greenmail.util.ServerSetup;
 import com.icegreen.greenmail.util.Service;
+import com.icegreen.greenmail.util.TlsContext;
 
+import javax.net.ssl.SSLSocket;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.UnknownHostException;
 import java.net.BindException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Vector;
 
 /**
@@ -28,6 +34,16 @@ public abstract class AbstractServer extends Service {
     protected Vector<Thread> handlers = null;
     protected Managers managers;
     protected ServerSetup setup;
+    protected TlsContext tls;
+
+    /**
+     * How long a refused client gets to take the refusal before the socket is closed.
+     */
+    private static final int REJECT_TIMEOUT_MILLIS = 1000;
+
+    // Client address of each live handler, and the number of live handlers per address
+    private final Map<Thread, InetAddress> handlerAddresses = new HashMap<Thread, InetAddress>();
+    private final Map<InetAddress, Integer> addressCounts = new HashMap<InetAddress, Integer>();
 
     protected AbstractServer(ServerSetup setup, Managers managers) {
         try {
@@ -38,19 +54,25 @@ public abstract class AbstractServer extends Service {
         }
         this.managers = managers;
         handlers = new Vector<Thread>();
+        if (setup.isTlsEnabled()) {
+            tls = new TlsContext(setup);
+        }
     }
 
     protected synchronized ServerSocket openServerSocket() throws IOException {
         ServerSocket ret = null;
         IOException retEx = null;
         for (int i=0;i<25 && (null == ret);i++) {
+            ServerSocket socket = setup.isSecure() ? tls.createServerSocket() : new ServerSocket();
             try {
-                if (setup.isSecure()) {
-                    ret = DummySSLServerSocketFactory.getDefault().createServerSocket(setup.getPort(), 0, bindTo);
-                } else {
-                    ret = new ServerSocket(setup.getPort(), 0, bindTo);
+                // Set before binding, so that it applies to the TCP window of accepted connections
+                if (setup.getReceiveBufferSize() > 0) {
+                    socket.setReceiveBufferSize(setup.getReceiveBufferSize());
                 }
+                socket.bind(new InetSocketAddress(bindTo, setup.getPort()), setup.getBacklog());
+                ret = socket;
             } catch (BindException e) {
+                socket.close();
                 try {
                     retEx = e;
                     Thread.sleep(10);
@@ -65,6 +87,112 @@ public abstract class AbstractServer extends Service {
         return ret;
     }
 
+    /**
+     * Applies the per connection socket options to a freshly accepted client, and checks
+     * it against the connection limits. A client over a limit is sent
+     * {@link #getRejectResponse()} and closed, rather than left to wait for a handler.
+     *
+     * @param clientSocket the accepted socket
+     * @return true if the client may be handed to a handler
+     */
+    protected synchronized boolean admit(Socket clientSocket) throws IOException {
+        if (clientSocket instanceof SSLSocket) {
+            tls.accepted((SSLSocket) clientSocket);
+        }
+        clientSocket.setTcpNoDelay(setup.isTcpNoDelay());
+        if (setup.getSendBufferSize() > 0) {
+            clientSocket.setSendBufferSize(setup.getSendBufferSize());
+        }
+
+        int maxConnections = setup.getMaxConnections();
+        int maxPerAddress = setup.getMaxConnectionsPerAddress();
+        if (maxConnections < 0 && maxPerAddress < 0) {
+            return true;
+        }
+        pruneHandlers();
+        Integer count = addressCounts.get(clientSocket.getInetAddress());
+        if ((maxConnections >= 0 && handlers.size() >= maxConnections)
+                || (maxPerAddress >= 0 && null != count && count >= maxPerAddress)) {
+            reject(clientSocket);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Registers and starts the handler serving an admitted client.
+     */
+    protected synchronized void addHandler(Thread handler, Socket clientSocket) {
+        pruneHandlers();
+        InetAddress address = clientSocket.getInetAddress();
+        Integer count = addressCounts.get(address);
+        addressCounts.put(address, null == count ? 1 : count + 1);
+        handlerAddresses.put(handler, address);
+        handlers.add(handler);
+        handler.start();
+    }
+
+    /**
+     * Drops handlers whose connection has ended.
+     */
+    private void pruneHandlers() {
+        for (Iterator<Thread> iterator = handlers.iterator(); iterator.hasNext();) {
+            Thread handler = iterator.next();
+            if (!handler.isAlive()) {
+                iterator.remove();
+                InetAddress address = handlerAddresses.remove(handler);
+                Integer count = addressCounts.get(address);
+                if (null != count && count > 1) {
+                    addressCounts.put(address, count - 1);
+                } else {
+                    addressCounts.remove(address);
+                }
+            }
+        }
+    }
+
+    /**
+     * Refuses a client over a connection limit. The refusal is only written on plain
+     * connections, so the accepting thread never waits on a TLS handshake.
+     */
+    private void reject(Socket clientSocket) {
+        try {
+            if (!(clientSocket instanceof SSLSocket)) {
+                clientSocket.setSoTimeout(REJECT_TIMEOUT_MILLIS);
+                OutputStream out = clientSocket.getOutputStream();
+                out.write((getRejectResponse() + "\r\n").getBytes("US-ASCII"));
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // Closed below anyway
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+                //empty
+            }
+        }
+    }
+
+    /**
+     * @return the line sent to a client refused for exceeding a connection limit
+     */
+    protected abstract String getRejectResponse();
+
+    /**
+     * @return the TLS setup with its handshake metrics, or null if this server doesn't speak TLS
+     */
+    public TlsContext getTlsContext() {
+        return tls;
+    }
+
+    /**
+     * @return the TLS setup offered through STARTTLS, or null if STARTTLS isn't offered
+     */
+    protected TlsContext getStartTlsContext() {
+        return setup.isStartTls() && !setup.isSecure() ? tls : null;
+    }
+
     public String getBindTo() {
         return bindTo.getHostAddress();
     }
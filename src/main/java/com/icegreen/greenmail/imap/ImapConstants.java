@@ -16,7 +16,18 @@ public interface ImapConstants {
 
     String SP = " ";
     String VERSION = "IMAP4rev1";
-    String CAPABILITIES = "LITERAL+ UIDPLUS";
+    String CAPABILITIES = "LITERAL+ MULTIAPPEND UIDPLUS MOVE LIST-STATUS ENABLE CONDSTORE QRESYNC COMPRESS=DEFLATE STATUS=SIZE";
+
+    // RFC 7888 non-synchronizing literals, unlimited and limited
+    String LITERAL_PLUS = "LITERAL+";
+    String LITERAL_MINUS = "LITERAL-";
+
+    // RFC 2595, only offered on plain connections with STARTTLS configured
+    String STARTTLS = "STARTTLS";
+
+    // Extensions a client can switch on for its session
+    String CONDSTORE = "CONDSTORE";
+    String QRESYNC = "QRESYNC";
 
     String USER_NAMESPACE = "#mail";
 
@@ -13,10 +13,17 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketException;
 import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import com.icegreen.greenmail.user.UserManager;
 import com.icegreen.greenmail.util.InternetPrintWriter;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.TlsContext;
 
 /**
  * The handler class for IMAP connections.
@@ -28,7 +35,7 @@ import com.icegreen.greenmail.util.InternetPrintWriter;
  */
 public class ImapHandler extends Thread implements ImapConstants {
 
-    private ImapRequestHandler requestHandler = new ImapRequestHandler();
+    private ImapRequestHandler requestHandler;
     private ImapSession session;
 
     /**
@@ -57,15 +64,57 @@ public class ImapHandler extends Thread implements ImapConstants {
      */
     private OutputStream outs;
 
+    /**
+     * Whether COMPRESS=DEFLATE has been negotiated on this connection.
+     */
+    private boolean compressed;
+
+    /**
+     * The TLS setup offered through STARTTLS, or null.
+     */
+    private final TlsContext tls;
+
+    /**
+     * Whether STARTTLS has been completed on this connection.
+     */
+    private boolean tlsStarted;
+
     UserManager userManager;
     private ImapHostManager imapHost;
 	private final Semaphore lock;
+    private final int idleTimeout;
+    private final int readTimeout;
 
-    public ImapHandler(UserManager userManager, ImapHostManager imapHost, Socket socket, Semaphore lock) {
+    public ImapHandler(UserManager userManager, ImapHostManager imapHost, Socket socket, Semaphore lock,
+                       ServerSetup setup, TlsContext tls) {
         this.userManager = userManager;
         this.imapHost = imapHost;
         this.socket = socket;
 		this.lock = lock;
+        this.tls = tls;
+        this.idleTimeout = ServerSetup.timeoutOrDefault(setup.getIdleTimeout(), 0);
+        this.readTimeout = ServerSetup.timeoutOrDefault(setup.getReadTimeout(), 0);
+        this.requestHandler = new ImapRequestHandler(setup.getMaxNonSyncLiteralSize()) {
+            protected void requestStarted() {
+                setSoTimeout(ImapHandler.this.readTimeout);
+            }
+        };
+    }
+
+    /**
+     * Bounds socket reads, unless the two timeouts agree and are set once for good.
+     */
+    private void setSoTimeout(int timeout) {
+        if (idleTimeout != readTimeout) {
+            try {
+                Socket s = socket;
+                if (null != s) {
+                    s.setSoTimeout(timeout);
+                }
+            } catch (SocketException ignored) {
+                // The next read fails on the broken socket anyway
+            }
+        }
     }
 
     public void forceConnectionClose(final String message) {
@@ -77,6 +126,7 @@ public class ImapHandler extends Thread implements ImapConstants {
     public void run() {
 
         try {
+            socket.setSoTimeout(idleTimeout);
             ins = socket.getInputStream();
             in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ASCII"), 512);
         } catch (IOException e) {
@@ -96,6 +146,7 @@ public class ImapHandler extends Thread implements ImapConstants {
                     .append("GreenMail")
                     .append(" ready");
             response.okResponse(null, responseBuffer.toString());
+            response.flush();
 
             session = new ImapSessionImpl(imapHost,
                     userManager,
@@ -103,9 +154,9 @@ public class ImapHandler extends Thread implements ImapConstants {
                     socket.getInetAddress().getHostName(),
                     socket.getInetAddress().getHostAddress());
 
-            while (requestHandler.handleRequest(ins, outs, session, lock)) {
-            	//Nothing to do
-            }
+            do {
+                setSoTimeout(idleTimeout);
+            } while (requestHandler.handleRequest(ins, outs, session, lock));
 
         } catch (Exception e) {
 //            e.printStackTrace();
@@ -114,6 +165,43 @@ public class ImapHandler extends Thread implements ImapConstants {
         }
     }
 
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Installs a raw DEFLATE layer (RFC 4978) between the session and the socket,
+     * for all data after the current response. The deflater sync-flushes each time
+     * a response is flushed, so a completed command never waits in the compressor.
+     */
+    void startCompression() throws IOException {
+        ins = new InflaterInputStream(ins, new Inflater(true));
+        outs = new BufferedOutputStream(
+                new DeflaterOutputStream(socket.getOutputStream(),
+                        new Deflater(Deflater.DEFAULT_COMPRESSION, true), 1024, true),
+                1024);
+        out = new InternetPrintWriter(outs, true);
+        compressed = true;
+    }
+
+    boolean isStartTlsAvailable() {
+        return null != tls && !tlsStarted;
+    }
+
+    /**
+     * Switches the connection to TLS (RFC 2595), for all data after the current response.
+     * The TLS socket then stands for the connection: layers started later, like
+     * COMPRESS, go on top of it, and timeouts and closing pass through to the plain socket.
+     */
+    void startTls() throws IOException {
+        Socket ssl = tls.startTls(socket);
+        socket = ssl;
+        ins = ssl.getInputStream();
+        outs = new BufferedOutputStream(ssl.getOutputStream(), 1024);
+        out = new InternetPrintWriter(outs, true);
+        tlsStarted = true;
+    }
+
     /**
      * Resets the handler data to a basic state.
      */
@@ -14,6 +14,8 @@ import com.icegreen.greenmail.store.Store;
 import com.icegreen.greenmail.store.InMemoryStore;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An initial implementation of an ImapHost. By default, uses,
@@ -146,10 +148,14 @@ public class ImapHostManagerImpl
     public void deleteMailbox(GreenMailUser user, String mailboxName)
             throws FolderException, AuthorizationException {
         MailFolder toDelete = getFolder(user, mailboxName, true);
+        if (getQualifiedMailboxName(user, INBOX_NAME).equals(toDelete.getFullName())) {
+            throw new FolderException("Cannot delete INBOX.");
+        }
         if (store.getChildren(toDelete).isEmpty()) {
             toDelete.deleteAllMessages();
             toDelete.signalDeletion();
             store.deleteMailbox(toDelete);
+            subscriptions.forget(toDelete);
         } else {
             if (toDelete.isSelectable()) {
                 toDelete.deleteAllMessages();
@@ -188,7 +194,23 @@ public class ImapHostManagerImpl
             return;
         }
 
-        store.renameMailbox(existingFolder, newMailboxName);
+        String qualifiedName = getQualifiedMailboxName(user, newMailboxName);
+        if (store.getMailbox(qualifiedName) != null) {
+            throw new FolderException("Mailbox already exists.");
+        }
+        // Checked before any missing parents are created, so a refused rename leaves nothing behind
+        if (qualifiedName.toLowerCase(Locale.ENGLISH).startsWith(
+                existingFolder.getFullName().toLowerCase(Locale.ENGLISH) + HIERARCHY_DELIMITER_CHAR)) {
+            throw new FolderException("Cannot move a mailbox into itself.");
+        }
+        int lastDelimiter = qualifiedName.lastIndexOf(HIERARCHY_DELIMITER_CHAR);
+        String parentName = qualifiedName.substring(0, lastDelimiter);
+        MailFolder newParent = store.getMailbox(parentName);
+        if (newParent == null) {
+            // Superior hierarchy names are created as needed.
+            newParent = createMailbox(user, parentName);
+        }
+        store.renameMailbox(existingFolder, newParent, qualifiedName.substring(lastDelimiter + 1));
     }
 
     /**
@@ -210,9 +232,8 @@ public class ImapHostManagerImpl
     }
 
     /**
-     * Partial implementation of list functionality.
-     * TODO: Handle wildcards anywhere in store pattern
-     * (currently only supported as last character of pattern)
+     * Lists the user's mailboxes matching a pattern, which may contain
+     * the '*' and '%' wildcards anywhere.
      *
      * @see com.icegreen.greenmail.imap.ImapHostManager#listMailboxes
      */
@@ -299,12 +320,13 @@ public class ImapHostManagerImpl
     }
 
     /**
-     * Handles all user subscriptions.
+     * Handles all user subscriptions. Folders are remembered by id, so a subscription
+     * follows its folder through renames, and each check is a hash lookup.
      * TODO make this a proper class
      * TODO persist
      */
     private class MailboxSubscriptions {
-        private Map<String, Collection<String>> userSubs = new HashMap<String, Collection<String>>();
+        private ConcurrentMap<String, Set<UUID>> userSubs = new ConcurrentHashMap<String, Set<UUID>>();
 
         /**
          * Subscribes the user to the store.
@@ -314,7 +336,7 @@ public class ImapHostManagerImpl
          * @param folder The store to subscribe
          */
         void subscribe(GreenMailUser user, MailFolder folder) {
-            getUserSubs(user).add(folder.getFullName());
+            getUserSubs(user).add(folder.getId());
         }
 
         /**
@@ -325,7 +347,18 @@ public class ImapHostManagerImpl
          * @param folder The store to unsubscribe
          */
         void unsubscribe(GreenMailUser user, MailFolder folder) {
-            getUserSubs(user).remove(folder.getFullName());
+            getUserSubs(user).remove(folder.getId());
+        }
+
+        /**
+         * Drops a deleted store from every user's subscriptions.
+         *
+         * @param folder The deleted store
+         */
+        void forget(MailFolder folder) {
+            for (Set<UUID> subs : userSubs.values()) {
+                subs.remove(folder.getId());
+            }
         }
 
         /**
@@ -336,14 +369,18 @@ public class ImapHostManagerImpl
          * @return <code>true</code> if the user is subscribed.
          */
         boolean isSubscribed(GreenMailUser user, MailFolder folder) {
-            return getUserSubs(user).contains(folder.getFullName());
+            Set<UUID> subs = userSubs.get(user.getLogin());
+            return subs != null && subs.contains(folder.getId());
         }
 
-        private Collection<String> getUserSubs(GreenMailUser user) {
-            Collection<String> subs = userSubs.get(user.getLogin());
+        private Set<UUID> getUserSubs(GreenMailUser user) {
+            Set<UUID> subs = userSubs.get(user.getLogin());
             if (subs == null) {
-                subs = new ArrayList<String>();
-                userSubs.put(user.getLogin(), subs);
+                Set<UUID> created = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+                subs = userSubs.putIfAbsent(user.getLogin(), created);
+                if (subs == null) {
+                    subs = created;
+                }
             }
             return subs;
         }
@@ -18,10 +18,18 @@ import com.icegreen.greenmail.imap.commands.ImapCommandFactory;
  * @author Darrell DeBoer <darrell@apache.org>
  * @version $Revision: 109034 $
  */
-public final class ImapRequestHandler {
+public class ImapRequestHandler {
     private ImapCommandFactory imapCommands = new ImapCommandFactory();
     private CommandParser parser = new CommandParser();
     private static final String REQUEST_SYNTAX = "Protocol Error: Was expecting <tag SPACE command [arguments]>";
+    private final int maxNonSyncLiteralSize;
+
+    /**
+     * @param maxNonSyncLiteralSize the largest non-synchronizing literal accepted, or -1 for no limit
+     */
+    public ImapRequestHandler(int maxNonSyncLiteralSize) {
+        this.maxNonSyncLiteralSize = maxNonSyncLiteralSize;
+    }
 
     /**
      * This method parses POP3 commands read off the wire in handleConnection.
@@ -38,12 +46,13 @@ public final class ImapRequestHandler {
                                  OutputStream output,
                                  ImapSession session, Semaphore lock)
             throws ProtocolException, InterruptedException {
-        ImapRequestLineReader request = new ImapRequestLineReader(input, output);
+        ImapRequestLineReader request = new ImapRequestLineReader(input, output, maxNonSyncLiteralSize);
         try {
             request.nextChar();
         } catch (ProtocolException e) {
             return false;
         }
+        requestStarted();
 
         ImapResponse response = new ImapResponse(output);
 
@@ -54,10 +63,18 @@ public final class ImapRequestHandler {
         // Consume the rest of the line, throwing away any extras. This allows us
         // to clean up after a protocol error.
         request.consumeLine();
+        response.flush();
 
         return true;
     }
 
+    /**
+     * Called once the first character of a request has arrived, before the request is read
+     * any further. Does nothing by default.
+     */
+    protected void requestStarted() {
+    }
+
     private void doProcessRequest(ImapRequestLineReader request,
                                   ImapResponse response,
                                   ImapSession session) {
@@ -21,13 +21,22 @@ import java.io.OutputStream;
 public class ImapRequestLineReader {
     private InputStream input;
     private OutputStream output;
+    private int maxNonSyncLiteralSize;
 
     private boolean nextSeen = false;
     private char nextChar; // unknown
 
-    ImapRequestLineReader(InputStream input, OutputStream output) {
+    ImapRequestLineReader(InputStream input, OutputStream output, int maxNonSyncLiteralSize) {
         this.input = input;
         this.output = output;
+        this.maxNonSyncLiteralSize = maxNonSyncLiteralSize;
+    }
+
+    /**
+     * @return the largest non-synchronizing literal the client may send, or -1 for no limit.
+     */
+    public int getMaxNonSyncLiteralSize() {
+        return maxNonSyncLiteralSize;
     }
 
     /**
@@ -135,11 +144,21 @@ public class ImapRequestLineReader {
      * @throws ProtocolException If a char can't be read into each array element.
      */
     public void read(byte[] holder) throws ProtocolException {
+        read(holder, 0, holder.length);
+    }
+
+    /**
+     * Reads and consumes exactly length bytes from the underlying stream into
+     * the array provided, starting at offset.
+     *
+     * @throws ProtocolException If the stream ends before all bytes were read.
+     */
+    public void read(byte[] holder, int offset, int length) throws ProtocolException {
         int readTotal = 0;
         try {
-            while (readTotal < holder.length) {
+            while (readTotal < length) {
                 int count = 0;
-                count = input.read(holder, readTotal, holder.length - readTotal);
+                count = input.read(holder, offset + readTotal, length - readTotal);
                 if (count == -1) {
                     throw new ProtocolException("Unexpectd end of stream.");
                 }
@@ -154,6 +173,22 @@ public class ImapRequestLineReader {
 
     }
 
+    /**
+     * Reads and throws away a number of bytes from the underlying stream, such as
+     * a literal which is being rejected.
+     *
+     * @param count The number of bytes to discard.
+     * @throws ProtocolException If the stream ends first.
+     */
+    public void discard(long count) throws ProtocolException {
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+        while (count > 0) {
+            int chunk = (int) Math.min(count, buffer.length);
+            read(buffer, 0, chunk);
+            count -= chunk;
+        }
+    }
+
     /**
      * Sends a server command continuation request '+' back to the client,
      * requesting more data to be sent.
@@ -170,13 +205,39 @@ public class ImapRequestLineReader {
         }
     }
 
+    /**
+     * Consumes the rest of the command, up to and including its final end-of-line. A line
+     * ending in a non-synchronizing literal "{n+}" is followed by the literal and more of
+     * the same command, such as further messages of a MULTIAPPEND, so those are read off
+     * too rather than taken for new commands.
+     */
     public void consumeLine()
             throws ProtocolException {
-        char next = nextChar();
-        while (next != '\n') {
-            consume();
-            next = nextChar();
+        StringBuffer literal = null;
+        long pending = -1;
+        char next = consume();
+        while (next != '\n' || pending >= 0) {
+            if (next == '\n') {
+                discard(pending);
+                pending = -1;
+            } else if (next == '{') {
+                literal = new StringBuffer();
+            } else if (literal != null && next >= '0' && next <= '9') {
+                literal.append(next);
+            } else if (literal != null && next == '+' && literal.length() > 0) {
+                literal.append(next);
+            } else if (literal != null && next == '}' && literal.toString().endsWith("+")) {
+                try {
+                    pending = Long.parseLong(literal.substring(0, literal.length() - 1));
+                } catch (NumberFormatException e) {
+                    pending = -1;
+                }
+                literal = null;
+            } else if (next != '\r') {
+                literal = null;
+                pending = -1;
+            }
+            next = consume();
         }
-        consume();
     }
 }
@@ -22,7 +22,7 @@ public class ImapResponse implements ImapConstants {
     private String tag = UNTAGGED;
 
     public ImapResponse(OutputStream output) {
-        this.writer = new InternetPrintWriter(output, true);
+        this.writer = new InternetPrintWriter(output, false);
     }
 
     public void setTag(String tag) {
@@ -55,7 +55,7 @@ public class ImapResponse implements ImapConstants {
         responseCode(responseCode);
         commandName(command);
         message("completed.");
-        end();
+        endTagged();
     }
 
     /**
@@ -90,7 +90,7 @@ public class ImapResponse implements ImapConstants {
         commandName(command);
         message("failed.");
         message(reason);
-        end();
+        endTagged();
     }
 
     /**
@@ -105,7 +105,7 @@ public class ImapResponse implements ImapConstants {
         tag();
         message(BAD);
         message(message);
-        end();
+        endTagged();
     }
 
     /**
@@ -185,7 +185,7 @@ public class ImapResponse implements ImapConstants {
     public void taggedResponse(String message) {
         tag();
         message(message);
-        end();
+        endTagged();
     }
 
     public void taggedResponseCompleted(String message) {
@@ -193,7 +193,7 @@ public class ImapResponse implements ImapConstants {
         message(OK);
         message(message);
         message("completed.");
-        end();
+        endTagged();
     }
     
     /**
@@ -210,6 +210,14 @@ public class ImapResponse implements ImapConstants {
 
     public void byeResponse(String message) {
         untaggedResponse(BYE + SP + message);
+        flush();
+    }
+
+    /**
+     * Sends any buffered response lines to the client.
+     */
+    public void flush() {
+        writer.flush();
     }
 
     private void untagged() {
@@ -248,6 +256,15 @@ public class ImapResponse implements ImapConstants {
 
     private void end() {
         writer.println();
+    }
+
+    /**
+     * Untagged lines are only buffered; the tagged line completing a command is
+     * what flushes them, so the whole response to a command leaves in one write
+     * (and one compressed block when COMPRESS is active).
+     */
+    private void endTagged() {
+        writer.println();
         writer.flush();
     }
 
@@ -26,6 +26,10 @@ public final class ImapServer extends AbstractServer {
 
 
 
+    protected String getRejectResponse() {
+        return "* BYE Too many connections";
+    }
+
     public synchronized void quit() {
         try {
             for (Iterator<Thread> iterator = handlers.iterator(); iterator.hasNext();) {
@@ -62,9 +66,11 @@ public final class ImapServer extends AbstractServer {
             while (keepOn()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    ImapHandler imapHandler = new ImapHandler(managers.getUserManager(), managers.getImapHostManager(), clientSocket, lock);
-                    handlers.add(imapHandler);
-                    imapHandler.start();
+                    if (!admit(clientSocket)) {
+                        continue;
+                    }
+                    ImapHandler imapHandler = new ImapHandler(managers.getUserManager(), managers.getImapHostManager(), clientSocket, lock, setup, getStartTlsContext());
+                    addHandler(imapHandler, clientSocket);
                 } catch (IOException ignored) {
                     //ignored
                 }
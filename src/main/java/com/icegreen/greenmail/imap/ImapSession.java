@@ -11,6 +11,8 @@ import com.icegreen.greenmail.user.UserManager;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MailFolder;
 
+import java.io.IOException;
+
 /**
  * Encapsulates all state held for an ongoing Imap session,
  * which commences when a client first establishes a connection to the Imap
@@ -35,6 +37,28 @@ public interface ImapSession {
 
     void closeConnection(String byeMessage);
 
+    /**
+     * @return <code>true</code> if COMPRESS=DEFLATE is active on this connection.
+     */
+    boolean isCompressed();
+
+    /**
+     * Starts compressing the connection in both directions. Must be called once the
+     * (uncompressed) response to the COMPRESS command has been sent.
+     */
+    void startCompression() throws IOException;
+
+    /**
+     * @return <code>true</code> if STARTTLS is offered and the connection isn't using TLS yet.
+     */
+    boolean isStartTlsAvailable();
+
+    /**
+     * Switches the connection to TLS. Must be called once the (plain text) response to
+     * the STARTTLS command has been sent.
+     */
+    void startTls() throws IOException;
+
     /**
      * Provides the Imap host for this server, which is used for all access to mail
      * storage and subscriptions.
@@ -108,4 +132,19 @@ public interface ImapSession {
 
     void unsolicitedResponses(ImapResponse request, boolean omitExpunged) throws FolderException;
 
+    /**
+     * Switches on an extension for the rest of this session, either through ENABLE
+     * or through a command which implicitly enables it (eg FETCH with MODSEQ
+     * enables CONDSTORE).
+     *
+     * @param extension The capability name of the extension.
+     */
+    void enable(String extension);
+
+    /**
+     * @param extension The capability name of the extension.
+     * @return <code>true</code> if the extension has been enabled for this session.
+     */
+    boolean isEnabled(String extension);
+
 }
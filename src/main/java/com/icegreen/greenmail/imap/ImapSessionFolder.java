@@ -12,7 +12,9 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.UUID;
 
 import javax.mail.Flags;
 import javax.mail.internet.MimeMessage;
@@ -40,6 +42,7 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
     private boolean _readonly;
     private boolean _sizeChanged;
     private List<Integer> _expungedMsns = Collections.synchronizedList(new LinkedList<Integer>());
+    private List<Long> _expungedUids = new LinkedList<Long>();
     private Map<Integer, FlagUpdate> _modifiedFlags = Collections.synchronizedMap(new TreeMap<Integer, FlagUpdate>());
 
     public static Var REQUIRE = RT.var("clojure.core","require");
@@ -99,6 +102,7 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
                 expungedMsns[i] = msn;
             }
             _expungedMsns.clear();
+            _expungedUids.clear();
 
             // TODO - renumber any cached ids (for now we assume the _modifiedFlags has been cleared)\
             if (!(_modifiedFlags.isEmpty() && !_sizeChanged)) {
@@ -119,9 +123,28 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         return retVal;
     }
 
-    public void expunged(int msn) {
+    /**
+     * Like {@link #getExpunged()}, for QRESYNC clients that are told about expunged
+     * messages by uid, in a VANISHED response (RFC 7162, section 3.2.10).
+     *
+     * @return the uids of the messages expunged since the last call
+     */
+    public long[] getVanished() {
+        synchronized (_expungedMsns) {
+            long[] vanished = new long[_expungedUids.size()];
+            for (int i = 0; i < vanished.length; i++) {
+                vanished[i] = _expungedUids.get(i);
+            }
+            _expungedUids.clear();
+            _expungedMsns.clear();
+            return vanished;
+        }
+    }
+
+    public void expunged(int msn, long uid) {
         synchronized (_expungedMsns) {
             _expungedMsns.add(new Integer(msn));
+            _expungedUids.add(uid);
         }
     }
 
@@ -129,15 +152,19 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         _sizeChanged = true;
     }
 
-    public void flagsUpdated(int msn, Flags flags, Long uid) {
+    public void flagsUpdated(int msn, Flags flags, Long uid, long modSeq) {
         // This will overwrite any earlier changes
-        _modifiedFlags.put(new Integer(msn), new FlagUpdate(msn, uid, flags));
+        _modifiedFlags.put(new Integer(msn), new FlagUpdate(msn, uid, flags, modSeq));
     }
 
     public void mailboxDeleted() {
         _session.closeConnection("Mailbox " + _folder.getName() + " has been deleted");
     }
 
+    public UUID getId() {
+        return _folder.getId();
+    }
+
     public String getName() {
         return _folder.getName();
     }
@@ -154,6 +181,10 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         return _folder.getMessageCount();
     }
 
+    public long getSize() {
+        return _folder.getSize();
+    }
+
     public int getRecentCount(boolean reset) {
         return _folder.getRecentCount(reset);
     }
@@ -195,10 +226,22 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         return _folder.getUnseenCount();
     }
 
+    public long getHighestModSeq() {
+        return _folder.getHighestModSeq();
+    }
+
+    public long[] getVanishedUids(long modSeq) {
+        return _folder.getVanishedUids(modSeq);
+    }
+
     public long appendMessage(MimeMessage message, Flags flags, Date internalDate) {
         return _folder.appendMessage(message, flags, internalDate);
     }
 
+    public long[] appendMessages(List<MimeMessage> messages, List<Flags> flags, List<Date> internalDates) {
+        return _folder.appendMessages(messages, flags, internalDates);
+    }
+
     public void store(MovingMessage mail) throws Exception {
         _folder.store(mail);
     }
@@ -231,6 +274,10 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         return _folder.copyMessage(uid, toFolder);
     }
 
+    public SortedMap<Long, Long> moveMessages(long[] uids, MailFolder toFolder) throws FolderException {
+        return _folder.moveMessages(uids, toFolder);
+    }
+
     public void addListener(FolderListener listener) {
         _folder.addListener(listener);
     }
@@ -263,11 +310,13 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         private int msn;
         private Long uid;
         private Flags flags;
+        private long modSeq;
 
-        public FlagUpdate(int msn, Long uid, Flags flags) {
+        public FlagUpdate(int msn, Long uid, Flags flags, long modSeq) {
             this.msn = msn;
             this.uid = uid;
             this.flags = flags;
+            this.modSeq = modSeq;
         }
 
         public int getMsn() {
@@ -281,6 +330,10 @@ public class ImapSessionFolder implements MailFolder, FolderListener {
         public Flags getFlags() {
             return flags;
         }
+
+        public long getModSeq() {
+            return modSeq;
+        }
     }
 
 }
@@ -9,13 +9,17 @@ package com.icegreen.greenmail.imap;
 import com.icegreen.greenmail.user.GreenMailUser;
 import com.icegreen.greenmail.user.UserManager;
 import com.icegreen.greenmail.imap.ImapSessionFolder.FlagUpdate;
+import com.icegreen.greenmail.imap.commands.IdRange;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MailFolder;
 import com.icegreen.greenmail.store.MessageFlags;
 
 import javax.mail.Flags;
+import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Darrell DeBoer <darrell@apache.org>
@@ -28,6 +32,7 @@ public final class ImapSessionImpl implements ImapSession {
 
     private String clientHostName;
     private String clientAddress;
+    private Set<String> enabled = new HashSet<String>();
 
     // TODO these shouldn't be in here - they can be provided directly to command components.
     private ImapHandler handler;
@@ -77,12 +82,22 @@ public final class ImapSessionImpl implements ImapSession {
                     out.append(" UID ");
                     out.append(entry.getUid());
                 }
+                if (isEnabled(ImapConstants.CONDSTORE)) {
+                    out.append(" MODSEQ (");
+                    out.append(entry.getModSeq());
+                    out.append(")");
+                }
                 response.fetchResponse(msn, out.toString());
 
             }
 
-            // Expunged messages
-            if (!omitExpunged) {
+            // Expunged messages, by uid once QRESYNC is enabled
+            if (!omitExpunged && isEnabled(ImapConstants.QRESYNC)) {
+                long[] vanished = selected.getVanished();
+                if (vanished.length > 0) {
+                    response.untaggedResponse("VANISHED " + IdRange.toSequenceSet(vanished));
+                }
+            } else if (!omitExpunged) {
                 int[] expunged = selected.getExpunged();
                 for (int i = 0; i < expunged.length; i++) {
                     int msn = expunged[i];
@@ -100,6 +115,22 @@ public final class ImapSessionImpl implements ImapSession {
         handler.resetHandler();
     }
 
+    public boolean isCompressed() {
+        return handler.isCompressed();
+    }
+
+    public void startCompression() throws IOException {
+        handler.startCompression();
+    }
+
+    public boolean isStartTlsAvailable() {
+        return handler.isStartTlsAvailable();
+    }
+
+    public void startTls() throws IOException {
+        handler.startTls();
+    }
+
     public UserManager getUserManager() {
         return users;
     }
@@ -148,4 +179,12 @@ public final class ImapSessionImpl implements ImapSession {
         return this.state;
     }
 
+    public void enable(String extension) {
+        enabled.add(extension);
+    }
+
+    public boolean isEnabled(String extension) {
+        return enabled.contains(extension);
+    }
+
 }
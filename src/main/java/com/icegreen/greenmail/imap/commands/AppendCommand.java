@@ -13,13 +13,19 @@ import com.icegreen.greenmail.imap.ImapSession;
 import com.icegreen.greenmail.imap.ProtocolException;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.SpooledInputStream;
 
 import javax.mail.Flags;
 import javax.mail.internet.MimeMessage;
-import java.io.FilterInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Handles processeing for the APPEND imap command.
@@ -29,7 +35,13 @@ import java.util.Date;
  */
 class AppendCommand extends AuthenticatedStateCommand {
     public static final String NAME = "APPEND";
-    public static final String ARGS = "<mailbox> [<flag_list>] [<date_time>] literal";
+    public static final String ARGS = "<mailbox> [<flag_list>] [<date_time>] literal {[<flag_list>] [<date_time>] literal}";
+
+    /**
+     * Literals larger than this are spooled to a temporary file rather than held in memory.
+     */
+    static final int SPOOL_THRESHOLD = 256 * 1024;
+    private static final int SPOOL_BUFFER_SIZE = 8192;
 
     private AppendCommandParser appendCommandParser = new AppendCommandParser();
 
@@ -41,29 +53,49 @@ class AppendCommand extends AuthenticatedStateCommand {
                              ImapSession session)
             throws ProtocolException, FolderException {
         String mailboxName = appendCommandParser.mailbox(request);
-        Flags flags = appendCommandParser.optionalAppendFlags(request);
-        if (flags == null) {
-            flags = new Flags();
-        }
-        Date datetime = appendCommandParser.optionalDateTime(request);
-        if (datetime == null) {
-            datetime = new Date();
-        }
-        MimeMessage message = appendCommandParser.mimeMessage(request);
-        appendCommandParser.endLine(request);
 
+        // RFC 3502 MULTIAPPEND: each message is parsed as its literal arrives,
+        // and the whole batch is committed to the folder in one go.
+        List<MimeMessage> messages = new ArrayList<MimeMessage>();
+        List<Flags> flagsList = new ArrayList<Flags>();
+        List<Date> dates = new ArrayList<Date>();
         MailFolder folder = null;
+        long[] uids = null;
         try {
-            folder = getMailbox(mailboxName, session, true);
-        } catch (FolderException e) {
-            e.setResponseCode("TRYCREATE");
-            throw e;
-        }
+            do {
+                Flags flags = appendCommandParser.optionalAppendFlags(request);
+                if (flags == null) {
+                    flags = new Flags();
+                }
+                Date datetime = appendCommandParser.optionalDateTime(request);
+                if (datetime == null) {
+                    datetime = new Date();
+                }
+                messages.add(appendCommandParser.mimeMessage(request));
+                flagsList.add(flags);
+                dates.add(datetime);
+            } while (appendCommandParser.hasMoreArguments(request));
+            appendCommandParser.endLine(request);
 
-        folder.appendMessage(message, flags, datetime);
+            try {
+                folder = getMailbox(mailboxName, session, true);
+            } catch (FolderException e) {
+                e.setResponseCode("TRYCREATE");
+                throw e;
+            }
+
+            uids = folder.appendMessages(messages, flagsList, dates);
+        } finally {
+            // Messages that didn't make it into the store would keep their spool files open
+            if (uids == null) {
+                for (MimeMessage message : messages) {
+                    SpooledInputStream.release(message);
+                }
+            }
+        }
 
         session.unsolicitedResponses(response);
-        response.commandComplete(this);
+        response.commandComplete(this, "APPENDUID " + folder.getUidValidity() + SP + IdRange.toSequenceSet(uids));
     }
 
     /**
@@ -111,9 +143,10 @@ class AppendCommand extends AuthenticatedStateCommand {
         }
 
         /**
-         * Reads a MimeMessage encoded as a string literal from the request.
-         * TODO shouldn't need to read as a string and write out bytes
-         * use FixedLengthInputStream instead. Hopefully it can then be dynamic.
+         * Reads a MimeMessage from a literal in the request. The literal bytes are handed
+         * to the message as a shared input stream, so the content is kept as read off the
+         * wire and never copied again; literals above {@link #SPOOL_THRESHOLD} are spooled
+         * to a temporary file.
          *
          * @param request The Imap APPEND request
          * @return A MimeMessage read off the request.
@@ -121,85 +154,59 @@ class AppendCommand extends AuthenticatedStateCommand {
         public MimeMessage mimeMessage(ImapRequestLineReader request)
                 throws ProtocolException {
             request.nextWordChar();
-            String mailString = consumeLiteral(request);
+            int size = consumeLiteralLength(request);
+
+            InputStream content;
+            if (size <= SPOOL_THRESHOLD) {
+                byte[] buffer = new byte[size];
+                request.read(buffer);
+                content = new SharedByteArrayInputStream(buffer);
+            } else {
+                content = spool(request, size);
+            }
 
             try {
-                return GreenMailUtil.newMimeMessage(mailString);
+                return GreenMailUtil.newMimeMessage(content);
             } catch (Exception e) {
                 throw new ProtocolException("UnexpectedException: " + e.getMessage());
             }
         }
 
-
-    }
-
-    /**
-     * This class is not yet used in the AppendCommand.
-     * <p/>
-     * An input stream which reads a fixed number of bytes from the underlying
-     * input stream. Once the number of bytes has been read, the FixedLengthInputStream
-     * will act as thought the end of stream has been reached, even if more bytes are
-     * present in the underlying input stream.
-     */
-    class FixedLengthInputStream extends FilterInputStream {
-        private long pos = 0;
-        private long length;
-
-        public FixedLengthInputStream(InputStream in, long length) {
-            super(in);
-            this.length = length;
-        }
-
-        public int read() throws IOException {
-            if (pos >= length) {
-                return -1;
-            }
-            pos++;
-            return super.read();
-        }
-
-        public int read(byte b[]) throws IOException {
-            if (pos >= length) {
-                return -1;
-            }
-
-            if (pos + b.length >= length) {
-                pos = length;
-                return super.read(b, 0, (int) (length - pos));
+        /**
+         * Copies a literal of the given size to a temporary file in fixed-size chunks.
+         * The file is unlinked as soon as it is open (or at exit where that isn't
+         * possible), and stays open until the message leaves the store.
+         */
+        private InputStream spool(ImapRequestLineReader request, int size)
+                throws ProtocolException {
+            byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+            int remaining = size;
+            File file = null;
+            try {
+                file = File.createTempFile("greenmail-append", ".eml");
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    while (remaining > 0) {
+                        int chunk = Math.min(remaining, buffer.length);
+                        request.read(buffer, 0, chunk);
+                        remaining -= chunk;
+                        out.write(buffer, 0, chunk);
+                    }
+                } finally {
+                    out.close();
+                }
+                InputStream in = new SpooledInputStream(file);
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+                return in;
+            } catch (IOException e) {
+                request.discard(remaining);
+                if (file != null) {
+                    file.delete();
+                }
+                throw new ProtocolException("Unable to spool message: " + e.getMessage());
             }
-
-            pos += b.length;
-            return super.read(b);
-        }
-
-        public int read(byte b[], int off, int len) throws IOException {
-            throw new IOException("Not implemented");
-//            return super.read( b, off, len );
-        }
-
-        public long skip(long n) throws IOException {
-            throw new IOException("Not implemented");
-//            return super.skip( n );
-        }
-
-        public int available() throws IOException {
-            return super.available();
-        }
-
-        public void close() throws IOException {
-            // Don't do anything to the underlying stream.
-        }
-
-        public synchronized void mark(int readlimit) {
-            // Don't do anything.
-        }
-
-        public synchronized void reset() throws IOException {
-            throw new IOException("mark not supported");
-        }
-
-        public boolean markSupported() {
-            return false;
         }
     }
 }
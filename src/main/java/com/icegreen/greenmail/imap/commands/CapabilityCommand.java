@@ -32,7 +32,14 @@ class CapabilityCommand extends CommandTemplate {
                              ImapSession session)
             throws ProtocolException, FolderException {
         parser.endLine(request);
-        response.untaggedResponse(CAPABILITY_RESPONSE);
+        String capabilities = CAPABILITY_RESPONSE;
+        if (request.getMaxNonSyncLiteralSize() >= 0) {
+            capabilities = capabilities.replace(LITERAL_PLUS, LITERAL_MINUS);
+        }
+        if (session.isStartTlsAvailable()) {
+            capabilities += SP + STARTTLS;
+        }
+        response.untaggedResponse(capabilities);
         session.unsolicitedResponses(response);
         response.commandComplete(this);
     }
@@ -11,6 +11,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import javax.mail.Flags;
 
@@ -171,6 +172,24 @@ public class CommandParser {
      */
     protected String consumeLiteral(ImapRequestLineReader request)
             throws ProtocolException {
+        int size = consumeLiteralLength(request);
+        byte[] buffer = new byte[size];
+        request.read(buffer);
+
+        return new String(buffer);
+    }
+
+    /**
+     * Reads the "{" charCount ["+"] "}" CRLF prefix of a literal, leaving the request
+     * positioned at the start of the literal data, and returns the charCount.
+     * <p/>
+     * For a synchronizing literal the command continuation request is sent first.
+     * A non-synchronizing literal (LITERAL+/LITERAL-, RFC 7888) is already on its way,
+     * so no round trip is needed; if it is larger than the configured maximum it is
+     * read and discarded, and the command is rejected.
+     */
+    protected int consumeLiteralLength(ImapRequestLineReader request)
+            throws ProtocolException {
         // The 1st character must be '{'
         consumeChar(request, '{');
 
@@ -195,15 +214,23 @@ public class CommandParser {
         consumeChar(request, '}');
         consumeCRLF(request);
 
+        int size;
+        try {
+            size = Integer.parseInt(digits.toString());
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid literal length: '" + digits + "'");
+        }
+
         if (synchronizedLiteral) {
             request.commandContinuationRequest();
+        } else {
+            int max = request.getMaxNonSyncLiteralSize();
+            if (max >= 0 && size > max) {
+                request.discard(size);
+                throw new ProtocolException("Non-synchronizing literal larger than " + max + " bytes.");
+            }
         }
-
-        int size = Integer.parseInt(digits.toString());
-        byte[] buffer = new byte[size];
-        request.read(buffer);
-
-        return new String(buffer);
+        return size;
     }
 
     /**
@@ -344,6 +371,57 @@ public class CommandParser {
         request.eol();
     }
 
+    /**
+     * Skips spaces and reports whether another argument follows on this line.
+     */
+    public boolean hasMoreArguments(ImapRequestLineReader request) throws ProtocolException {
+        char next = request.nextChar();
+        while (next == ' ') {
+            request.consume();
+            next = request.nextChar();
+        }
+        return next != '\r' && next != '\n';
+    }
+
+    /**
+     * Reads an optional parenthesised parameter list, such as the CONDSTORE and QRESYNC
+     * modifiers of SELECT and FETCH. The words in the list are returned in order, with
+     * the parentheses of nested lists returned as "(" and ")" words. Returns
+     * <code>null</code> if the line ends without a list.
+     */
+    public List<String> parameterList(ImapRequestLineReader request) throws ProtocolException {
+        if (!hasMoreArguments(request)) {
+            return null;
+        }
+        consumeChar(request, '(');
+
+        List<String> words = new ArrayList<String>();
+        StringBuffer word = new StringBuffer();
+        int depth = 1;
+        while (depth > 0) {
+            char next = request.nextChar();
+            if (next == '\r' || next == '\n') {
+                throw new ProtocolException("Unterminated parameter list.");
+            }
+            request.consume();
+            if (next == ' ' || next == '(' || next == ')') {
+                if (word.length() > 0) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                }
+                if (next == '(') {
+                    depth++;
+                    words.add("(");
+                } else if (next == ')' && --depth > 0) {
+                    words.add(")");
+                }
+            } else {
+                word.append(next);
+            }
+        }
+        return words;
+    }
+
     /**
      * Reads a "message set" argument, and parses into an IdSet.
      * Currently only supports a single range of values.
@@ -352,7 +430,13 @@ public class CommandParser {
             throws ProtocolException {
         CharacterValidator validator = new MessageSetCharValidator();
         String nextWord = consumeWord(request, validator);
+        return parseIdRange(nextWord);
+    }
 
+    /**
+     * Parses a "message set" which has already been read from the request.
+     */
+    public IdRange[] parseIdRange(String nextWord) throws ProtocolException {
         int commaPos = nextWord.indexOf(',');
         if (commaPos == -1) {
             return new IdRange[]{parseRange(nextWord)};
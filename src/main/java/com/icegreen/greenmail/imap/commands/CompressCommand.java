@@ -0,0 +1,98 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been modified by the copyright holder. Original file can be found at http://james.apache.org
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.imap.commands;
+
+import java.io.IOException;
+
+import com.icegreen.greenmail.imap.ImapRequestLineReader;
+import com.icegreen.greenmail.imap.ImapResponse;
+import com.icegreen.greenmail.imap.ImapSession;
+import com.icegreen.greenmail.imap.ProtocolException;
+import com.icegreen.greenmail.store.FolderException;
+
+/**
+ * Handles processeing for the COMPRESS imap command (RFC 4978).
+ */
+class CompressCommand extends AuthenticatedStateCommand {
+    public static final String NAME = "COMPRESS";
+    public static final String ARGS = "DEFLATE";
+
+    /**
+     * @see CommandTemplate#doProcess
+     */
+    protected void doProcess(ImapRequestLineReader request,
+                             ImapResponse response,
+                             ImapSession session)
+            throws ProtocolException, FolderException {
+        String mechanism = parser.atom(request);
+        parser.endLine(request);
+
+        if (!ARGS.equalsIgnoreCase(mechanism)) {
+            throw new ProtocolException("Unsupported compression mechanism: " + mechanism);
+        }
+        if (session.isCompressed()) {
+            response.commandFailed(this, "COMPRESSIONACTIVE", "Compression is already active.");
+            return;
+        }
+
+        // The tagged response is the last thing sent uncompressed.
+        response.commandComplete(this);
+        try {
+            session.startCompression();
+        } catch (IOException e) {
+            session.closeConnection();
+        }
+    }
+
+    /**
+     * @see ImapCommand#getName
+     */
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see CommandTemplate#getArgSyntax
+     */
+    public String getArgSyntax() {
+        return ARGS;
+    }
+}
+
+/*
+3.  The COMPRESS Command
+
+   Arguments: Name of compression mechanism: "DEFLATE".
+
+   Responses: None
+
+   Result: OK The server will compress its responses and expects the
+              client to compress its commands.
+           NO If the server refuses to compress
+           BAD Command unknown, invalid or unknown argument, or COMPRESS
+              already active.
+
+   The COMPRESS command instructs the server to use the named
+   compression mechanism ("DEFLATE" is the only one defined) for all
+   commands and/or responses after COMPRESS.
+
+   The client MUST NOT send any further commands until it has seen the
+   result of COMPRESS.  If the response was OK, the client MUST compress
+   starting with the first command after COMPRESS.  If the server
+   response was BAD or NO, the client MUST NOT turn on compression.
+
+   If the server responds NO because it knows that the same mechanism is
+   active already (e.g., because TLS has negotiated the same mechanism),
+   it MUST send COMPRESSIONACTIVE as resp-text-code (see [RFC5530],
+   Section 3), and the resp-text SHOULD say which layer compresses.
+
+   If the server issues an OK response, the server MUST compress
+   starting immediately after the CRLF which ends the tagged OK
+   response.  (Responses issued by the server before the OK response
+   will, of course, still be uncompressed.)  If the server issues a BAD
+   or NO response, the server MUST NOT turn on compression.
+*/
@@ -0,0 +1,96 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been modified by the copyright holder. Original file can be found at http://james.apache.org
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.imap.commands;
+
+import com.icegreen.greenmail.imap.ImapRequestLineReader;
+import com.icegreen.greenmail.imap.ImapResponse;
+import com.icegreen.greenmail.imap.ImapSession;
+import com.icegreen.greenmail.imap.ProtocolException;
+import com.icegreen.greenmail.store.FolderException;
+
+/**
+ * Handles processeing for the ENABLE imap command (RFC 5161).
+ * Only CONDSTORE and QRESYNC can be enabled, others are silently ignored.
+ */
+class EnableCommand extends AuthenticatedStateCommand {
+    public static final String NAME = "ENABLE";
+    public static final String ARGS = "<capability>+";
+
+    /**
+     * @see CommandTemplate#doProcess
+     */
+    protected void doProcess(ImapRequestLineReader request,
+                             ImapResponse response,
+                             ImapSession session)
+            throws ProtocolException, FolderException {
+        StringBuffer enabled = new StringBuffer("ENABLED");
+        do {
+            String capability = parser.atom(request).toUpperCase();
+            if (QRESYNC.equals(capability) || CONDSTORE.equals(capability)) {
+                if (!session.isEnabled(capability)) {
+                    session.enable(capability);
+                    enabled.append(SP).append(capability);
+                }
+            }
+        } while (parser.hasMoreArguments(request));
+        parser.endLine(request);
+
+        // QRESYNC implies CONDSTORE
+        if (session.isEnabled(QRESYNC)) {
+            session.enable(CONDSTORE);
+        }
+
+        response.untaggedResponse(enabled.toString());
+        session.unsolicitedResponses(response);
+        response.commandComplete(this);
+    }
+
+    /**
+     * @see ImapCommand#getName
+     */
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see CommandTemplate#getArgSyntax
+     */
+    public String getArgSyntax() {
+        return ARGS;
+    }
+}
+
+/*
+3.1.  The ENABLE Command
+
+   Arguments: capability names
+
+   Result:    OK: Relevant capabilities enabled
+              BAD: No arguments, or syntax error in an argument
+
+   The ENABLE command takes a list of capability names, and requests the
+   server to enable the named extensions.  Once enabled using ENABLE,
+   each extension remains active until the IMAP connection is closed.
+   For each argument, the server does the following:
+
+   - If the argument is not an extension known to the server, the server
+     MUST ignore the argument.
+
+   - If the argument is an extension known to the server, and it is not
+     specifically permitted to be enabled using ENABLE, the server MUST
+     ignore the argument.  (Note that knowing about an extension doesn't
+     necessarily imply supporting that extension.)
+
+   - If the argument is an extension that is supported by the server and
+     that needs to be enabled, the server MUST enable the extension for
+     the duration of the connection.  At present, this applies only to
+     CONDSTORE ([RFC4551]).  Note that once an extension is enabled,
+     there is no way to disable it.
+
+   If the ENABLE command is successful, the server MUST send an untagged
+   ENABLED response (see Section 3.2).
+*/
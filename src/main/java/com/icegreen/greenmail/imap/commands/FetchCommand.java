@@ -30,6 +30,7 @@ import com.icegreen.greenmail.imap.ProtocolException;
 import com.icegreen.greenmail.mail.MailException;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MessageFlags;
+import com.icegreen.greenmail.store.MimeStructure;
 import com.icegreen.greenmail.store.SimpleStoredMessage;
 import com.icegreen.greenmail.util.GreenMailUtil;
 
@@ -42,7 +43,7 @@ import com.icegreen.greenmail.util.GreenMailUtil;
  */
 class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
     public static final String NAME = "FETCH";
-    public static final String ARGS = "<message-set> <fetch-profile>";
+    public static final String ARGS = "<message-set> <fetch-profile> [(CHANGEDSINCE <modseq> [VANISHED])]";
 
     private FetchCommandParser fetchCommandParser = new FetchCommandParser();
 
@@ -63,21 +64,37 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             throws ProtocolException, FolderException {
         IdRange[] idSet = fetchCommandParser.parseIdRange(request);
         FetchRequest fetch = fetchCommandParser.fetchRequest(request);
+        fetchCommandParser.fetchModifiers(request, fetch);
         fetchCommandParser.endLine(request);
 
         if (useUids) {
             fetch.uid = true;
         }
+        if (fetch.modSeq || fetch.changedSince >= 0) {
+            session.enable(CONDSTORE);
+        }
+        if (session.isEnabled(CONDSTORE) &&
+                (fetch.flags || fetch.isSetSeen() || fetch.changedSince >= 0)) {
+            fetch.modSeq = true;
+        }
 
         ImapSessionFolder mailbox = session.getSelected();
-        long[] uids = mailbox.getMessageUids();
-        for (int i = 0; i < uids.length; i++) {
-            long uid = uids[i];
-            int msn = mailbox.getMsn(uid);
-
-            if ((useUids && includes(idSet, uid)) ||
-                    (!useUids && includes(idSet, msn))) {
-                SimpleStoredMessage storedMessage = mailbox.getMessage(uid);
+        if (fetch.vanished) {
+            if (!useUids || fetch.changedSince < 0 || !session.isEnabled(QRESYNC)) {
+                throw new ProtocolException("VANISHED requires UID FETCH with CHANGEDSINCE and QRESYNC enabled.");
+            }
+            sendVanished(idSet, mailbox.getVanishedUids(fetch.changedSince), response);
+        }
+
+        List<SimpleStoredMessage> messages = mailbox.getMessages();
+        for (int i = 0; i < messages.size(); i++) {
+            SimpleStoredMessage storedMessage = messages.get(i);
+            long uid = storedMessage.getUid();
+            int msn = i + 1;
+
+            if (((useUids && includes(idSet, uid)) ||
+                    (!useUids && includes(idSet, msn))) &&
+                    storedMessage.getModSeq() > fetch.changedSince) {
                 String msgData = outputMessage(fetch, storedMessage, mailbox, useUids);
                 response.fetchResponse(msn, msgData);
             }
@@ -88,6 +105,21 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         response.commandComplete(this);
     }
 
+    private void sendVanished(IdRange[] idSet, long[] vanished, ImapResponse response) {
+        long[] requested = new long[vanished.length];
+        int count = 0;
+        for (int i = 0; i < vanished.length; i++) {
+            if (includes(idSet, vanished[i])) {
+                requested[count++] = vanished[i];
+            }
+        }
+        if (count > 0) {
+            long[] uids = new long[count];
+            System.arraycopy(requested, 0, uids, 0, count);
+            response.untaggedResponse("VANISHED (EARLIER) " + IdRange.toSequenceSet(uids));
+        }
+    }
+
     private String outputMessage(FetchRequest fetch, SimpleStoredMessage message,
                                  ImapSessionFolder folder, boolean useUids)
             throws FolderException {
@@ -120,7 +152,7 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         // RFC822.SIZE response
         if (fetch.size) {
             response.append(" RFC822.SIZE ");
-            response.append(message.getAttributes().getSize());
+            response.append(message.getSize());
         }
 
         // ENVELOPE response
@@ -147,6 +179,13 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             response.append(message.getUid());
         }
 
+        // MODSEQ response
+        if (fetch.modSeq) {
+            response.append(" MODSEQ (");
+            response.append(message.getModSeq());
+            response.append(")");
+        }
+
         // BODY part responses.
         Collection<BodyFetchElement> elements = fetch.getBodyElements();
         for (Iterator<BodyFetchElement> iterator = elements.iterator(); iterator.hasNext();) {
@@ -160,9 +199,15 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             // Various mechanisms for returning message body.
             String sectionSpecifier = fetchElement.getParameters();
 
-            MimeMessage mimeMessage = message.getMimeMessage();
             try {
-                handleBodyFetch(mimeMessage, sectionSpecifier, fetchElement.getPartial(), response);
+                MimeStructure structure = message.getStructure();
+                long[] range = null == structure ? null : structure.getSectionRange(sectionSpecifier);
+                if (null != range) {
+                    range = doPartial(fetchElement.getPartial(), range, response);
+                    addLiteral(structure.read(range[0], range[1]), response);
+                } else {
+                    handleBodyFetch(message.getMimeMessage(), sectionSpecifier, fetchElement.getPartial(), response);
+                }
             } catch (Exception e) {
                 // TODO  chain exceptions
                 throw new FolderException(e.getMessage());
@@ -271,6 +316,24 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
 		return hierarchyLenght-1 > actual;
 	}
 
+    /**
+     * Narrows a section's range to the requested partial, like {@link #doPartial(String, byte[], StringBuffer)}.
+     */
+    private long[] doPartial(String partial, long[] range, StringBuffer response) {
+        if (null == partial) {
+            return range;
+        }
+        String[] strs = partial.split("\\.");
+        long length = range[1] - range[0];
+        long start = Math.min(Long.parseLong(strs[0]), length);
+        long len = 2 == strs.length ? Long.parseLong(strs[1]) : length;
+        len = Math.min(len, length - start);
+        response.append("<");
+        response.append(start);
+        response.append("> ");
+        return new long[]{range[0] + start, range[0] + start + len};
+    }
+
 	private byte[] doPartial(String partial, byte[] bytes, StringBuffer response) {
         if (null != partial) {
             String[] strs = partial.split("\\.");
@@ -390,6 +453,32 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
             return fetch;
         }
 
+        /**
+         * Reads the optional CONDSTORE/QRESYNC fetch modifiers,
+         * "(CHANGEDSINCE modseq [VANISHED])".
+         */
+        public void fetchModifiers(ImapRequestLineReader request, FetchRequest fetch)
+                throws ProtocolException {
+            List<String> modifiers = parameterList(request);
+            if (modifiers == null) {
+                return;
+            }
+            for (int i = 0; i < modifiers.size(); i++) {
+                String modifier = modifiers.get(i);
+                if ("CHANGEDSINCE".equalsIgnoreCase(modifier) && i + 1 < modifiers.size()) {
+                    try {
+                        fetch.changedSince = Long.parseLong(modifiers.get(++i));
+                    } catch (NumberFormatException e) {
+                        throw new ProtocolException("Invalid CHANGEDSINCE value.");
+                    }
+                } else if ("VANISHED".equalsIgnoreCase(modifier)) {
+                    fetch.vanished = true;
+                } else {
+                    throw new ProtocolException("Invalid fetch modifier: " + modifier);
+                }
+            }
+        }
+
         private void addNextElement(ImapRequestLineReader command, FetchRequest fetch)
                 throws ProtocolException {
             char next = nextCharInLine(command);
@@ -431,6 +520,8 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
                     fetch.bodyStructure = true;
                 } else if ("UID".equalsIgnoreCase(name)) {
                     fetch.uid = true;
+                } else if ("MODSEQ".equalsIgnoreCase(name)) {
+                    fetch.modSeq = true;
                 } else if ("RFC822".equalsIgnoreCase(name)) {
                     fetch.add(new BodyFetchElement("RFC822", ""), false);
                 } else if ("RFC822.HEADER".equalsIgnoreCase(name)) {
@@ -508,6 +599,9 @@ class FetchCommand extends SelectedStateCommand implements UidEnabledCommand {
         boolean envelope;
         boolean body;
         boolean bodyStructure;
+        boolean modSeq;
+        long changedSince = -1;
+        boolean vanished;
 
         private boolean setSeen = false;
 
@@ -6,6 +6,8 @@
  */
 package com.icegreen.greenmail.imap.commands;
 
+import java.util.Arrays;
+
 /**
  * Represents a range of UID values.
  */
@@ -36,4 +38,31 @@ public class IdRange {
         return _lowVal <= uid && uid <= _highVal;
     }
 
+    /**
+     * Formats ids as a compact sequence set, eg "1:3,7,9:10", merging runs of
+     * consecutive values into ranges.
+     */
+    public static String toSequenceSet(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        StringBuilder builder = new StringBuilder();
+        int i = 0;
+        while (i < sorted.length) {
+            long low = sorted[i];
+            long high = low;
+            while (i + 1 < sorted.length && sorted[i + 1] <= high + 1) {
+                high = sorted[++i];
+            }
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(low);
+            if (high != low) {
+                builder.append(':').append(high);
+            }
+            i++;
+        }
+        return builder.toString();
+    }
+
 }
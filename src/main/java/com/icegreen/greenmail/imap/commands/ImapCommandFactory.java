@@ -32,6 +32,7 @@ public class ImapCommandFactory {
         // AUTHENTICATE and LOGIN
         _imapCommands.put(AuthenticateCommand.NAME, AuthenticateCommand.class);
         _imapCommands.put(LoginCommand.NAME, LoginCommand.class);
+        _imapCommands.put(StartTlsCommand.NAME, StartTlsCommand.class);
 
         // Commands valid in AUTHENTICATED or SELECTED state.
         // RFC2060: SELECT, EXAMINE, CREATE, DELETE, RENAME, SUBSCRIBE, UNSUBSCRIBE, LIST, LSUB, STATUS, and APPEND
@@ -47,6 +48,12 @@ public class ImapCommandFactory {
         _imapCommands.put(StatusCommand.NAME, StatusCommand.class);
         _imapCommands.put(AppendCommand.NAME, AppendCommand.class);
 
+        // RFC5161 ENABLE
+        _imapCommands.put(EnableCommand.NAME, EnableCommand.class);
+
+        // RFC4978 COMPRESS
+        _imapCommands.put(CompressCommand.NAME, CompressCommand.class);
+
 //        // RFC2342 NAMESPACE
 //        _imapCommands.put( "NAMESPACE", NamespaceCommand.class );
 
@@ -64,6 +71,8 @@ public class ImapCommandFactory {
         _imapCommands.put(CloseCommand.NAME, CloseCommand.class);
         _imapCommands.put(ExpungeCommand.NAME, ExpungeCommand.class);
         _imapCommands.put(CopyCommand.NAME, CopyCommand.class);
+        // RFC6851 MOVE
+        _imapCommands.put(MoveCommand.NAME, MoveCommand.class);
         _imapCommands.put(SearchCommand.NAME, SearchCommand.class);
         _imapCommands.put(FetchCommand.NAME, FetchCommand.class);
         _imapCommands.put(StoreCommand.NAME, StoreCommand.class);
@@ -11,11 +11,14 @@ import com.icegreen.greenmail.imap.ImapResponse;
 import com.icegreen.greenmail.imap.ImapSession;
 import com.icegreen.greenmail.imap.ProtocolException;
 import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.FolderStatus;
+import com.icegreen.greenmail.store.InMemoryStore;
 import com.icegreen.greenmail.store.MailFolder;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Handles processeing for the LIST imap command.
@@ -25,7 +28,7 @@ import java.util.Iterator;
  */
 class ListCommand extends AuthenticatedStateCommand {
     public static final String NAME = "LIST";
-    public static final String ARGS = "<reference-name> <mailbox-name-with-wildcards>";
+    public static final String ARGS = "<reference-name> <mailbox-name-with-wildcards> [RETURN (STATUS (<status-data-item>+))]";
 
     private ListCommandParser listCommandParser = new ListCommandParser();
 
@@ -38,6 +41,7 @@ class ListCommand extends AuthenticatedStateCommand {
             throws ProtocolException, FolderException {
         String referenceName = listCommandParser.mailbox(request);
         String mailboxPattern = listCommandParser.listMailbox(request);
+        StatusCommand.StatusDataItems statusDataItems = listCommandParser.returnStatus(request);
         listCommandParser.endLine(request);
 
         // Should the #user.userName section be removed from names returned?
@@ -97,11 +101,31 @@ class ListCommand extends AuthenticatedStateCommand {
                 session.getUser().getQualifiedMailboxName();
         int prefixLength = personalNamespace.length();
 
-        Iterator<MailFolder> iterator = mailboxes.iterator();
-        while (iterator.hasNext()) {
-            MailFolder folder = iterator.next();
+        // Selectability is decided once, so a mailbox listed as selectable is sure to
+        // have a status in the snapshot below, whatever happens to it meanwhile
+        List<MailFolder> folders = new ArrayList<MailFolder>(mailboxes);
+        boolean[] selectable = new boolean[folders.size()];
+        List<MailFolder> selectableFolders = new ArrayList<MailFolder>(folders.size());
+        for (int i = 0; i < selectable.length; i++) {
+            selectable[i] = folders.get(i).isSelectable();
+            if (selectable[i]) {
+                selectableFolders.add(folders.get(i));
+            }
+        }
+
+        // RFC 5819 LIST-STATUS: the counters of all listed mailboxes come from one snapshot
+        Iterator<FolderStatus> statuses = null;
+        if (statusDataItems != null) {
+            statuses = InMemoryStore.getStatus(selectableFolders).iterator();
+            if (statusDataItems.highestModSeq) {
+                session.enable(CONDSTORE);
+            }
+        }
+
+        for (int i = 0; i < selectable.length; i++) {
+            MailFolder folder = folders.get(i);
             StringBuffer message = new StringBuffer("(");
-            if (!folder.isSelectable()) {
+            if (!selectable[i]) {
                 message.append("\\Noselect");
             }
             message.append(") \"");
@@ -125,6 +149,11 @@ class ListCommand extends AuthenticatedStateCommand {
             }
 
             response.commandResponse(this, message.toString());
+
+            if (statuses != null && selectable[i]) {
+                response.untaggedResponse(StatusCommand.NAME + SP +
+                        statusDataItems.format(mailboxName.length() == 0 ? "\"\"" : mailboxName, statuses.next()));
+            }
         }
 
         session.unsolicitedResponses(response);
@@ -190,6 +219,43 @@ class ListCommand extends AuthenticatedStateCommand {
             }
         }
 
+        /**
+         * Reads the optional return options of an extended LIST, of which only
+         * STATUS (RFC 5819) is supported.
+         *
+         * @return the requested status items, or null if STATUS wasn't asked for.
+         */
+        public StatusCommand.StatusDataItems returnStatus(ImapRequestLineReader request)
+                throws ProtocolException {
+            if (!hasMoreArguments(request)) {
+                return null;
+            }
+            String keyword = atom(request);
+            if (!"RETURN".equalsIgnoreCase(keyword)) {
+                throw new ProtocolException("Unexpected argument: '" + keyword + "'");
+            }
+            List<String> options = parameterList(request);
+            if (options == null) {
+                throw new ProtocolException("Missing return options");
+            }
+
+            StatusCommand.StatusDataItems items = null;
+            Iterator<String> words = options.iterator();
+            while (words.hasNext()) {
+                String option = words.next();
+                if (!"STATUS".equalsIgnoreCase(option) || !words.hasNext() || !"(".equals(words.next())) {
+                    throw new ProtocolException("Unsupported return option: '" + option + "'");
+                }
+                items = new StatusCommand.StatusDataItems();
+                String item = words.hasNext() ? words.next() : ")";
+                while (!")".equals(item)) {
+                    items.add(item.toUpperCase());
+                    item = words.hasNext() ? words.next() : ")";
+                }
+            }
+            return items;
+        }
+
         private class ListCharValidator extends ATOM_CHARValidator {
             public boolean isValid(char chr) {
                 if (isListWildcard(chr)) {
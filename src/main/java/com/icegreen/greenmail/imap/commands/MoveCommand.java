@@ -0,0 +1,152 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been modified by the copyright holder. Original file can be found at http://james.apache.org
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.imap.commands;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.icegreen.greenmail.imap.ImapRequestLineReader;
+import com.icegreen.greenmail.imap.ImapResponse;
+import com.icegreen.greenmail.imap.ImapSession;
+import com.icegreen.greenmail.imap.ImapSessionFolder;
+import com.icegreen.greenmail.imap.ProtocolException;
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.MailFolder;
+
+/**
+ * Handles processeing for the MOVE imap command (RFC 6851).
+ * The messages are handed over to the target folder in a single store transaction,
+ * so their content is neither copied nor parsed again.
+ */
+class MoveCommand extends SelectedStateCommand implements UidEnabledCommand {
+    public static final String NAME = "MOVE";
+    public static final String ARGS = "<message-set> <mailbox>";
+
+    /**
+     * @see CommandTemplate#doProcess
+     */
+    protected void doProcess(ImapRequestLineReader request,
+                             ImapResponse response,
+                             ImapSession session)
+            throws ProtocolException, FolderException {
+        doProcess(request, response, session, false);
+    }
+
+    public void doProcess(ImapRequestLineReader request,
+                          ImapResponse response,
+                          ImapSession session,
+                          boolean useUids)
+            throws ProtocolException, FolderException {
+        IdRange[] idSet = parser.parseIdRange(request);
+        String mailboxName = parser.mailbox(request);
+        parser.endLine(request);
+
+        ImapSessionFolder currentMailbox = session.getSelected();
+        if (currentMailbox.isReadonly()) {
+            response.commandFailed(this, "Mailbox selected read only.");
+            return;
+        }
+
+        MailFolder toFolder;
+        try {
+            toFolder = getMailbox(mailboxName, session, true);
+        } catch (FolderException e) {
+            e.setResponseCode("TRYCREATE");
+            throw e;
+        }
+
+        long[] uids = currentMailbox.getMessageUids();
+        long[] selected = new long[uids.length];
+        int count = 0;
+        for (int i = 0; i < uids.length; i++) {
+            long uid = uids[i];
+            boolean inSet;
+            if (useUids) {
+                inSet = includes(idSet, uid);
+            } else {
+                inSet = includes(idSet, currentMailbox.getMsn(uid));
+            }
+            if (inSet) {
+                selected[count++] = uid;
+            }
+        }
+        long[] moving = new long[count];
+        System.arraycopy(selected, 0, moving, 0, count);
+
+        // COPYUID names only the messages actually moved, which may be fewer than were
+        // selected if another session expunged some meanwhile
+        SortedMap<Long, Long> moved = currentMailbox.moveMessages(moving, toFolder);
+        if (!moved.isEmpty()) {
+            long[] sourceUids = new long[moved.size()];
+            long[] newUids = new long[moved.size()];
+            int i = 0;
+            for (Map.Entry<Long, Long> entry : moved.entrySet()) {
+                sourceUids[i] = entry.getKey();
+                newUids[i++] = entry.getValue();
+            }
+            response.okResponse("COPYUID " + toFolder.getUidValidity() + SP
+                    + IdRange.toSequenceSet(sourceUids) + SP + IdRange.toSequenceSet(newUids), null);
+        }
+        session.unsolicitedResponses(response);
+        response.commandComplete(this);
+    }
+
+    /**
+     * @see ImapCommand#getName
+     */
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see CommandTemplate#getArgSyntax
+     */
+    public String getArgSyntax() {
+        return ARGS;
+    }
+}
+
+/*
+3.1.  MOVE and UID MOVE Commands
+
+   Arguments:  sequence set
+               mailbox name
+
+   Responses:  no specific responses for this command
+
+   Result:     OK - move completed
+               NO - move error: can't move those messages or to that
+                    name
+               BAD - command unknown or arguments invalid
+
+   The MOVE command takes two arguments: a message set (sequence numbers
+   for MOVE, UIDs for UID MOVE) and a named mailbox.  Each message
+   included in the set is moved, rather than copied, from the selected
+   (source) mailbox to the named (target) mailbox.
+
+   This means that a new message is created in the target mailbox with a
+   new UID, the original message is removed from the source mailbox, and
+   it appears to the client as a single action.  This has the same
+   effect for each message as this sequence:
+
+   1.  [UID] COPY
+
+   2.  [UID] STORE +FLAGS.SILENT \Deleted
+
+   3.  [UID] EXPUNGE
+
+   Although the effect of the MOVE is the same as the preceding steps,
+   the semantics are not identical: The intermediate states produced by
+   those steps do not occur, and the response codes are different.  In
+   particular, though the COPY and EXPUNGE response codes will be
+   returned, response codes for a STORE MUST NOT be generated and thus
+   no FETCH responses for the moved messages will be sent.
+
+   Servers SHOULD send COPYUID in response to a UID MOVE (see
+   Section 4.3) command.  For additional information see Section 3 of
+   [RFC4315].
+*/
@@ -17,7 +17,10 @@ import com.icegreen.greenmail.imap.commands.search.After;
 import com.icegreen.greenmail.imap.commands.search.Before;
 import com.icegreen.greenmail.imap.commands.search.Criteria;
 import com.icegreen.greenmail.imap.commands.search.Deleted;
+import com.icegreen.greenmail.imap.commands.search.Larger;
+import com.icegreen.greenmail.imap.commands.search.ModSeq;
 import com.icegreen.greenmail.imap.commands.search.Not;
+import com.icegreen.greenmail.imap.commands.search.Smaller;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MailFolder;
 import com.icegreen.greenmail.store.SimpleStoredMessage;
@@ -50,12 +53,16 @@ class SearchCommand extends SelectedStateCommand implements UidEnabledCommand {
                           boolean useUids)
             throws ProtocolException, FolderException {
         // Parse the search term from the request
-    	Criteria searchTerm = searchCommandParserr.searchTerm(request);
+    	SearchTerm searchTerm = searchCommandParserr.searchTerm(request);
         searchCommandParserr.endLine(request);
+        if (searchTerm.modSeq) {
+            session.enable(CONDSTORE);
+        }
 
         MailFolder folder = session.getSelected();
         long[] uids = folder.search(searchTerm);
         StringBuffer idList = new StringBuffer();
+        long highestModSeq = 0;
         for (int i = 0; i < uids.length; i++) {
             if (i > 0) {
                 idList.append(SP);
@@ -67,6 +74,13 @@ class SearchCommand extends SelectedStateCommand implements UidEnabledCommand {
                 int msn = folder.getMsn(uid);
                 idList.append(msn);
             }
+            if (searchTerm.modSeq) {
+                highestModSeq = Math.max(highestModSeq, folder.getMessage(uid).getModSeq());
+            }
+        }
+        // A search by MODSEQ also reports the highest mod-sequence found (RFC 7162, section 3.1.5)
+        if (searchTerm.modSeq && uids.length > 0) {
+            idList.append(" (MODSEQ ").append(highestModSeq).append(')');
         }
 
         response.commandResponse(this, idList.toString());
@@ -96,41 +110,22 @@ class SearchCommand extends SelectedStateCommand implements UidEnabledCommand {
          * Not yet implemented - all searches will return everything for now.
          * TODO implement search
          */
-        public Criteria searchTerm(ImapRequestLineReader request)
+        public SearchTerm searchTerm(ImapRequestLineReader request)
                 throws ProtocolException {
-        	
-            // Dummy implementation
-            // Consume to the end of the line.
-        	final List<Criteria> criterias = parseCriterias(request);
-            
-            // Return a search term that matches everything.
-            return new Criteria() {
-                public boolean match(SimpleStoredMessage message) {
-                	for (Criteria criteria: criterias) {
-                		if (!criteria.match(message)) {
-                			return false;
-                		}
-                	}
-                    return true;
-                }
-            };
-        }
-
-        private List<Criteria> parseCriterias(ImapRequestLineReader request) throws ProtocolException {
-        	List<Criteria> criterias = new ArrayList<Criteria>();
+        	SearchTerm searchTerm = new SearchTerm();
         	while (request.nextChar() != '\r' && request.nextChar() != '\n') {
-        		Criteria criteria = parseCriteria(request);
+        		Criteria criteria = parseCriteria(request, searchTerm);
         		if (criteria != null) {
-        			criterias.add(criteria);
+        			searchTerm.criterias.add(criteria);
         		}
         	}
-        	return criterias;
+        	return searchTerm;
         }
         
-        private Criteria parseCriteria(ImapRequestLineReader request) throws ProtocolException {
+        private Criteria parseCriteria(ImapRequestLineReader request, SearchTerm searchTerm) throws ProtocolException {
         	String criteria = readNextToken(request);
             if (criteria.equals("NOT")) {
-            	return new Not(parseCriteria(request));
+            	return new Not(parseCriteria(request, searchTerm));
             } else if (criteria.equals("ALL")) {
             	return null;
             } else if (criteria.equals("DELETED")) {
@@ -143,11 +138,37 @@ class SearchCommand extends SelectedStateCommand implements UidEnabledCommand {
             } else if (criteria.equals("AFTER")) {
             	String date = readNextToken(request);
             	return new After(date);
+            } else if (criteria.equals("LARGER")) {
+            	return new Larger(readSize(request));
+            } else if (criteria.equals("SMALLER")) {
+            	return new Smaller(readSize(request));
+            } else if (criteria.equals("MODSEQ")) {
+            	searchTerm.modSeq = true;
+            	String modSeq = readNextToken(request);
+            	if (modSeq.startsWith("\"")) {
+            		// Per flag mod-sequences are not kept, so the entry name and type are ignored
+            		readNextToken(request);
+            		modSeq = readNextToken(request);
+            	}
+            	try {
+            		return new ModSeq(Long.parseLong(modSeq));
+            	} catch (NumberFormatException e) {
+            		throw new ProtocolException("Invalid mod-sequence: " + modSeq);
+            	}
             }
             throw new ProtocolException("criteria not supported : "  + criteria);
         }
         
         
+		private long readSize(ImapRequestLineReader request) throws ProtocolException {
+			String size = readNextToken(request);
+			try {
+				return Long.parseLong(size);
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("Invalid size: " + size);
+			}
+		}
+
 		private String readNextToken(ImapRequestLineReader request) throws ProtocolException {
 			StringBuffer stringBuffer = new StringBuffer();
 
@@ -161,6 +182,23 @@ class SearchCommand extends SelectedStateCommand implements UidEnabledCommand {
 		}
 
     }
+
+    /**
+     * The parsed search keys, which a message must all match.
+     */
+    private static class SearchTerm implements Criteria {
+        final List<Criteria> criterias = new ArrayList<Criteria>();
+        boolean modSeq;
+
+        public boolean match(SimpleStoredMessage message) {
+        	for (Criteria criteria: criterias) {
+        		if (!criteria.match(message)) {
+        			return false;
+        		}
+        	}
+            return true;
+        }
+    }
 }
 
 /*
@@ -6,9 +6,13 @@
  */
 package com.icegreen.greenmail.imap.commands;
 
+import java.util.List;
+
 import com.icegreen.greenmail.imap.*;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.MessageFlags;
+import com.icegreen.greenmail.store.SimpleStoredMessage;
 
 /**
  * Handles processeing for the SELECT imap command.
@@ -18,7 +22,7 @@ import com.icegreen.greenmail.store.MailFolder;
  */
 class SelectCommand extends AuthenticatedStateCommand {
     public static final String NAME = "SELECT";
-    public static final String ARGS = "mailbox";
+    public static final String ARGS = "mailbox [(CONDSTORE) | (QRESYNC (uidvalidity modseq [known-uids]))]";
 
     /**
      * @see com.icegreen.greenmail.imap.commands.CommandTemplate#doProcess
@@ -28,8 +32,24 @@ class SelectCommand extends AuthenticatedStateCommand {
                              ImapSession session)
             throws ProtocolException, FolderException {
         String mailboxName = parser.mailbox(request);
+        List<String> selectParameters = parser.parameterList(request);
         parser.endLine(request);
 
+        QResyncParameters qresync = null;
+        if (selectParameters != null && !selectParameters.isEmpty()) {
+            String parameter = selectParameters.get(0).toUpperCase();
+            if (CONDSTORE.equals(parameter)) {
+                session.enable(CONDSTORE);
+            } else if (QRESYNC.equals(parameter)) {
+                if (!session.isEnabled(QRESYNC)) {
+                    throw new ProtocolException("QRESYNC must be enabled first.");
+                }
+                qresync = new QResyncParameters(selectParameters);
+            } else {
+                throw new ProtocolException("Unknown select parameter: " + parameter);
+            }
+        }
+
         session.deselect();
 
         final boolean isExamine = (this instanceof ExamineCommand);
@@ -42,6 +62,7 @@ class SelectCommand extends AuthenticatedStateCommand {
         response.recentResponse(mailbox.getRecentCount(resetRecent));
         response.okResponse("UIDVALIDITY " + mailbox.getUidValidity(), null);
         response.okResponse("UIDNEXT " + mailbox.getUidNext(), null);
+        response.okResponse("HIGHESTMODSEQ " + mailbox.getHighestModSeq(), null);
         
         int firstUnseen = mailbox.getFirstUnseen();
         if (firstUnseen > 0) {
@@ -53,6 +74,10 @@ class SelectCommand extends AuthenticatedStateCommand {
 
         response.permanentFlagsResponse(mailbox.getPermanentFlags());
 
+        if (qresync != null && qresync.uidValidity == mailbox.getUidValidity()) {
+            resynchronize(qresync, mailbox, response);
+        }
+
         if (mailbox.isReadonly()) {
             response.commandComplete(this, "READ-ONLY");
         } else {
@@ -60,6 +85,28 @@ class SelectCommand extends AuthenticatedStateCommand {
         }
     }
 
+    /**
+     * Sends the expunges and flag changes since the client's last known mod-sequence,
+     * so that it does not need to refetch the whole mailbox.
+     */
+    private void resynchronize(QResyncParameters qresync, ImapSessionFolder mailbox,
+                               ImapResponse response) throws FolderException {
+        long[] vanished = qresync.filterKnown(mailbox.getVanishedUids(qresync.modSeq));
+        if (vanished.length > 0) {
+            response.untaggedResponse("VANISHED (EARLIER) " + IdRange.toSequenceSet(vanished));
+        }
+
+        List<SimpleStoredMessage> messages = mailbox.getMessages();
+        for (int i = 0; i < messages.size(); i++) {
+            SimpleStoredMessage message = messages.get(i);
+            if (message.getModSeq() > qresync.modSeq && qresync.isKnown(message.getUid())) {
+                response.fetchResponse(i + 1, "UID " + message.getUid() +
+                        " FLAGS " + MessageFlags.format(message.getFlags()) +
+                        " MODSEQ (" + message.getModSeq() + ")");
+            }
+        }
+    }
+
     private boolean selectMailbox(String mailboxName, ImapSession session, boolean readOnly) throws FolderException {
         MailFolder folder = getMailbox(mailboxName, session, true);
 
@@ -84,6 +131,57 @@ class SelectCommand extends AuthenticatedStateCommand {
     public String getArgSyntax() {
         return ARGS;
     }
+
+    /**
+     * The QRESYNC select parameter: "QRESYNC (uidvalidity modseq [known-uids] [seq-match-data])".
+     * The optional sequence match data only saves the server work, so it is ignored.
+     */
+    private class QResyncParameters {
+        long uidValidity;
+        long modSeq;
+        IdRange[] knownUids;
+
+        QResyncParameters(List<String> words) throws ProtocolException {
+            if (words.size() < 5 || !"(".equals(words.get(1))) {
+                throw new ProtocolException("Invalid QRESYNC parameters.");
+            }
+            try {
+                uidValidity = Long.parseLong(words.get(2));
+                modSeq = Long.parseLong(words.get(3));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid QRESYNC parameters.");
+            }
+            String next = words.get(4);
+            if (!"(".equals(next) && !")".equals(next)) {
+                knownUids = parser.parseIdRange(next);
+            }
+        }
+
+        boolean isKnown(long uid) {
+            if (knownUids == null) {
+                return true;
+            }
+            for (int i = 0; i < knownUids.length; i++) {
+                if (knownUids[i].includes(uid)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long[] filterKnown(long[] uids) {
+            long[] known = new long[uids.length];
+            int count = 0;
+            for (int i = 0; i < uids.length; i++) {
+                if (isKnown(uids[i])) {
+                    known[count++] = uids[i];
+                }
+            }
+            long[] result = new long[count];
+            System.arraycopy(known, 0, result, 0, count);
+            return result;
+        }
+    }
 }
 
 /*
@@ -0,0 +1,79 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been modified by the copyright holder. Original file can be found at http://james.apache.org
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.imap.commands;
+
+import java.io.IOException;
+
+import com.icegreen.greenmail.imap.ImapRequestLineReader;
+import com.icegreen.greenmail.imap.ImapResponse;
+import com.icegreen.greenmail.imap.ImapSession;
+import com.icegreen.greenmail.imap.ProtocolException;
+import com.icegreen.greenmail.store.FolderException;
+
+/**
+ * Handles processeing for the STARTTLS imap command (RFC 2595).
+ */
+class StartTlsCommand extends NonAuthenticatedStateCommand {
+    public static final String NAME = "STARTTLS";
+    public static final String ARGS = null;
+
+    /**
+     * @see CommandTemplate#doProcess
+     */
+    protected void doProcess(ImapRequestLineReader request,
+                             ImapResponse response,
+                             ImapSession session)
+            throws ProtocolException, FolderException {
+        parser.endLine(request);
+
+        if (!session.isStartTlsAvailable()) {
+            response.commandFailed(this, "TLS is not available.");
+            return;
+        }
+
+        // The tagged response is the last thing sent in plain text.
+        response.commandComplete(this);
+        try {
+            session.startTls();
+        } catch (IOException e) {
+            session.closeConnection();
+        }
+    }
+
+    /**
+     * @see ImapCommand#getName
+     */
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see CommandTemplate#getArgSyntax
+     */
+    public String getArgSyntax() {
+        return ARGS;
+    }
+}
+
+/*
+6.2.1.  STARTTLS Command
+
+   Arguments:  none
+
+   Responses:  no specific response for this command
+
+   Result:     OK - starttls completed, begin TLS negotiation
+               BAD - command unknown or arguments invalid
+
+   A [TLS] negotiation begins immediately after the CRLF at the end
+   of the tagged OK response from the server.  Once a client issues a
+   STARTTLS command, it MUST NOT issue further commands until a
+   server response is seen and the [TLS] negotiation is complete.
+
+   The server remains in the non-authenticated state, even if client
+   credentials are supplied during the [TLS] negotiation.
+*/
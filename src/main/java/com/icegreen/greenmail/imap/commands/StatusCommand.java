@@ -11,8 +11,12 @@ import com.icegreen.greenmail.imap.ImapResponse;
 import com.icegreen.greenmail.imap.ImapSession;
 import com.icegreen.greenmail.imap.ProtocolException;
 import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.FolderStatus;
+import com.icegreen.greenmail.store.InMemoryStore;
 import com.icegreen.greenmail.store.MailFolder;
 
+import java.util.Collections;
+
 /**
  * Handles processeing for the STATUS imap command.
  *
@@ -28,6 +32,8 @@ class StatusCommand extends AuthenticatedStateCommand {
     private static final String UIDNEXT = "UIDNEXT";
     private static final String UIDVALIDITY = "UIDVALIDITY";
     private static final String UNSEEN = "UNSEEN";
+    private static final String HIGHESTMODSEQ = "HIGHESTMODSEQ";
+    private static final String SIZE = "SIZE";
 
     private StatusCommandParser statusCommandParser = new StatusCommandParser();
 
@@ -43,50 +49,12 @@ class StatusCommand extends AuthenticatedStateCommand {
         statusCommandParser.endLine(request);
 
         MailFolder folder = getMailbox(mailboxName, session, true);
+        FolderStatus status = InMemoryStore.getStatus(Collections.singletonList(folder)).get(0);
 
-        StringBuffer buffer = new StringBuffer(mailboxName);
-        buffer.append(SP);
-        buffer.append("(");
-
-        if (statusDataItems.messages) {
-            buffer.append(MESSAGES);
-            buffer.append(SP);
-            buffer.append(folder.getMessageCount());
-            buffer.append(SP);
-        }
-
-        if (statusDataItems.recent) {
-            buffer.append(RECENT);
-            buffer.append(SP);
-            buffer.append(folder.getRecentCount(false));
-            buffer.append(SP);
-        }
-
-        if (statusDataItems.uidNext) {
-            buffer.append(UIDNEXT);
-            buffer.append(SP);
-            buffer.append(folder.getUidNext());
-            buffer.append(SP);
-        }
-
-        if (statusDataItems.uidValidity) {
-            buffer.append(UIDVALIDITY);
-            buffer.append(SP);
-            buffer.append(folder.getUidValidity());
-            buffer.append(SP);
-        }
-
-        if (statusDataItems.unseen) {
-            buffer.append(UNSEEN);
-            buffer.append(SP);
-            buffer.append(folder.getUnseenCount());
-            buffer.append(SP);
-        }
-        if (buffer.charAt(buffer.length() - 1) == ' ') {
-            buffer.setLength(buffer.length() - 1);
+        if (statusDataItems.highestModSeq) {
+            session.enable(CONDSTORE);
         }
-        buffer.append(')');
-        response.commandResponse(this, buffer.toString());
+        response.commandResponse(this, statusDataItems.format(mailboxName, status));
 
         session.unsolicitedResponses(response);
         response.commandComplete(this);
@@ -129,28 +97,107 @@ class StatusCommand extends AuthenticatedStateCommand {
 
         private void addItem(String nextWord, StatusDataItems items)
                 throws ProtocolException {
-            if (nextWord.equals(MESSAGES)) {
-                items.messages = true;
-            } else if (nextWord.equals(RECENT)) {
-                items.recent = true;
-            } else if (nextWord.equals(UIDNEXT)) {
-                items.uidNext = true;
-            } else if (nextWord.equals(UIDVALIDITY)) {
-                items.uidValidity = true;
-            } else if (nextWord.equals(UNSEEN)) {
-                items.unseen = true;
-            } else {
-                throw new ProtocolException("Unknown status item: '" + nextWord + "'");
-            }
+            items.add(nextWord);
         }
     }
 
-    private class StatusDataItems {
+    /**
+     * The status data items requested by a STATUS command, or by the STATUS
+     * return option of LIST (RFC 5819).
+     */
+    static class StatusDataItems {
         boolean messages;
         boolean recent;
         boolean uidNext;
         boolean uidValidity;
         boolean unseen;
+        boolean highestModSeq;
+        boolean size;
+
+        void add(String item) throws ProtocolException {
+            if (item.equals(MESSAGES)) {
+                messages = true;
+            } else if (item.equals(RECENT)) {
+                recent = true;
+            } else if (item.equals(UIDNEXT)) {
+                uidNext = true;
+            } else if (item.equals(UIDVALIDITY)) {
+                uidValidity = true;
+            } else if (item.equals(UNSEEN)) {
+                unseen = true;
+            } else if (item.equals(HIGHESTMODSEQ)) {
+                highestModSeq = true;
+            } else if (item.equals(SIZE)) {
+                size = true;
+            } else {
+                throw new ProtocolException("Unknown status item: '" + item + "'");
+            }
+        }
+
+        /**
+         * Formats the body of an untagged STATUS response, eg
+         * <pre>blurdybloop (MESSAGES 231 UIDNEXT 44292)</pre>
+         */
+        String format(String mailboxName, FolderStatus status) {
+            StringBuffer buffer = new StringBuffer(mailboxName);
+            buffer.append(SP);
+            buffer.append("(");
+
+            if (messages) {
+                buffer.append(MESSAGES);
+                buffer.append(SP);
+                buffer.append(status.getMessageCount());
+                buffer.append(SP);
+            }
+
+            if (recent) {
+                buffer.append(RECENT);
+                buffer.append(SP);
+                buffer.append(status.getRecentCount());
+                buffer.append(SP);
+            }
+
+            if (uidNext) {
+                buffer.append(UIDNEXT);
+                buffer.append(SP);
+                buffer.append(status.getUidNext());
+                buffer.append(SP);
+            }
+
+            if (uidValidity) {
+                buffer.append(UIDVALIDITY);
+                buffer.append(SP);
+                buffer.append(status.getUidValidity());
+                buffer.append(SP);
+            }
+
+            if (unseen) {
+                buffer.append(UNSEEN);
+                buffer.append(SP);
+                buffer.append(status.getUnseenCount());
+                buffer.append(SP);
+            }
+
+            if (highestModSeq) {
+                buffer.append(HIGHESTMODSEQ);
+                buffer.append(SP);
+                buffer.append(status.getHighestModSeq());
+                buffer.append(SP);
+            }
+
+            if (size) {
+                buffer.append(SIZE);
+                buffer.append(SP);
+                buffer.append(status.getSize());
+                buffer.append(SP);
+            }
+
+            if (buffer.charAt(buffer.length() - 1) == ' ') {
+                buffer.setLength(buffer.length() - 1);
+            }
+            buffer.append(')');
+            return buffer.toString();
+        }
     }
 }
 
@@ -6,6 +6,8 @@
  */
 package com.icegreen.greenmail.imap.commands;
 
+import java.util.List;
+
 import javax.mail.Flags;
 
 import com.icegreen.greenmail.imap.ImapRequestLineReader;
@@ -15,6 +17,7 @@ import com.icegreen.greenmail.imap.ImapSessionFolder;
 import com.icegreen.greenmail.imap.ProtocolException;
 import com.icegreen.greenmail.store.FolderException;
 import com.icegreen.greenmail.store.FolderListener;
+import com.icegreen.greenmail.store.SimpleStoredMessage;
 
 
 /**
@@ -25,7 +28,7 @@ import com.icegreen.greenmail.store.FolderListener;
  */
 class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
     public static final String NAME = "STORE";
-    public static final String ARGS = "<Message-set> ['+'|'-']FLAG[.SILENT] <flag-list>";
+    public static final String ARGS = "<Message-set> [(UNCHANGEDSINCE <modseq>)] ['+'|'-']FLAG[.SILENT] <flag-list>";
 
     private final StoreCommandParser storeCommandParser = new StoreCommandParser();
 
@@ -45,6 +48,7 @@ class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
                           boolean useUids)
             throws ProtocolException, FolderException {
         IdRange[] idSet = storeCommandParser.parseIdRange(request);
+        long unchangedSince = storeCommandParser.unchangedSince(request);
         StoreDirective directive = storeCommandParser.storeDirective(request);
         Flags flags = storeCommandParser.flagList(request);
         storeCommandParser.endLine(request);
@@ -66,20 +70,32 @@ class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
 //            mailbox.replaceFlags(flags, uidSet, directive.isSilent());
 //        }
 
+        if (unchangedSince >= 0) {
+            session.enable(CONDSTORE);
+        }
+
+        // A CONDSTORE client learns the new mod-sequences from the FETCH responses,
+        // so they are sent even for .SILENT (RFC 7162, section 3.1.3)
         FolderListener silentListener = null;
-        if (directive.isSilent()) {
+        if (directive.isSilent() && !session.isEnabled(CONDSTORE)) {
             silentListener = mailbox;
         }
-        
+
         // TODO do this in one hit.
-        long[] uids = mailbox.getMessageUids();
-        for (int i = 0; i < uids.length; i++) {
-            long uid = uids[i];
-            int msn = mailbox.getMsn(uid);
+        List<SimpleStoredMessage> messages = mailbox.getMessages();
+        long[] modified = new long[messages.size()];
+        int modifiedCount = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            SimpleStoredMessage message = messages.get(i);
+            long uid = message.getUid();
+            int msn = i + 1;
 
             if ((useUids && includes(idSet, uid)) ||
                     (!useUids && includes(idSet, msn))) {
-                if (directive.getSign() < 0) {
+                if (message.getModSeq() > unchangedSince && unchangedSince >= 0) {
+                    // Changed since the client looked, so left alone and reported back
+                    modified[modifiedCount++] = useUids ? uid : msn;
+                } else if (directive.getSign() < 0) {
                     mailbox.setFlags(flags, false, uid, silentListener, useUids);
                 } else if (directive.getSign() > 0) {
                     mailbox.setFlags(flags, true, uid, silentListener, useUids);
@@ -91,7 +107,13 @@ class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
 
         boolean omitExpunged = (!useUids);
         session.unsolicitedResponses(response, omitExpunged);
-        response.commandComplete(this);
+        if (modifiedCount > 0) {
+            long[] failed = new long[modifiedCount];
+            System.arraycopy(modified, 0, failed, 0, modifiedCount);
+            response.commandComplete(this, "MODIFIED " + IdRange.toSequenceSet(failed));
+        } else {
+            response.commandComplete(this);
+        }
     }
 
     /**
@@ -109,6 +131,26 @@ class StoreCommand extends SelectedStateCommand implements UidEnabledCommand {
     }
 
     private class StoreCommandParser extends CommandParser {
+        /**
+         * Reads the optional CONDSTORE store modifier, "(UNCHANGEDSINCE modseq)".
+         *
+         * @return the mod-sequence, or -1 if none was given
+         */
+        long unchangedSince(ImapRequestLineReader request) throws ProtocolException {
+            if (request.nextWordChar() != '(') {
+                return -1;
+            }
+            List<String> modifiers = parameterList(request);
+            if (modifiers.size() != 2 || !"UNCHANGEDSINCE".equalsIgnoreCase(modifiers.get(0))) {
+                throw new ProtocolException("Invalid store modifier: " + modifiers);
+            }
+            try {
+                return Long.parseLong(modifiers.get(1));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid UNCHANGEDSINCE value.");
+            }
+        }
+
         StoreDirective storeDirective(ImapRequestLineReader request) throws ProtocolException {
             int sign = 0;
             boolean silent = false;
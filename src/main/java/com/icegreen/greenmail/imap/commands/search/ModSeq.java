@@ -0,0 +1,21 @@
+package com.icegreen.greenmail.imap.commands.search;
+
+import com.icegreen.greenmail.store.SimpleStoredMessage;
+
+/**
+ * The CONDSTORE search key (RFC 7162, section 3.1.5): messages whose
+ * mod-sequence is equal to or greater than the given one.
+ */
+public class ModSeq implements Criteria {
+
+	private final long modSeq;
+
+	public ModSeq(long modSeq) {
+		this.modSeq = modSeq;
+	}
+
+	@Override
+	public boolean match(SimpleStoredMessage message) {
+		return message.getModSeq() >= modSeq;
+	}
+}
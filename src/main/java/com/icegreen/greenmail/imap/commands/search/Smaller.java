@@ -0,0 +1,17 @@
+package com.icegreen.greenmail.imap.commands.search;
+
+import com.icegreen.greenmail.store.SimpleStoredMessage;
+
+public class Smaller implements Criteria {
+
+	private final long size;
+
+	public Smaller(long size) {
+		this.size = size;
+	}
+
+	@Override
+	public boolean match(SimpleStoredMessage message) {
+		return message.getSize() < size;
+	}
+}
@@ -5,16 +5,21 @@
  */
 package com.icegreen.greenmail.mail;
 
-import com.icegreen.greenmail.foedus.util.Resource;
 import com.icegreen.greenmail.foedus.util.Workspace;
-import com.icegreen.greenmail.util.InternetPrintWriter;
+import com.icegreen.greenmail.util.LineCodec;
 import com.icegreen.greenmail.util.GreenMailUtil;
 
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -31,12 +36,17 @@ import java.util.List;
  * </p>
  */
 public class MovingMessage {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
     MailAddress returnPath;
     List<MailAddress> toAddresses = new LinkedList<MailAddress>();
+    List<MailAddress> deliveredTo = new ArrayList<MailAddress>();
+    Map<MailAddress, Exception> deliveryFailures = new LinkedHashMap<MailAddress, Exception>();
     Workspace _workspace;
-    Resource _content;
     MimeMessage message;
     int _references = 0;
+    String bodyType;
+    ChunkBuffer chunks;
+    int chunksHeaderLength;
 
     public List<MailAddress> getToAddresses() {
         return toAddresses;
@@ -50,12 +60,6 @@ public class MovingMessage {
         return message;
     }
 
-    public Reader getContent()
-            throws IOException {
-
-        return _content.getReader();
-    }
-
     public void acquire() {
         _references++;
     }
@@ -63,12 +67,76 @@ public class MovingMessage {
     public void releaseContent() {
         if (_references > 0) {
             _references--;
-        } else if (_content != null) {
-            _workspace.release(_content);
-            _content = null;
+        } else {
+            chunks = null;
         }
     }
 
+    /**
+     * @return the BODY parameter given with MAIL FROM (7BIT, 8BITMIME or BINARYMIME), or null
+     */
+    public String getBodyType() {
+        return bodyType;
+    }
+
+    public void setBodyType(String bodyType) {
+        this.bodyType = bodyType;
+    }
+
+    /**
+     * @return true once the first BDAT chunk of this message has been received
+     */
+    public boolean hasChunks() {
+        return chunks != null;
+    }
+
+    /**
+     * Starts a message sent in BDAT chunks (RFC 3030) with the given header lines.
+     */
+    public void startChunks(String header) {
+        chunks = new ChunkBuffer();
+        byte[] bytes = header.getBytes(ISO_8859_1);
+        chunks.write(bytes, 0, bytes.length);
+        chunksHeaderLength = bytes.length;
+    }
+
+    /**
+     * @return the length of the header lines the chunks were started with
+     */
+    public int getChunksHeaderLength() {
+        return chunksHeaderLength;
+    }
+
+    /**
+     * @return the number of bytes received in chunks so far, headers included
+     */
+    public int getChunksLength() {
+        return chunks == null ? 0 : chunks.size();
+    }
+
+    /**
+     * Makes room for another length bytes and returns the buffer to read them into,
+     * at offset {@link #getChunksLength()}; {@link #chunkRead(int)} must follow.
+     * The buffer grows by at least doubling, so reserving a chunk in small pieces
+     * costs no more copying than reserving it at once.
+     */
+    public byte[] reserveChunk(int length) {
+        return chunks.reserve(length);
+    }
+
+    public void chunkRead(int length) {
+        chunks.advance(length);
+    }
+
+    /**
+     * Parses the message from the chunks received. The bytes are taken as they are,
+     * without any line scanning, and shared with the parsed message rather than copied.
+     */
+    public void completeChunks() {
+        message = GreenMailUtil.newMimeMessage(chunks.toInputStream());
+        chunks = null;
+    }
+
     public MailAddress getReturnPath() {
 
         return returnPath;
@@ -86,44 +154,106 @@ public class MovingMessage {
         toAddresses.remove(s);
     }
 
+    public boolean hasRecipients() {
+        return !toAddresses.isEmpty();
+    }
+
     public Iterator<MailAddress> getRecipientIterator() {
 
         return toAddresses.iterator();
     }
 
+    public void delivered(MailAddress recipient) {
+        deliveredTo.add(recipient);
+    }
+
+    public void deliveryFailed(MailAddress recipient, Exception cause) {
+        deliveryFailures.put(recipient, cause);
+    }
+
+    /**
+     * @return the recipients this message has been stored for
+     */
+    public List<MailAddress> getDeliveredRecipients() {
+        return Collections.unmodifiableList(deliveredTo);
+    }
+
     /**
-     * Reads the contents of the stream until
-     * &lt;CRLF&gt;.&lt;CRLF&gt; is encountered.
-     * <p/>
-     * <p/>
-     * It would be possible and prehaps desirable to prevent the
-     * adding of an unnecessary CRLF at the end of the message, but
-     * it hardly seems worth 30 seconds of effort.
-     * </p>
+     * @return the recipients this message could not be stored for, with the reason
      */
-    public void readDotTerminatedContent(BufferedReader in)
+    public Map<MailAddress, Exception> getDeliveryFailures() {
+        return Collections.unmodifiableMap(deliveryFailures);
+    }
+
+    /**
+     * Reads the contents of the connection until &lt;CRLF&gt;.&lt;CRLF&gt;, starting the
+     * content with the given header lines. The bytes are kept as sent, 8-bit data included;
+     * only the dot-stuffing is undone. Nothing past the terminating dot is consumed, so
+     * pipelined commands stay in the codec.
+     *
+     * @param maxSize the largest content accepted, or -1 for no limit. Once it is exceeded,
+     *                what was buffered is dropped and the rest is read off and thrown away.
+     * @return false if the content was too large, in which case no message is set
+     */
+    public boolean readDotTerminatedContent(String header, LineCodec in, long maxSize)
             throws IOException {
-        _content = _workspace.getTmpFile();
-        Writer data = _content.getWriter();
-        PrintWriter dataWriter = new InternetPrintWriter(data);
+        ChunkBuffer content = new ChunkBuffer();
+        if (header != null) {
+            byte[] bytes = header.getBytes(ISO_8859_1);
+            content.write(bytes, 0, bytes.length);
+        }
 
+        long received = 0;
+        boolean lineStart = true;
         while (true) {
-            String line = in.readLine();
-            if (line == null)
+            int length = in.readRawLine();
+            if (length < 0)
                 throw new EOFException("Did not receive <CRLF>.<CRLF>");
 
-            if (".".equals(line)) {
-                dataWriter.close();
+            byte[] line = in.getLineBuffer();
+            int start = 0;
+            boolean continued = !lineStart;
+            lineStart = line[length - 1] == '\n';
+            if (!continued && line[0] == '.') {
+                if (length == 1 || line[1] == '\n' || (line[1] == '\r' && length == 3)) {
+                    break;
+                }
+                start = 1;
+            }
+            received += length - start;
+            if (maxSize >= 0 && received > maxSize) {
+                content = null;
+            }
+            if (content != null) {
+                content.write(line, start, length - start);
+            }
+        }
+        if (content == null) {
+            return false;
+        }
+        message = GreenMailUtil.newMimeMessage(content.toInputStream());
+        return true;
+    }
 
-                break;
-            } else {
-                dataWriter.println(line);
+    /**
+     * Growable buffer the message data is read straight into.
+     */
+    static class ChunkBuffer extends ByteArrayOutputStream {
+        byte[] reserve(int length) {
+            if (count + length > buf.length) {
+                byte[] grown = new byte[Math.max(count + length, buf.length * 2)];
+                System.arraycopy(buf, 0, grown, 0, count);
+                buf = grown;
             }
+            return buf;
         }
-        try {
-            message = GreenMailUtil.newMimeMessage(_content.getAsString());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+
+        void advance(int length) {
+            count += length;
+        }
+
+        InputStream toInputStream() {
+            return new SharedByteArrayInputStream(buf, 0, count);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.pop3;
+
+import com.icegreen.greenmail.util.LineCodec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a message as the body of a POP3 multi-line response (RFC 1939, section 3):
+ * lines starting with '.' get an extra '.', bare LFs become CRLF, and {@link #finish()}
+ * ends the response with a line holding a single '.'. Bytes go straight to the
+ * connection's output buffer, so a message of any size is sent in constant memory.
+ */
+class DotStuffingOutputStream extends OutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] TERMINATOR = {'.', '\r', '\n'};
+
+    private final LineCodec out;
+    private boolean lineStart = true;
+    private int last = -1;
+
+    DotStuffingOutputStream(LineCodec out) {
+        this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+        if (b == '\n' && last != '\r') {
+            out.write('\r');
+        } else if (b == '.' && lineStart) {
+            out.write('.');
+        }
+        out.write(b);
+        lineStart = b == '\n';
+        last = b;
+    }
+
+    public void write(byte[] b, int offset, int length) throws IOException {
+        // Runs without a line start or LF are passed on in one go
+        int end = offset + length;
+        int run = offset;
+        for (int i = offset; i < end; i++) {
+            byte c = b[i];
+            if (c == '\n' || (c == '.' && lineStart)) {
+                out.write(b, run, i - run);
+                if (i > offset) {
+                    last = b[i - 1];
+                }
+                write(c);
+                run = i + 1;
+            } else {
+                lineStart = false;
+            }
+        }
+        if (run < end) {
+            out.write(b, run, end - run);
+            last = b[end - 1];
+        }
+    }
+
+    /**
+     * Completes the last line if needed, writes the terminating line and sends it all.
+     */
+    public void finish() throws IOException {
+        if (!lineStart) {
+            out.write(CRLF, 0, CRLF.length);
+        }
+        out.write(TERMINATOR, 0, TERMINATOR.length);
+        out.flush();
+        lineStart = true;
+        last = -1;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
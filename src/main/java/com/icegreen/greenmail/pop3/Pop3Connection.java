@@ -5,18 +5,18 @@
  */
 package com.icegreen.greenmail.pop3;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.Reader;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import javax.net.ssl.SSLSocket;
 
-import com.icegreen.greenmail.foedus.util.StreamUtils;
-import com.icegreen.greenmail.util.InternetPrintWriter;
+import com.icegreen.greenmail.util.LineCodec;
+import com.icegreen.greenmail.util.TlsContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,34 +28,30 @@ public class Pop3Connection {
     Pop3Handler _handler;
 
     // networking stuff
-    private static final int TIMEOUT_MILLIS = 1000 * 30;
     Socket _socket;
     InetAddress _clientAddress;
 
     // IO stuff
-    BufferedReader _in;
-    InternetPrintWriter _out;
+    LineCodec _codec;
+    TlsContext _tls;
 
-    public Pop3Connection(Pop3Handler handler, Socket socket)
+    public Pop3Connection(Pop3Handler handler, Socket socket, TlsContext tls)
             throws IOException {
         configureSocket(socket);
         configureStreams();
 
         _handler = handler;
+        _tls = tls;
     }
 
     private void configureStreams()
             throws IOException {
-        OutputStream o = _socket.getOutputStream();
-        InputStream i = _socket.getInputStream();
-        _out = new InternetPrintWriter(o, true);
-        _in = new BufferedReader(new InputStreamReader(i));
+        _codec = new LineCodec(_socket.getInputStream(), _socket.getOutputStream());
     }
 
     private void configureSocket(Socket socket)
             throws SocketException {
         _socket = socket;
-        _socket.setSoTimeout(TIMEOUT_MILLIS);
         _clientAddress = _socket.getInetAddress();
     }
 
@@ -68,28 +64,95 @@ public class Pop3Connection {
         _handler.quit();
     }
 
+    /**
+     * @return true if STLS is offered and the connection isn't using TLS yet
+     */
+    public boolean isStartTlsAvailable() {
+        return null != _tls && !(_socket instanceof SSLSocket);
+    }
+
+    /**
+     * Switches the connection to TLS (RFC 2595). Commands the client sent behind
+     * STLS are dropped with the plain text input buffer.
+     */
+    public void startTls()
+            throws IOException {
+        _socket = _tls.startTls(_socket);
+        configureStreams();
+    }
+
     public void println(String line) {
         if(log.isDebugEnabled()) {
             log.debug("S: " + line);
         }
-        _out.print(line);
+        try {
+            _codec.print(line);
+        } catch (IOException ignored) {
+            //empty; like a PrintWriter, the broken connection shows on the next read
+        }
         println();
     }
 
     public void println() {
-        _out.print("\r\n");
-        _out.flush();
+        try {
+            _codec.println("");
+            _codec.flush();
+        } catch (IOException ignored) {
+            //empty
+        }
     }
 
     public void print(Reader in)
             throws IOException {
-        StreamUtils.copy(in, _out);
-        _out.flush();
+        char[] buffer = new char[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                _codec.write(buffer[i] < 256 ? buffer[i] : '?');
+            }
+        }
+        _codec.flush();
+    }
+
+    /**
+     * Streams a message as the body of a multi-line response, dot-stuffed and
+     * followed by the terminating "." line.
+     */
+    public void printMessage(MimeMessage message)
+            throws IOException, MessagingException {
+        if(log.isDebugEnabled()) {
+            log.debug("S: <message " + message.getSize() + " octets>");
+        }
+        DotStuffingOutputStream out = new DotStuffingOutputStream(_codec);
+        message.writeTo(out);
+        out.finish();
+    }
+
+    /**
+     * Streams raw message bytes as the body of a multi-line response, dot-stuffed and
+     * followed by the terminating "." line.
+     */
+    public void printMessage(InputStream in)
+            throws IOException {
+        DotStuffingOutputStream out = new DotStuffingOutputStream(_codec);
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        out.finish();
+    }
+
+    /**
+     * @return the byte-level codec the connection reads and writes through
+     */
+    public LineCodec getCodec() {
+        return _codec;
     }
 
     public String readLine()
             throws IOException {
-        String line = _in.readLine();
+        String line = _codec.readLine();
         
         if(log.isDebugEnabled()) {
             log.debug("C: " + line);
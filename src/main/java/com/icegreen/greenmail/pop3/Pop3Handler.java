@@ -8,6 +8,8 @@ package com.icegreen.greenmail.pop3;
 
 import com.icegreen.greenmail.pop3.commands.Pop3Command;
 import com.icegreen.greenmail.user.UserManager;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.TlsContext;
 
 import java.io.IOException;
 import java.net.Socket;
@@ -22,6 +24,9 @@ import clojure.lang.IDeref;
 
 public class Pop3Handler extends Thread {
 
+    // used when the server setup leaves the idle or read timeout at -1
+    static final int DEFAULT_TIMEOUT_MILLIS = 1000 * 30;
+
     public static Var REQUIRE = RT.var("clojure.core","require");
     public static Var ASSOC = RT.var("clojure.core","assoc");
     public static Var SWAP = RT.var("clojure.core","swap!");
@@ -50,16 +55,23 @@ public class Pop3Handler extends Thread {
     boolean _quitting;
     String _currentLine;
     private Socket _socket;
+    private int _idleTimeout;
+    private int _readTimeout;
+    private TlsContext _tls;
 
-    public Pop3Handler(UserManager manager, Socket socket) {
+    public Pop3Handler(UserManager manager, Socket socket, ServerSetup setup, TlsContext tls) {
         _manager = manager;
         _socket = socket;
+        _tls = tls;
+        _idleTimeout = ServerSetup.timeoutOrDefault(setup.getIdleTimeout(), DEFAULT_TIMEOUT_MILLIS);
+        _readTimeout = ServerSetup.timeoutOrDefault(setup.getReadTimeout(), DEFAULT_TIMEOUT_MILLIS);
     }
 
     public void run() {
         Pop3Server.pop3_lock.lock();
         try {
-            _conn = new Pop3Connection(this, _socket);
+            _socket.setSoTimeout(_idleTimeout);
+            _conn = new Pop3Connection(this, _socket, _tls);
             _state = new Pop3State(_manager);
 
             _quitting = false;
@@ -77,6 +89,9 @@ public class Pop3Handler extends Thread {
         } catch (Exception e) {
             //e.printStackTrace();
         } finally {
+            if (_state != null) {
+                _state.close();
+            }
             try {
                 _socket.close();
             } catch (IOException ioe) {
@@ -92,7 +107,13 @@ public class Pop3Handler extends Thread {
 
     void handleCommand()
         throws IOException {
-        _currentLine = _conn.readLine();
+        if (_idleTimeout != _readTimeout) {
+            _socket.setSoTimeout(_idleTimeout);
+            _currentLine = _conn.readLine();
+            _socket.setSoTimeout(_readTimeout);
+        } else {
+            _currentLine = _conn.readLine();
+        }
 
         if (_currentLine == null) {
             quit();
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.pop3;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.mail.Flags;
+
+import com.icegreen.greenmail.store.SimpleStoredMessage;
+
+/**
+ * The maildrop as a POP3 session sees it, fixed when the session authenticates
+ * (RFC 1939, section 4): message n is the n-th message of the inbox at that time for
+ * the rest of the session, whatever happens to the inbox meanwhile.
+ * <p/>
+ * Sizes and UIDs are cached, so numbering, LIST, UIDL and STAT don't touch the store.
+ * DELE only marks a message here; the marks are applied to the inbox in one batch
+ * when the session ends with QUIT.
+ * <p/>
+ * The maildrop holds a reference to each message's content, so messages expunged
+ * meanwhile by another client can still be retrieved. {@link #close()} gives them back.
+ */
+public class Pop3Maildrop {
+    private final SimpleStoredMessage[] messages;
+    private final long[] uids;
+    private final long[] sizes;
+    private final boolean[] deleted;
+    private int deletedCount;
+    private long totalSize;
+    private long deletedSize;
+
+    public Pop3Maildrop(List<SimpleStoredMessage> inbox) {
+        // A message released while the list was taken has left the inbox already
+        List<SimpleStoredMessage> acquired = new ArrayList<SimpleStoredMessage>(inbox.size());
+        for (SimpleStoredMessage message : inbox) {
+            if (message.acquire()) {
+                acquired.add(message);
+            }
+        }
+        int count = acquired.size();
+        messages = acquired.toArray(new SimpleStoredMessage[count]);
+        uids = new long[count];
+        sizes = new long[count];
+        deleted = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            uids[i] = messages[i].getUid();
+            sizes[i] = messages[i].getSize();
+            totalSize += sizes[i];
+            // Marked by another client already, so hidden and removed on QUIT as before
+            if (messages[i].getFlags().contains(Flags.Flag.DELETED)) {
+                delete(i + 1);
+            }
+        }
+    }
+
+    /**
+     * Resolves a message number argument.
+     *
+     * @return the message number, or 0 if it is no number or names no message, or a deleted one
+     */
+    public int getMessageNumber(String arg) {
+        int msn;
+        try {
+            msn = Integer.parseInt(arg.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return msn < 1 || msn > messages.length || deleted[msn - 1] ? 0 : msn;
+    }
+
+    /**
+     * @return the number of messages in the maildrop, deleted ones included
+     */
+    public int getCount() {
+        return messages.length;
+    }
+
+    public SimpleStoredMessage getMessage(int msn) {
+        return messages[msn - 1];
+    }
+
+    public long getUid(int msn) {
+        return uids[msn - 1];
+    }
+
+    public long getSize(int msn) {
+        return sizes[msn - 1];
+    }
+
+    public boolean isDeleted(int msn) {
+        return deleted[msn - 1];
+    }
+
+    /**
+     * @return the number of messages not marked as deleted
+     */
+    public int getUndeletedCount() {
+        return messages.length - deletedCount;
+    }
+
+    /**
+     * @return the size of the messages not marked as deleted
+     */
+    public long getUndeletedSize() {
+        return totalSize - deletedSize;
+    }
+
+    /**
+     * Marks a message as deleted for this session.
+     */
+    public void delete(int msn) {
+        if (!deleted[msn - 1]) {
+            deleted[msn - 1] = true;
+            deletedCount++;
+            deletedSize += sizes[msn - 1];
+        }
+    }
+
+    /**
+     * Unmarks all messages marked as deleted.
+     *
+     * @return the number of messages unmarked
+     */
+    public int reset() {
+        int count = deletedCount;
+        for (int i = 0; i < deleted.length; i++) {
+            deleted[i] = false;
+        }
+        deletedCount = 0;
+        deletedSize = 0;
+        return count;
+    }
+
+    /**
+     * Gives back the references to the messages' content, once the session has ended.
+     */
+    public void close() {
+        for (SimpleStoredMessage message : messages) {
+            message.release();
+        }
+    }
+
+    /**
+     * @return the UIDs of the messages marked as deleted, to be removed from the inbox
+     */
+    public long[] getDeletedUids() {
+        long[] result = new long[deletedCount];
+        int j = 0;
+        for (int i = 0; i < deleted.length; i++) {
+            if (deleted[i]) {
+                result[j++] = uids[i];
+            }
+        }
+        return result;
+    }
+}
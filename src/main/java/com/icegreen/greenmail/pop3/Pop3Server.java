@@ -21,6 +21,10 @@ public class Pop3Server extends AbstractServer {
         super(setup, managers);
     }
 
+    protected String getRejectResponse() {
+        return "-ERR Too many connections";
+    }
+
     public synchronized void quit() {
 
         try {
@@ -57,9 +61,11 @@ public class Pop3Server extends AbstractServer {
             while (keepOn()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    Pop3Handler pop3Handler = new Pop3Handler(managers.getUserManager(), clientSocket);
-                    handlers.add(pop3Handler);
-                    pop3Handler.start();
+                    if (!admit(clientSocket)) {
+                        continue;
+                    }
+                    Pop3Handler pop3Handler = new Pop3Handler(managers.getUserManager(), clientSocket, setup, getStartTlsContext());
+                    addHandler(pop3Handler, clientSocket);
                 } catch (IOException ignored) {
                     //ignored
                 }
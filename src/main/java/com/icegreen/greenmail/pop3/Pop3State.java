@@ -20,6 +20,7 @@ public class Pop3State {
     GreenMailUser _user;
     Store store;
     MailFolder _inbox;
+    Pop3Maildrop _maildrop;
     private ImapHostManager imapHostManager;
 
     public Pop3State(UserManager manager) {
@@ -55,11 +56,30 @@ public class Pop3State {
             throw new UserException("No user selected");
 
         _user.authenticate(pass);
-        _inbox = imapHostManager.getInbox(_user);
+        MailFolder inbox = imapHostManager.getInbox(_user);
+        _maildrop = new Pop3Maildrop(inbox.getMessages());
+        _inbox = inbox;
+    }
+
+    /**
+     * Ends the session's hold on the messages of its maildrop.
+     */
+    public void close() {
+        if (_maildrop != null) {
+            _maildrop.close();
+            _maildrop = null;
+        }
     }
 
     public MailFolder getFolder() {
 
         return _inbox;
     }
+
+    /**
+     * @return the inbox as it was when the session authenticated
+     */
+    public Pop3Maildrop getMaildrop() {
+        return _maildrop;
+    }
 }
\ No newline at end of file
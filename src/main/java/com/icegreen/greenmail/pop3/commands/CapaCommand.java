@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.pop3.commands;
+
+import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3State;
+
+
+/**
+ * Handles the CAPA command, listing the optional commands supported.
+ *
+ * See http://tools.ietf.org/html/rfc2449#section-5
+ */
+public class CapaCommand implements Pop3Command {
+    public boolean isValidForState(Pop3State state) {
+
+        return true;
+    }
+
+    public void execute(Pop3Connection conn, Pop3State state,
+                        String cmd) {
+        conn.println("+OK Capability list follows");
+        conn.println("USER");
+        conn.println("TOP");
+        conn.println("UIDL");
+        if (conn.isStartTlsAvailable()) {
+            conn.println("STLS");
+        }
+        conn.println(".");
+    }
+}
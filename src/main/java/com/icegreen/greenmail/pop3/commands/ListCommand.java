@@ -5,16 +5,10 @@
  */
 package com.icegreen.greenmail.pop3.commands;
 
-import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Maildrop;
 import com.icegreen.greenmail.pop3.Pop3State;
 
-import java.util.Iterator;
-import java.util.List;
-
-import com.icegreen.greenmail.store.MailFolder;
-import com.icegreen.greenmail.store.SimpleStoredMessage;
-
 
 public class ListCommand implements Pop3Command {
     public boolean isValidForState(Pop3State state) {
@@ -25,25 +19,23 @@ public class ListCommand implements Pop3Command {
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
+            Pop3Maildrop maildrop = state.getMaildrop();
             String[] cmdLine = cmd.split(" ");
             if (cmdLine.length > 1) {
-                String msgNumStr = cmdLine[1];
-                List<SimpleStoredMessage> msgList = inbox.getMessages(new MsgRangeFilter(msgNumStr, false));
-                if (msgList.size() != 1) {
+                int msn = maildrop.getMessageNumber(cmdLine[1]);
+                if (msn == 0) {
                     conn.println("-ERR no such message");
 
                     return;
                 }
 
-                SimpleStoredMessage msg = msgList.get(0);
-                conn.println("+OK " + msgNumStr + " " + msg.getMimeMessage().getSize());
+                conn.println("+OK " + msn + " " + maildrop.getSize(msn));
             } else {
-                List<SimpleStoredMessage> messages = inbox.getNonDeletedMessages();
                 conn.println("+OK");
-                for (Iterator<SimpleStoredMessage> i = messages.iterator(); i.hasNext();) {
-                    SimpleStoredMessage msg = i.next();
-                    conn.println(inbox.getMsn(msg.getUid()) + " " + msg.getMimeMessage().getSize());
+                for (int msn = 1; msn <= maildrop.getCount(); msn++) {
+                    if (!maildrop.isDeleted(msn)) {
+                        conn.println(msn + " " + maildrop.getSize(msn));
+                    }
                 }
 
                 conn.println(".");
@@ -1,12 +1,7 @@
 package com.icegreen.greenmail.pop3.commands;
 
-import java.util.List;
-import javax.mail.Flags;
-
 import com.icegreen.greenmail.pop3.Pop3Connection;
 import com.icegreen.greenmail.pop3.Pop3State;
-import com.icegreen.greenmail.store.MailFolder;
-import com.icegreen.greenmail.store.SimpleStoredMessage;
 
 /**
  * Handles the RSET command.
@@ -40,19 +35,8 @@ public class RsetCommand implements Pop3Command {
     }
 
     public void execute(Pop3Connection conn, Pop3State state, String cmd) {
-        conn.println("+OK");
         try {
-            MailFolder inbox = state.getFolder();
-            List<SimpleStoredMessage> msgList = inbox.getMessages();
-            int count = 0;
-            for(int i=0;i<msgList.size();i++) {
-                SimpleStoredMessage msg = msgList.get(i);
-                Flags flags = msg.getFlags();
-                if (flags.contains(Flags.Flag.DELETED)) {
-                    count++;
-                    flags.remove(Flags.Flag.DELETED);
-                }
-            }
+            int count = state.getMaildrop().reset();
 
             conn.println("+OK maildrop has "+count+" messages undeleted.");
         } catch (Exception e) {
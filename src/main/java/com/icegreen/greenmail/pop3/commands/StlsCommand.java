@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.pop3.commands;
+
+import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3State;
+
+import java.io.IOException;
+
+
+/**
+ * Handles the STLS command, which switches the connection to TLS.
+ *
+ * See http://tools.ietf.org/html/rfc2595#section-4:
+ *
+ * Restrictions:
+ *   Only permitted in AUTHORIZATION state.
+ *
+ * Possible Responses:
+ *   +OK -ERR
+ */
+public class StlsCommand implements Pop3Command {
+    public boolean isValidForState(Pop3State state) {
+
+        return !state.isAuthenticated();
+    }
+
+    public void execute(Pop3Connection conn, Pop3State state,
+                        String cmd) {
+        if (!conn.isStartTlsAvailable()) {
+            conn.println("-ERR STLS not available");
+
+            return;
+        }
+
+        conn.println("+OK Begin TLS negotiation");
+        try {
+            conn.startTls();
+        } catch (IOException e) {
+            conn.quit();
+        }
+    }
+}
@@ -5,17 +5,17 @@
  */
 package com.icegreen.greenmail.pop3.commands;
 
-import com.icegreen.greenmail.foedus.util.MsgRangeFilter;
 import com.icegreen.greenmail.pop3.Pop3Connection;
+import com.icegreen.greenmail.pop3.Pop3Maildrop;
 import com.icegreen.greenmail.pop3.Pop3State;
 import com.icegreen.greenmail.util.GreenMailUtil;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
-import java.util.List;
 
-import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.MimeStructure;
 import com.icegreen.greenmail.store.SimpleStoredMessage;
 
 
@@ -28,23 +28,36 @@ public class TopCommand implements Pop3Command {
     public void execute(Pop3Connection conn, Pop3State state,
                         String cmd) {
         try {
-            MailFolder inbox = state.getFolder();
+            Pop3Maildrop maildrop = state.getMaildrop();
             String[] cmdLine = cmd.split(" ");
             if (cmdLine.length < 3)
                 throw new IllegalArgumentException("range and line count required");
 
-            String msgNumStr = cmdLine[1];
-            List<SimpleStoredMessage> msgList = inbox.getMessages(new MsgRangeFilter(msgNumStr, false));
-            if (msgList.size() != 1) {
+            int msn = maildrop.getMessageNumber(cmdLine[1]);
+            if (msn == 0) {
                 conn.println("-ERR no such message");
 
                 return;
             }
 
-            SimpleStoredMessage msg = msgList.get(0);
+            SimpleStoredMessage msg = maildrop.getMessage(msn);
 
             int numLines = Integer.parseInt(cmdLine[2]);
 
+            MimeStructure structure = msg.getStructure();
+            if (null != structure) {
+                // Header and the first lines of the body are a prefix of the indexed message
+                long end = structure.getLineEnd(structure.getHeaderLength(), numLines);
+                InputStream in = structure.newStream(0, end);
+                conn.println("+OK");
+                try {
+                    conn.printMessage(in);
+                } finally {
+                    in.close();
+                }
+                return;
+            }
+
             BufferedReader in = new BufferedReader(new StringReader(GreenMailUtil.getWholeMessage(msg.getMimeMessage())));
 
             conn.println("+OK");
@@ -5,8 +5,10 @@
  */
 package com.icegreen.greenmail.smtp;
 
-import com.icegreen.greenmail.util.InternetPrintWriter;
+import com.icegreen.greenmail.util.LineCodec;
+import com.icegreen.greenmail.util.TlsContext;
 
+import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
@@ -16,7 +18,11 @@ import java.net.UnknownHostException;
 public class SmtpConnection {
 
     // TODO: clean up getting localhost name
-    private static final int TIMEOUT_MILLIS = 1000 * 30;
+    /**
+     * The most bytes of a chunk read at once, so memory grows with the bytes that
+     * actually arrive rather than with the size a client announces.
+     */
+    public static final int CHUNK_BUFFER_SIZE = 8192;
     private InetAddress serverAddress;
 
 
@@ -31,20 +37,20 @@ public class SmtpConnection {
     // networking/io stuff
     Socket sock;
     InetAddress clientAddress;
-    InternetPrintWriter out;
-    BufferedReader in;
+    LineCodec codec;
     SmtpHandler handler;
     String heloName;
+    long maxMessageSize = -1;
+    TlsContext tls;
 
-    public SmtpConnection(SmtpHandler handler, Socket sock)
+    public SmtpConnection(SmtpHandler handler, Socket sock, long maxMessageSize, TlsContext tls)
             throws IOException {
         this.sock = sock;
-        sock.setSoTimeout(TIMEOUT_MILLIS);
+        this.maxMessageSize = maxMessageSize;
+        this.tls = tls;
         clientAddress = sock.getInetAddress();
-        OutputStream o = sock.getOutputStream();
-        InputStream i = sock.getInputStream();
-        out = new InternetPrintWriter(o, true);
-        in = new BufferedReader(new InputStreamReader(i));
+        // replies are flushed only when the client has nothing more pending (RFC 2920 PIPELINING)
+        codec = new LineCodec(sock.getInputStream(), sock.getOutputStream());
 
         this.handler = handler;
     }
@@ -55,25 +61,81 @@ public class SmtpConnection {
     SmtpConnection() {
     }
 
+    /**
+     * Buffers a reply line. Like a PrintWriter, write errors are not reported here;
+     * the broken connection shows up on the next read.
+     */
     public void println(String line) {
 
         // System.err.println("S: " + line);
-        out.println(line);
+        try {
+            codec.println(line);
+        } catch (IOException ignored) {
+            //empty
+        }
     }
 
-    public BufferedReader getReader() {
+    /**
+     * @return the byte-level codec the connection reads and writes through
+     */
+    public LineCodec getCodec() {
+
+        return codec;
+    }
 
-        return in;
+    /**
+     * Sends any buffered replies to the client.
+     */
+    public void flush() {
+        try {
+            codec.flush();
+        } catch (IOException ignored) {
+            //empty
+        }
     }
 
+    /**
+     * Reads the next command line. Replies are only flushed when no further input
+     * is already waiting, so a pipelined batch of commands is answered in one write.
+     */
     public String readLine()
             throws IOException {
-        String line = in.readLine();
+        String line = codec.readLine();
 
         // System.err.println("C: " + line);
         return line;
     }
 
+    /**
+     * Reads exactly length bytes of message data sent after a BDAT command.
+     *
+     * @throws EOFException if the client disconnects first
+     */
+    public void readFully(byte[] b, int offset, int length)
+            throws IOException {
+        codec.readFully(b, offset, length);
+    }
+
+    /**
+     * Reads and throws away length bytes, such as a chunk which is being rejected.
+     */
+    public void discard(long length)
+            throws IOException {
+        byte[] buffer = new byte[(int) Math.min(length, CHUNK_BUFFER_SIZE)];
+        while (length > 0) {
+            int count = (int) Math.min(length, buffer.length);
+            readFully(buffer, 0, count);
+            length -= count;
+        }
+    }
+
+    /**
+     * @return the largest message accepted, in bytes, or -1 for no limit
+     */
+    public long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
     public String getClientAddress() {
 
         return clientAddress.getHostName();
@@ -104,6 +166,24 @@ public class SmtpConnection {
         heloName = n;
     }
 
+    /**
+     * @return true if STARTTLS is offered and the connection isn't using TLS yet
+     */
+    public boolean isStartTlsAvailable() {
+        return null != tls && !(sock instanceof SSLSocket);
+    }
+
+    /**
+     * Switches the connection to TLS (RFC 3207). Commands the client pipelined behind
+     * STARTTLS are dropped with the plain text input buffer, and the HELO name is forgotten.
+     */
+    public void startTls()
+            throws IOException {
+        sock = tls.startTls(sock);
+        codec = new LineCodec(sock.getInputStream(), sock.getOutputStream());
+        heloName = null;
+    }
+
     public void quit() {
         handler.quit();
     }
@@ -8,6 +8,8 @@ package com.icegreen.greenmail.smtp;
 import com.icegreen.greenmail.smtp.commands.SmtpCommand;
 import com.icegreen.greenmail.smtp.commands.SmtpCommandRegistry;
 import com.icegreen.greenmail.foedus.util.Workspace;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.TlsContext;
 
 import java.io.IOException;
 import java.net.Socket;
@@ -15,6 +17,9 @@ import java.net.SocketTimeoutException;
 
 class SmtpHandler extends Thread {
 
+    // used when the server setup leaves the idle or read timeout at -1
+    static final int DEFAULT_TIMEOUT_MILLIS = 1000 * 30;
+
     // protocol and configuration global stuff
     SmtpCommandRegistry _registry;
     SmtpManager _manager;
@@ -28,18 +33,28 @@ class SmtpHandler extends Thread {
     boolean _quitting;
     String _currentLine;
     private Socket _socket;
+    private ServerSetup _setup;
+    private TlsContext _tls;
+    private int _idleTimeout;
+    private int _readTimeout;
 
     public SmtpHandler(SmtpCommandRegistry registry,
-                       SmtpManager manager, Workspace workspace, Socket socket) {
+                       SmtpManager manager, Workspace workspace, Socket socket, ServerSetup setup,
+                       TlsContext tls) {
         _registry = registry;
         _manager = manager;
         _workspace = workspace;
         _socket = socket;
+        _setup = setup;
+        _tls = tls;
+        _idleTimeout = ServerSetup.timeoutOrDefault(setup.getIdleTimeout(), DEFAULT_TIMEOUT_MILLIS);
+        _readTimeout = ServerSetup.timeoutOrDefault(setup.getReadTimeout(), DEFAULT_TIMEOUT_MILLIS);
     }
 
     public void run() {
         try {
-            _conn = new SmtpConnection(this, _socket);
+            _socket.setSoTimeout(_idleTimeout);
+            _conn = new SmtpConnection(this, _socket, _setup.getMaxMessageSize(), _tls);
             _state = new SmtpState(_workspace);
             _quitting = false;
 
@@ -51,6 +66,7 @@ class SmtpHandler extends Thread {
 
         } catch (SocketTimeoutException ste) {
             _conn.println("421 Service shutting down and closing transmission channel");
+            _conn.flush();
 
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -68,7 +84,15 @@ class SmtpHandler extends Thread {
 
     protected void handleCommand()
             throws IOException {
-        _currentLine = _conn.readLine();
+        // Waiting for the next command is bounded by the idle timeout,
+        // reads while the command is handled (such as DATA) by the read timeout
+        if (_idleTimeout != _readTimeout) {
+            _socket.setSoTimeout(_idleTimeout);
+            _currentLine = _conn.readLine();
+            _socket.setSoTimeout(_readTimeout);
+        } else {
+            _currentLine = _conn.readLine();
+        }
 
         if (_currentLine == null) {
             quit();
@@ -82,7 +106,8 @@ class SmtpHandler extends Thread {
             return;
         }
 
-        String commandName = _currentLine.substring(0, 4).toUpperCase();
+        int space = _currentLine.indexOf(' ');
+        String commandName = (space < 0 ? _currentLine : _currentLine.substring(0, space)).toUpperCase();
 
         SmtpCommand command = _registry.getCommand(commandName);
 
@@ -96,15 +121,9 @@ class SmtpHandler extends Thread {
     }
 
     private boolean commandLegalSize() {
-        if (_currentLine.length() < 4) {
-            _conn.println("500 Invalid command. Must be 4 characters");
-
-            return false;
-        }
-
-        if (_currentLine.length() > 4 &&
-                _currentLine.charAt(4) != ' ') {
-            _conn.println("500 Invalid command. Must be 4 characters");
+        int space = _currentLine.indexOf(' ');
+        if ((space < 0 ? _currentLine.length() : space) < 4) {
+            _conn.println("500 Invalid command. Must be at least 4 characters");
 
             return false;
         }
@@ -120,6 +139,9 @@ class SmtpHandler extends Thread {
 
     public void quit() {
         _quitting = true;
+        if (_conn != null) {
+            _conn.flush();
+        }
         try {
             if (_socket != null && !_socket.isClosed()) {
                 _socket.close();
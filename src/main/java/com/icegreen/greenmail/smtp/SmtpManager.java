@@ -9,26 +9,28 @@ package com.icegreen.greenmail.smtp;
 import com.icegreen.greenmail.mail.MailAddress;
 import com.icegreen.greenmail.mail.MovingMessage;
 import com.icegreen.greenmail.user.GreenMailUser;
-import com.icegreen.greenmail.user.UserException;
 import com.icegreen.greenmail.user.UserManager;
 import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.store.MessageCountListener;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 public class SmtpManager {
     Incoming _incomingQueue;
     UserManager userManager;
     private ImapHostManager imapHostManager;
-    Vector<WaitObject> notifyList;
 
     public SmtpManager(ImapHostManager imapHostManager, UserManager userManager) {
         this.imapHostManager = imapHostManager;
         this.userManager = userManager;
         _incomingQueue = new Incoming();
-        notifyList = new Vector<WaitObject>();
     }
 
     public String checkSender() {
@@ -36,52 +38,82 @@ public class SmtpManager {
         return null;
     }
 
-    public String checkRecipient(SmtpState state) {
-        state.getMessage().getReturnPath();
-        return null;
+    /**
+     * Resolves the INBOX of a recipient at RCPT time, creating the user if there is none,
+     * so that a recipient that can't be delivered to is refused rather than accepted
+     * and then silently dropped.
+     *
+     * @return null if the recipient is accepted, otherwise the reply refusing it
+     */
+    public String checkRecipient(SmtpState state, MailAddress recipient) {
+        try {
+            userManager.getOrCreateUserByEmail(recipient.getEmail()).getInbox();
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return "550 Requested action not taken: mailbox unavailable";
+        }
     }
 
     public String checkData() {
         return null;
     }
 
-    public synchronized void send(SmtpState state) {
-        _incomingQueue.enqueue(state.getMessage());
-        for (int i = 0; i < notifyList.size(); i++) {
-            WaitObject o = notifyList.get(i);
-            synchronized (o) {
-                o.emailReceived();
-            }
+    /**
+     * Delivers the current message to all its recipients. A recipient that can't be
+     * delivered to doesn't stop the others; the outcome for each one is recorded on
+     * the message, see {@link MovingMessage#getDeliveryFailures()}.
+     *
+     * @throws RuntimeException if there were recipients, and the message could not be
+     *                          delivered to any of them
+     */
+    public void send(SmtpState state) {
+        MovingMessage msg = state.getMessage();
+        _incomingQueue.enqueue(msg);
+        Map<MailAddress, Exception> failures = msg.getDeliveryFailures();
+        if (msg.getDeliveredRecipients().isEmpty() && !failures.isEmpty()) {
+            throw new RuntimeException("Delivery failed for all recipients", failures.values().iterator().next());
         }
     }
 
     /**
-     * @return null if no need to wait. Otherwise caller must call wait() on the returned object
+     * Waits for the store to hold a number of messages, however they got there. The
+     * waiter is registered with the store before the count is read again, so a message
+     * stored in between is never missed.
+     *
+     * @return null if no need to wait. Otherwise caller must call {@link WaitObject#await(long)}
+     * on the returned object, and {@link #removeWaitObject(WaitObject)} once done with it
      */
-    public synchronized WaitObject createAndAddNewWaitObject(int emailCount) {
-        final int existingCount = imapHostManager.getAllMessages().size();
-        if (existingCount >= emailCount) {
+    public WaitObject createAndAddNewWaitObject(int emailCount) {
+        if (InMemoryStore.getStoredMessageCount() >= emailCount) {
+            return null;
+        }
+        WaitObject ret = new WaitObject(emailCount);
+        InMemoryStore.addMessageCountListener(ret);
+        if (ret.countReached(InMemoryStore.getStoredMessageCount())) {
+            InMemoryStore.removeMessageCountListener(ret);
             return null;
         }
-        WaitObject ret = new WaitObject(emailCount - existingCount);
-        notifyList.add(ret);
         return ret;
     }
 
+    /**
+     * Unregisters a waiter, for instance one that timed out.
+     */
+    public void removeWaitObject(WaitObject o) {
+        InMemoryStore.removeMessageCountListener(o);
+    }
+
     //~----------------------------------------------------------------------------------------------------------------
     /**
      * This Object is used by a thread to wait until a number of emails have arrived.
      * (for example Server's waitForIncomingEmail method)
      *
-     * Every time an email has arrived, the method emailReceived() must be called.
-     *
-     * The notify() or notifyALL() methods should not be called on this object unless
-     * you want to notify waiting threads even if not all the required emails have arrived.
-     *
+     * It is released once the store holds the given number of emails.
      */
-    public static class WaitObject {
-        private boolean arrived = false;
-        private int emailCount;
+    public static class WaitObject implements MessageCountListener {
+        private final int emailCount;
+        private final CountDownLatch arrived = new CountDownLatch(1);
 
         public WaitObject(int emailCount) {
             this.emailCount = emailCount;
@@ -92,50 +124,71 @@ public class SmtpManager {
         }
 
         public boolean isArrived() {
-            return arrived;
+            return arrived.getCount() == 0;
+        }
+
+        /**
+         * Blocks until the emails have arrived or the timeout elapses.
+         *
+         * @param timeout maximum time to wait in ms
+         * @return true if the emails have arrived
+         */
+        public boolean await(long timeout) throws InterruptedException {
+            return arrived.await(timeout, TimeUnit.MILLISECONDS);
         }
 
-        private void setArrived() {
-            arrived = true;
+        public void messageCountChanged(int count) {
+            countReached(count);
         }
 
-        public void emailReceived()
-        {
-            emailCount--;
-            if (emailCount<=0) {
-                setArrived();
-                this.notifyAll();
+        /**
+         * Releases the waiting thread if the given message count reaches the total waited for.
+         *
+         * @return true if the emails have arrived
+         */
+        boolean countReached(int count) {
+            if (count >= emailCount) {
+                arrived.countDown();
+                return true;
             }
+            return false;
         }
     }
 
     private class Incoming {
 
+        /**
+         * Resolves the INBOX of every recipient, then stores the message in all of them
+         * in one store transaction rather than one commit per recipient.
+         */
         public void enqueue(MovingMessage msg) {
-            Iterator<MailAddress> iterator = msg.getRecipientIterator();            
+            List<MailAddress> recipients = new ArrayList<MailAddress>();
+            List<MailFolder> inboxes = new ArrayList<MailFolder>();
+            Iterator<MailAddress> iterator = msg.getRecipientIterator();
             while (iterator.hasNext()) {
-                MailAddress username = iterator.next();
-                handle(msg, username);
+                MailAddress mailAddress = iterator.next();
+                try {
+                    GreenMailUser user = userManager.getOrCreateUserByEmail(mailAddress.getEmail());
+                    inboxes.add(user.getInbox());
+                    recipients.add(mailAddress);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    msg.deliveryFailed(mailAddress, e);
+                }
             }
 
-        }
-
-        private void handle(MovingMessage msg, MailAddress mailAddress) {
-            try {
+            if (!inboxes.isEmpty()) {
                 try {
-                    GreenMailUser user = userManager.getUserByEmail(mailAddress.getEmail());
-                    if (null == user) {
-                        user = userManager.createUser(mailAddress.getEmail(),mailAddress.getEmail(), mailAddress.getEmail());
+                    InMemoryStore.deliver(inboxes, msg.getMessage(), new Date());
+                    for (MailAddress mailAddress : recipients) {
+                        msg.delivered(mailAddress);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    for (MailAddress mailAddress : recipients) {
+                        msg.deliveryFailed(mailAddress, e);
                     }
-
-                    user.deliver(msg);
-
-                } catch (UserException e) {
-                    throw new RuntimeException(e);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw new RuntimeException(e);
             }
 
             msg.releaseContent();
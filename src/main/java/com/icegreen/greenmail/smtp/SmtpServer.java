@@ -22,6 +22,10 @@ public class SmtpServer extends AbstractServer {
         super(setup, managers);
     }
 
+    protected String getRejectResponse() {
+        return "421 Service not available, too many connections";
+    }
+
     public synchronized void quit() {
         try {
             for (Iterator<Thread> iterator = handlers.iterator(); iterator.hasNext();) {
@@ -56,9 +60,11 @@ public class SmtpServer extends AbstractServer {
             while (keepOn()) {
                 try {
                     Socket clientSocket = serverSocket.accept();
-                    SmtpHandler smtpHandler = new SmtpHandler(new SmtpCommandRegistry(), managers.getSmtpManager(), new InMemoryWorkspace(), clientSocket);
-                    handlers.add(smtpHandler);
-                    smtpHandler.start();
+                    if (!admit(clientSocket)) {
+                        continue;
+                    }
+                    SmtpHandler smtpHandler = new SmtpHandler(new SmtpCommandRegistry(), managers.getSmtpManager(), new InMemoryWorkspace(), clientSocket, setup, getStartTlsContext());
+                    addHandler(smtpHandler, clientSocket);
                 } catch (SocketException ignored) {
                     // ignored.printStackTrace();
                 } catch (IOException e) {
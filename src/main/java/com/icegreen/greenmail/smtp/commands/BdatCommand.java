@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been used and modified. Original file can be found on http://foedus.sourceforge.net
+ */
+package com.icegreen.greenmail.smtp.commands;
+
+import com.icegreen.greenmail.mail.MovingMessage;
+import com.icegreen.greenmail.smtp.SmtpConnection;
+import com.icegreen.greenmail.smtp.SmtpManager;
+import com.icegreen.greenmail.smtp.SmtpState;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * BDAT command, sending the message in chunks of a given size.
+ * <p/>
+ * <p/>
+ * The chunk is read as it is, with no dot-stuffing to undo and no line scanning.
+ * The spec is at <a
+ * href="http://tools.ietf.org/html/rfc3030#section-2">
+ * http://tools.ietf.org/html/rfc3030#section-2</a>.
+ * </p>
+ */
+public class BdatCommand
+        extends SmtpCommand {
+    static final Pattern param = Pattern.compile("BDAT (\\d{1,18})( +LAST)? *",
+            Pattern.CASE_INSENSITIVE);
+
+    public void execute(SmtpConnection conn, SmtpState state,
+                        SmtpManager manager, String commandLine)
+            throws IOException {
+        Matcher m = param.matcher(commandLine);
+        if (!m.matches()) {
+            conn.println("501 Required syntax: 'BDAT <size> [LAST]'");
+
+            return;
+        }
+        long size = Long.parseLong(m.group(1));
+        boolean last = m.group(2) != null;
+
+        MovingMessage msg = state.getMessage();
+
+        // the chunk follows the command regardless, so it is read off even when refused
+        if (msg.getReturnPath() == null) {
+            conn.discard(size);
+            conn.println("503 MAIL command required");
+
+            return;
+        }
+
+        if (!msg.hasRecipients()) {
+            conn.discard(size);
+            conn.println("503 RCPT command(s) required");
+
+            return;
+        }
+
+        if (!msg.hasChunks()) {
+            msg.startChunks(DataCommand.traceHeaders(conn, msg));
+        }
+
+        long maxMessageSize = conn.getMaxMessageSize();
+        if (maxMessageSize >= 0 && msg.getChunksLength() - msg.getChunksHeaderLength() + size > maxMessageSize) {
+            conn.discard(size);
+            state.clearMessage();
+            conn.println("552 Message size exceeds fixed maximum message size");
+
+            return;
+        }
+
+        if (size > Integer.MAX_VALUE - msg.getChunksLength()) {
+            conn.discard(size);
+            state.clearMessage();
+            conn.println("552 Message too large");
+
+            return;
+        }
+
+        // read in bounded pieces, so a client announcing a huge chunk and sending
+        // little gets no more memory than it sent
+        long remaining = size;
+        while (remaining > 0) {
+            int length = (int) Math.min(remaining, SmtpConnection.CHUNK_BUFFER_SIZE);
+            int offset = msg.getChunksLength();
+            conn.readFully(msg.reserveChunk(length), offset, length);
+            msg.chunkRead(length);
+            remaining -= length;
+        }
+
+        if (!last) {
+            conn.println("250 " + size + " octets received");
+
+            return;
+        }
+
+        msg.completeChunks();
+        DataCommand.deliver(conn, state, manager);
+    }
+}
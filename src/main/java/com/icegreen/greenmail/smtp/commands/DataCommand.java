@@ -5,15 +5,14 @@
  */
 package com.icegreen.greenmail.smtp.commands;
 
+import com.icegreen.greenmail.mail.MailAddress;
 import com.icegreen.greenmail.mail.MovingMessage;
 import com.icegreen.greenmail.smtp.SmtpConnection;
 import com.icegreen.greenmail.smtp.SmtpManager;
 import com.icegreen.greenmail.smtp.SmtpState;
-import com.icegreen.greenmail.foedus.util.StreamUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.StringReader;
+import java.util.Map;
 
 
 /**
@@ -43,17 +42,41 @@ public class DataCommand extends SmtpCommand {
             return;
         }
 
+        // RFC 3030: binary content and a message begun with BDAT may only continue with BDAT
+        if (msg.hasChunks() || MailCommand.BODY_BINARYMIME.equals(msg.getBodyType())) {
+            conn.println("503 BDAT command required");
+
+            return;
+        }
+
         conn.println("354 Start mail input; end with <CRLF>.<CRLF>");
+        conn.flush();
+
+        if (!msg.readDotTerminatedContent(traceHeaders(conn, msg), conn.getCodec(), conn.getMaxMessageSize())) {
+            state.clearMessage();
+            conn.println("552 Message size exceeds fixed maximum message size");
+
+            return;
+        }
+
+        deliver(conn, state, manager);
+    }
 
-        String value = "Return-Path: <" + msg.getReturnPath() +
+    /**
+     * The Return-Path and Received lines put in front of an incoming message.
+     */
+    static String traceHeaders(SmtpConnection conn, MovingMessage msg) {
+        return "Return-Path: <" + msg.getReturnPath() +
                 ">\r\n" + "Received: from " +
                 conn.getClientAddress() + " (HELO " +
                 conn.getHeloName() + "); " +
                 new java.util.Date() + "\r\n";
+    }
 
-        msg.readDotTerminatedContent(new BufferedReader(StreamUtils.splice(new StringReader(value),
-                conn.getReader())));
-
+    /**
+     * Hands a fully received message over for delivery and replies with the outcome.
+     */
+    static void deliver(SmtpConnection conn, SmtpState state, SmtpManager manager) {
         String err = manager.checkData();
         if (err != null) {
             conn.println(err);
@@ -63,7 +86,9 @@ public class DataCommand extends SmtpCommand {
 
         try {
             manager.send(state);
-            conn.println("250 OK");
+            // The message is accepted once stored for anyone, but those it wasn't stored for are named
+            Map<MailAddress, Exception> failures = state.getMessage().getDeliveryFailures();
+            conn.println(failures.isEmpty() ? "250 OK" : "250 OK, not delivered to " + failures.keySet());
         } catch (Exception je) {
             je.printStackTrace();
             conn.println("451 Requested action aborted: local error in processing");
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been used and modified. Original file can be found on http://foedus.sourceforge.net
+ */
+package com.icegreen.greenmail.smtp.commands;
+
+import com.icegreen.greenmail.smtp.SmtpConnection;
+import com.icegreen.greenmail.smtp.SmtpManager;
+import com.icegreen.greenmail.smtp.SmtpState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * EHLO command, answering with the supported service extensions.
+ * <p/>
+ * <p/>
+ * The spec is at <a
+ * href="http://asg.web.cmu.edu/rfc/rfc2821.html#sec-4.1.1.1">
+ * http://asg.web.cmu.edu/rfc/rfc2821.html#sec-4.1.1.1 </a>.
+ * </p>
+ */
+public class EhloCommand
+        extends HeloCommand {
+    public void execute(SmtpConnection conn, SmtpState state,
+                        SmtpManager manager, String commandLine) {
+        extractHeloName(conn, commandLine);
+        state.clearMessage();
+        conn.println("250-" + conn.getServerGreetingsName());
+        List<String> extensions = getExtensions(conn);
+        for (int i = 0; i < extensions.size(); i++) {
+            conn.println((i < extensions.size() - 1 ? "250-" : "250 ") + extensions.get(i));
+        }
+    }
+
+    protected List<String> getExtensions(SmtpConnection conn) {
+        List<String> extensions = new ArrayList<String>();
+        // RFC 2920
+        extensions.add("PIPELINING");
+        // RFC 1870
+        long maxMessageSize = conn.getMaxMessageSize();
+        extensions.add(maxMessageSize < 0 ? "SIZE" : "SIZE " + maxMessageSize);
+        // RFC 6152
+        extensions.add("8BITMIME");
+        // RFC 3030
+        extensions.add("CHUNKING");
+        extensions.add("BINARYMIME");
+        // RFC 3207
+        if (conn.isStartTlsAvailable()) {
+            extensions.add("STARTTLS");
+        }
+        return extensions;
+    }
+}
@@ -11,7 +11,7 @@ import com.icegreen.greenmail.smtp.SmtpState;
 
 
 /**
- * EHLO/HELO command.
+ * HELO command.
  * <p/>
  * <p/>
  * TODO: What does HELO do if it's already been called before?
@@ -32,7 +32,7 @@ public class HeloCommand
         conn.println("250 " + conn.getServerGreetingsName());
     }
 
-    private void extractHeloName(SmtpConnection conn,
+    protected void extractHeloName(SmtpConnection conn,
                                  String commandLine) {
         String heloName;
 
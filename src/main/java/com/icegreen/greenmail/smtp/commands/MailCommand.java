@@ -26,9 +26,13 @@ import java.util.regex.Pattern;
  */
 public class MailCommand
         extends SmtpCommand {
-    static final Pattern param = Pattern.compile("MAIL FROM:\\s?<(.*)>",
+    static final Pattern param = Pattern.compile("MAIL FROM:\\s?<([^>]*)>((?: +[^ ]+)*) *",
             Pattern.CASE_INSENSITIVE);
 
+    public static final String BODY_7BIT = "7BIT";
+    public static final String BODY_8BITMIME = "8BITMIME";
+    public static final String BODY_BINARYMIME = "BINARYMIME";
+
     public void execute(SmtpConnection conn, SmtpState state,
                         SmtpManager manager, String commandLine) {
         Matcher m = param.matcher(commandLine);
@@ -45,8 +49,46 @@ public class MailCommand
                     return;
                 }
 
+                String bodyType = null;
+                String parameters = m.group(2).trim();
+                if (parameters.length() > 0) {
+                    for (String parameter : parameters.split(" +")) {
+                        int eq = parameter.indexOf('=');
+                        String keyword = eq < 0 ? parameter : parameter.substring(0, eq);
+                        String value = eq < 0 ? null : parameter.substring(eq + 1).toUpperCase();
+                        if ("SIZE".equalsIgnoreCase(keyword)) {
+                            // RFC 1870: refuse up front what would be refused after the transfer
+                            if (value == null || !value.matches("\\d{1,18}")) {
+                                conn.println("501 SIZE must be a number of bytes");
+
+                                return;
+                            }
+                            long maxMessageSize = conn.getMaxMessageSize();
+                            if (maxMessageSize >= 0 && Long.parseLong(value) > maxMessageSize) {
+                                conn.println("552 Message size exceeds fixed maximum message size");
+
+                                return;
+                            }
+                            continue;
+                        }
+                        if (!"BODY".equalsIgnoreCase(keyword)) {
+                            conn.println("555 MAIL FROM parameter not recognized: " + keyword);
+
+                            return;
+                        }
+                        if (!BODY_7BIT.equals(value) && !BODY_8BITMIME.equals(value)
+                                && !BODY_BINARYMIME.equals(value)) {
+                            conn.println("501 BODY must be 7BIT, 8BITMIME or BINARYMIME");
+
+                            return;
+                        }
+                        bodyType = value;
+                    }
+                }
+
                 state.clearMessage();
                 state.getMessage().setReturnPath(fromAddr);
+                state.getMessage().setBodyType(bodyType);
                 conn.println("250 OK");
             } else {
                 conn.println("501 Required syntax: 'MAIL FROM:<email@host>'");
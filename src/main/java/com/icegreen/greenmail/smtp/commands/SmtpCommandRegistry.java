@@ -13,11 +13,12 @@ public class SmtpCommandRegistry {
     private static Map<String, SmtpCommand> commands = new HashMap<String, SmtpCommand>();
     private static Object[][] COMMANDS = new Object[][]
     {
-        {"HELO", new HeloCommand()}, {"EHLO", new HeloCommand()},
+        {"HELO", new HeloCommand()}, {"EHLO", new EhloCommand()},
         {"NOOP", new NoopCommand()}, {"RSET", new RsetCommand()},
         {"QUIT", new QuitCommand()}, {"MAIL", new MailCommand()},
         {"RCPT", new RcptCommand()}, {"DATA", new DataCommand()},
-        {"VRFY", new VrfyCommand()}
+        {"VRFY", new VrfyCommand()}, {"BDAT", new BdatCommand()},
+        {"STARTTLS", new StartTlsCommand()}
     };
 
     public void load()
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.smtp.commands;
+
+import com.icegreen.greenmail.smtp.SmtpConnection;
+import com.icegreen.greenmail.smtp.SmtpManager;
+import com.icegreen.greenmail.smtp.SmtpState;
+
+import java.io.IOException;
+
+
+/**
+ * STARTTLS command.
+ * <p/>
+ * <p/>
+ * The spec is at <a
+ * href="http://tools.ietf.org/html/rfc3207">
+ * http://tools.ietf.org/html/rfc3207</a>.
+ * </p>
+ */
+public class StartTlsCommand
+        extends SmtpCommand {
+    public void execute(SmtpConnection conn, SmtpState state,
+                        SmtpManager manager, String commandLine) {
+        if (!"STARTTLS".equalsIgnoreCase(commandLine.trim())) {
+            conn.println("501 Syntax error (no parameters allowed)");
+            return;
+        }
+        if (!conn.isStartTlsAvailable()) {
+            conn.println("454 TLS not available");
+            return;
+        }
+
+        conn.println("220 Ready to start TLS");
+        conn.flush();
+        // The client starts over with EHLO once TLS is up
+        state.clearMessage();
+        try {
+            conn.startTls();
+        } catch (IOException e) {
+            conn.quit();
+        }
+    }
+}
@@ -10,11 +10,11 @@ import javax.mail.Flags;
 
 
 public interface FolderListener {
-    void expunged(int msn);
+    void expunged(int msn, long uid);
 
     void added(int msn);
 
-    void flagsUpdated(int msn, Flags flags, Long uid);
+    void flagsUpdated(int msn, Flags flags, Long uid, long modSeq);
 
     void mailboxDeleted();
 }
\ No newline at end of file
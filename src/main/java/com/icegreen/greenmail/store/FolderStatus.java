@@ -0,0 +1,62 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * This file has been modified by the copyright holder. Original file can be found at http://james.apache.org
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.store;
+
+/**
+ * The STATUS counters of a {@link MailFolder}, all taken from the same state of the store.
+ */
+public class FolderStatus {
+    private final int messageCount;
+    private final int recentCount;
+    private final int unseenCount;
+    private final long uidNext;
+    private final long uidValidity;
+    private final long highestModSeq;
+    private final long size;
+
+    public FolderStatus(int messageCount, int recentCount, int unseenCount,
+                        long uidNext, long uidValidity, long highestModSeq, long size) {
+        this.messageCount = messageCount;
+        this.recentCount = recentCount;
+        this.unseenCount = unseenCount;
+        this.uidNext = uidNext;
+        this.uidValidity = uidValidity;
+        this.highestModSeq = highestModSeq;
+        this.size = size;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public int getRecentCount() {
+        return recentCount;
+    }
+
+    public int getUnseenCount() {
+        return unseenCount;
+    }
+
+    public long getUidNext() {
+        return uidNext;
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+
+    /**
+     * @return the total size of the messages in the folder
+     */
+    public long getSize() {
+        return size;
+    }
+}
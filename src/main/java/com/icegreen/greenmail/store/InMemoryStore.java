@@ -10,10 +10,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.mail.Flags;
 import javax.mail.MessagingException;
@@ -56,6 +57,21 @@ public class InMemoryStore
     public static Var GET_MAILBOX = RT.var("greenmail.store","get-mailbox");
     public static Var HIMF = RT.var("greenmail.store","->HiMF");
     public static Var CREATE_MAILBOX = RT.var("greenmail.store","create-mailbox");
+    public static Var FOLDER_STATUSES = RT.var("greenmail.store","folder-statuses");
+    public static Var MOVE_FOLDER = RT.var("greenmail.store","move-folder");
+    public static Var DELIVER_MESSAGE = RT.var("greenmail.store","deliver-message");
+    public static Var FIND_MESSAGES = RT.var("greenmail.store","find-messages");
+    public static Var FIND_MESSAGES_BETWEEN = RT.var("greenmail.store","find-messages-between");
+    public static Var GET_STORED_COUNT = RT.var("greenmail.store","get-stored-count");
+    public static Var WATCH_STORED_COUNT = RT.var("greenmail.store","watch-stored-count");
+    public static Var UNWATCH_STORED_COUNT = RT.var("greenmail.store","unwatch-stored-count");
+
+    /** Index of recipient addresses, from the To, Cc and Bcc headers. */
+    public static final String BY_RECIPIENT = "recipient";
+    /** Index of recipient domains; a domain also matches its subdomains. */
+    public static final String BY_DOMAIN = "domain";
+    /** Index of Message-ID headers, with or without the angle brackets. */
+    public static final String BY_MESSAGE_ID = "message-id";
     public static Keyword ID = Keyword.intern("id");
     
     public MailFolder rootMailbox = createRootFolder();
@@ -111,6 +127,11 @@ public class InMemoryStore
         setName(toRename, newName);
     }
 
+    public void renameMailbox(MailFolder existingFolder, MailFolder newParent, String newName)
+            throws FolderException {
+        ((IFn)MOVE_FOLDER.deref()).invoke(RT.get(existingFolder, ID), RT.get(newParent, ID), newName);
+    }
+
     public Collection<MailFolder> getChildren(MailFolder parent) {
         Collection<MailFolder> children = getChildren_(parent);
         return Collections.unmodifiableCollection(children);
@@ -126,43 +147,24 @@ public class InMemoryStore
      */
     public Collection<MailFolder> listMailboxes(String searchPattern)
         throws FolderException {
-        int starIndex = searchPattern.indexOf('*');
-        int percentIndex = searchPattern.indexOf('%');
-
-        // We only handle wildcard at the end of the search pattern.
-        if ((starIndex > -1 && starIndex < searchPattern.length() - 1) ||
-            (percentIndex > -1 && percentIndex < searchPattern.length() - 1)) {
-            throw new FolderException("WIldcard characters are only handled as the last character of a list argument.");
-        }
+        int firstWildcard = firstWildcard(searchPattern);
 
         ArrayList<MailFolder> mailboxes = new ArrayList<MailFolder>();
-        if (starIndex != -1 || percentIndex != -1) {
-            int lastDot = searchPattern.lastIndexOf(HIERARCHY_DELIMITER);
-            String parentName;
+        if (firstWildcard != -1) {
+            // Start from the deepest mailbox named by the pattern without wildcards,
+            // found through the path index rather than by walking from the root.
+            int lastDot = searchPattern.lastIndexOf(HIERARCHY_DELIMITER, firstWildcard);
+            MailFolder start;
             if (lastDot < 0) {
-                parentName = USER_NAMESPACE;
+                start = rootMailbox;
             } else {
-                parentName = searchPattern.substring(0, lastDot);
+                start = getMailbox(searchPattern.substring(0, lastDot));
             }
-            String matchPattern = searchPattern.substring(lastDot + 1, searchPattern.length() - 1);
-
-            MailFolder parent = (MailFolder) getMailbox(parentName);
             // If the parent from the search pattern doesn't exist,
             // return empty.
-            if (parent != null) {
-                Iterator<MailFolder> children = new ArrayList<MailFolder>(getChildren_(parent)).iterator();
-                while (children.hasNext()) {
-                    MailFolder child = children.next();
-                    if (child.getName().startsWith(matchPattern)) {
-                        mailboxes.add(child);
-
-                        if (starIndex != -1) {
-                            addAllChildren(child, mailboxes);
-                        }
-                    }
-                }
+            if (start != null) {
+                addMatching(start, compileListPattern(searchPattern), mailboxes);
             }
-
         } else {
             MailFolder folder = getMailbox(searchPattern);
             if (folder != null) {
@@ -173,13 +175,55 @@ public class InMemoryStore
         return mailboxes;
     }
 
-    private void addAllChildren(MailFolder mailbox, Collection<MailFolder> mailboxes) {
-        Collection<MailFolder> children = getChildren_(mailbox);
-        Iterator<MailFolder> iterator = new ArrayList<MailFolder>(children).iterator();
-        while (iterator.hasNext()) {
-            MailFolder child = iterator.next();
-            mailboxes.add(child);
-            addAllChildren(child, mailboxes);
+    private static int firstWildcard(String searchPattern) {
+        for (int i = 0; i < searchPattern.length(); i++) {
+            char c = searchPattern.charAt(i);
+            if (c == '*' || c == '%') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compiles a LIST pattern into a regular expression: '*' matches anything, '%'
+     * anything but the hierarchy delimiter, and the rest is matched literally.
+     * Names are matched case insensitively, as the store looks them up.
+     */
+    static Pattern compileListPattern(String searchPattern) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < searchPattern.length(); i++) {
+            char c = searchPattern.charAt(i);
+            if (c == '*' || c == '%') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(searchPattern.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : "[^" + Pattern.quote(HIERARCHY_DELIMITER) + "]*");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < searchPattern.length()) {
+            regex.append(Pattern.quote(searchPattern.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+
+    /**
+     * Adds the mailbox and its descendants whose full names match the pattern.
+     * A subtree is skipped as soon as {@link Matcher#hitEnd()} shows that no
+     * longer name below it can match.
+     */
+    private void addMatching(MailFolder mailbox, Pattern pattern, Collection<MailFolder> mailboxes) {
+        Matcher matcher = pattern.matcher(mailbox.getFullName());
+        boolean matches = matcher.matches();
+        if (matches) {
+            mailboxes.add(mailbox);
+        }
+        if (matches || matcher.hitEnd()) {
+            for (MailFolder child : getChildren_(mailbox)) {
+                addMatching(child, pattern, mailboxes);
+            }
         }
     }
 
@@ -218,4 +262,69 @@ public class InMemoryStore
     public static void expunge (MailFolder mf){
         ((IFn)EXPUNGE.deref()).invoke(RT.get(mf, ID));
     }
+
+    /**
+     * Reads the STATUS counters of several folders from one consistent snapshot of the store.
+     *
+     * @return the counters, in the order the folders were given
+     */
+    @SuppressWarnings("unchecked")
+    public static List<FolderStatus> getStatus(Collection<MailFolder> folders) {
+        return (List<FolderStatus>)(((IFn)FOLDER_STATUSES.deref()).invoke(folders));
+    }
+
+    /**
+     * Stores a copy of one message in each of the given folders, all in a single transaction.
+     *
+     * @return the uid of each copy, in the order the folders were given
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Long> deliver(List<MailFolder> folders, MimeMessage message, Date internalDate) {
+        return (List<Long>)(((IFn)DELIVER_MESSAGE.deref()).invoke(folders, message, internalDate));
+    }
+
+    /**
+     * Looks up stored messages in one of the indexes kept by the store, in delivery order.
+     *
+     * @param index  one of {@link #BY_RECIPIENT}, {@link #BY_DOMAIN} or {@link #BY_MESSAGE_ID}
+     * @param value  the value to look up, case insensitive except for Message-IDs
+     * @param offset number of matches to skip
+     * @param limit  maximum number of messages to return, or -1 for all
+     */
+    @SuppressWarnings("unchecked")
+    public static List<MimeMessage> findMessages(String index, String value, int offset, int limit) {
+        return (List<MimeMessage>)(((IFn)FIND_MESSAGES.deref()).invoke(index, value, offset, limit));
+    }
+
+    /**
+     * @return the number of messages in all folders
+     */
+    public static int getStoredMessageCount() {
+        return ((Number) ((IFn) GET_STORED_COUNT.deref()).invoke()).intValue();
+    }
+
+    /**
+     * Registers a listener for changes of {@link #getStoredMessageCount()}, however the
+     * messages are stored or removed.
+     */
+    public static void addMessageCountListener(MessageCountListener listener) {
+        ((IFn) WATCH_STORED_COUNT.deref()).invoke(listener, listener);
+    }
+
+    public static void removeMessageCountListener(MessageCountListener listener) {
+        ((IFn) UNWATCH_STORED_COUNT.deref()).invoke(listener);
+    }
+
+    /**
+     * Looks up the messages stored from (inclusive) to (exclusive) the given times, in delivery order.
+     *
+     * @param from   the earliest internal date, or null for no lower bound
+     * @param to     the internal date to stop before, or null for no upper bound
+     * @param offset number of matches to skip
+     * @param limit  maximum number of messages to return, or -1 for all
+     */
+    @SuppressWarnings("unchecked")
+    public static List<MimeMessage> findMessagesBetween(Date from, Date to, int offset, int limit) {
+        return (List<MimeMessage>)(((IFn)FIND_MESSAGES_BETWEEN.deref()).invoke(from, to, offset, limit));
+    }
 }
@@ -8,6 +8,8 @@ package com.icegreen.greenmail.store;
 
 import java.util.Date;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.UUID;
 
 import javax.mail.Flags;
 import javax.mail.internet.MimeMessage;
@@ -27,6 +29,11 @@ import com.icegreen.greenmail.mail.MovingMessage;
  * @version $Revision: 109034 $
  */
 public interface MailFolder {
+    /**
+     * @return an identifier which stays the same for the life of the folder, across renames
+     */
+    UUID getId();
+
     String getName();
 
     String getFullName();
@@ -35,6 +42,11 @@ public interface MailFolder {
 
     int getMessageCount();
 
+    /**
+     * @return the total size of the messages in the folder, kept as messages are added and removed
+     */
+    long getSize();
+
     int getRecentCount(boolean reset);
 
     long getUidValidity();
@@ -47,8 +59,27 @@ public interface MailFolder {
 
     long getUidNext();
 
+    /**
+     * @return the highest mod-sequence assigned to any change in this folder (RFC 7162)
+     */
+    long getHighestModSeq();
+
+    /**
+     * @param modSeq a mod-sequence previously seen by the client
+     * @return the uids of messages expunged since that mod-sequence, in ascending order
+     */
+    long[] getVanishedUids(long modSeq);
+
     long appendMessage(MimeMessage message, Flags flags, Date internalDate);
 
+    /**
+     * Appends several messages atomically (RFC 3502 MULTIAPPEND). The lists are parallel;
+     * the messages get consecutive uids and listeners are notified once.
+     *
+     * @return the uids assigned, in the order the messages were given
+     */
+    long[] appendMessages(List<MimeMessage> messages, List<Flags> flags, List<Date> internalDates);
+
     void deleteAllMessages();
 
     void expunge() throws FolderException;
@@ -70,6 +101,15 @@ public interface MailFolder {
     long copyMessage(long uid, MailFolder toFolder)
             throws FolderException;
 
+    /**
+     * Atomically moves messages to another folder (RFC 6851), without copying their content.
+     * Uids of messages no longer in this folder are skipped.
+     *
+     * @return the uid each moved message was given, keyed by its uid in this folder
+     */
+    SortedMap<Long, Long> moveMessages(long[] uids, MailFolder toFolder)
+            throws FolderException;
+
     void setFlags(Flags flags, boolean value, long uid, FolderListener silentListener, boolean addUid) throws FolderException;
 
     void replaceFlags(Flags flags, long uid, FolderListener silentListener, boolean addUid) throws FolderException;
@@ -0,0 +1,20 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.store;
+
+/**
+ * Notified when the number of messages held by the store changes.
+ *
+ * @see InMemoryStore#addMessageCountListener(MessageCountListener)
+ */
+public interface MessageCountListener {
+    /**
+     * Called after the transaction that changed the count has committed.
+     *
+     * @param count the number of messages in all folders
+     */
+    void messageCountChanged(int count);
+}
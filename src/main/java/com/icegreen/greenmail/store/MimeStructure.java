@@ -0,0 +1,552 @@
+/* -------------------------------------------------------------------
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ * -------------------------------------------------------------------
+ */
+package com.icegreen.greenmail.store;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetHeaders;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.ParseException;
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * The MIME structure of a stored message, recorded once when the message is stored:
+ * where the header ends, and for every body part where its MIME header and body lie
+ * and how many lines the body has. Offsets count from the start of the message as
+ * written by {@link MimeMessage#writeTo}, so a section (BODY[HEADER], BODY[TEXT],
+ * BODY[1.2], BODY[2.MIME], ...) can be served as a slice of the stored bytes
+ * without JavaMail parsing the message again.
+ * <p/>
+ * The header is kept as bytes; the body is read through the {@link SharedInputStream}
+ * the message was parsed from, so slicing it doesn't copy the message.
+ */
+public final class MimeStructure {
+    private static final String DEFAULT_TYPE = "text/plain";
+    private static final String RFC822 = "message/rfc822";
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final byte[] header;
+    private final SharedInputStream content;
+    private final long size;
+    private final long bareLineFeeds;
+    private final Part root;
+
+    /**
+     * A message or body part. The message itself starts at 0 and its body at the end of the header.
+     */
+    private static final class Part {
+        final long start;
+        final long bodyStart;
+        long end;
+        int lines;
+        // the body parts of a multipart, or null
+        Part[] parts;
+        // the message inside a message/rfc822 part, or null
+        Part message;
+
+        Part(long start, long bodyStart) {
+            this.start = start;
+            this.bodyStart = bodyStart;
+        }
+    }
+
+    private MimeStructure(byte[] header, SharedInputStream content, long size, long bareLineFeeds, Part root) {
+        this.header = header;
+        this.content = content;
+        this.size = size;
+        this.bareLineFeeds = bareLineFeeds;
+        this.root = root;
+    }
+
+    /**
+     * Records the structure of a message, reading its content once.
+     */
+    public static MimeStructure parse(MimeMessage message)
+            throws MessagingException, IOException {
+        byte[] header;
+        SharedInputStream content;
+        InputStream raw = null;
+        try {
+            raw = message.getRawInputStream();
+        } catch (MessagingException e) {
+            // Built through the API rather than parsed, so there is nothing to share yet
+        }
+        if (raw instanceof SharedInputStream) {
+            header = header(message);
+            content = (SharedInputStream) raw;
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            message.writeTo(out);
+            byte[] bytes = out.toByteArray();
+            int headerLength = headerLength(bytes);
+            header = new byte[headerLength];
+            System.arraycopy(bytes, 0, header, 0, headerLength);
+            content = new SharedByteArrayInputStream(bytes, headerLength, bytes.length - headerLength);
+        }
+
+        Scanner scanner = new Scanner(content.newStream(0, -1), header.length);
+        Part root = new Part(0, header.length);
+        body(scanner, root, message.getHeader("Content-Type", null),
+                message.getHeader("Content-Transfer-Encoding", null), DEFAULT_TYPE, new ArrayList<byte[]>());
+        return new MimeStructure(header, content, root.end, scanner.getBareLineFeeds(), root);
+    }
+
+    /**
+     * @return the size of the message in bytes, header included
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the size of the message in bytes with every line ending in CRLF (RFC 5322),
+     *         which is what POP3 sends and RFC822.SIZE reports
+     */
+    public long getCanonicalSize() {
+        return size + bareLineFeeds;
+    }
+
+    /**
+     * @return the size of the header in bytes, including the blank line ending it
+     */
+    public long getHeaderLength() {
+        return header.length;
+    }
+
+    /**
+     * @return the number of lines in the message body
+     */
+    public int getBodyLines() {
+        return root.lines;
+    }
+
+    /**
+     * Locates an IMAP body section (RFC 3501, section 6.4.5): "" for the whole message,
+     * HEADER, TEXT, a part number like 1.2, or a part number followed by MIME, or by
+     * HEADER or TEXT for a message/rfc822 part. HEADER.FIELDS selections are not
+     * slices of the message, and are left to the caller.
+     *
+     * @return the start and end offset of the section, or null if there is no such section
+     */
+    public long[] getSectionRange(String section) {
+        String[] names = section.length() == 0 ? new String[0] : section.toUpperCase().split("\\.");
+        Part part = root;
+        Part message = root;
+        int i = 0;
+        for (; i < names.length && isPartNumber(names[i]); i++) {
+            int number = Integer.parseInt(names[i]);
+            // Numbers select among the parts of a multipart, or step into an encapsulated message
+            Part container = i == 0 ? root : null != part.parts ? part : part.message;
+            if (null == container) {
+                return null;
+            }
+            if (null != container.parts) {
+                if (number < 1 || number > container.parts.length) {
+                    return null;
+                }
+                part = container.parts[number - 1];
+            } else if (number == 1) {
+                // The only part of a non-multipart message is its body
+                part = container;
+            } else {
+                return null;
+            }
+            message = part.message;
+        }
+
+        if (i == names.length) {
+            return i == 0 ? new long[]{0, size} : new long[]{part.bodyStart, part.end};
+        }
+        if (i != names.length - 1) {
+            return null;
+        }
+        String name = names[i];
+        if (i > 0 && "MIME".equals(name)) {
+            return new long[]{part.start, part.bodyStart};
+        }
+        if (null == message) {
+            return null;
+        }
+        if ("HEADER".equals(name)) {
+            return new long[]{message.start, message.bodyStart};
+        }
+        if ("TEXT".equals(name)) {
+            return new long[]{message.bodyStart, message.end};
+        }
+        return null;
+    }
+
+    /**
+     * Finds where a number of lines starting at an offset end, such as for POP3 TOP.
+     *
+     * @return the offset just past the last of the lines, or the message size if it has fewer lines
+     */
+    public long getLineEnd(long start, int lines)
+            throws IOException {
+        InputStream in = new BufferedInputStream(newStream(start, size), COPY_BUFFER_SIZE);
+        try {
+            long offset = start;
+            int b;
+            while (lines > 0 && (b = in.read()) != -1) {
+                offset++;
+                if (b == '\n') {
+                    lines--;
+                }
+            }
+            return lines > 0 ? size : offset;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return a stream over the given range of the message
+     */
+    public InputStream newStream(long start, long end) {
+        if (end <= header.length) {
+            return new ByteArrayInputStream(header, (int) start, (int) (end - start));
+        }
+        InputStream body = content.newStream(Math.max(0, start - header.length), end - header.length);
+        if (start >= header.length) {
+            return body;
+        }
+        return new SequenceInputStream(
+                new ByteArrayInputStream(header, (int) start, header.length - (int) start), body);
+    }
+
+    /**
+     * @return the bytes in the given range of the message
+     */
+    public byte[] read(long start, long end)
+            throws IOException {
+        byte[] bytes = new byte[(int) (end - start)];
+        InputStream in = newStream(start, end);
+        try {
+            int count = 0;
+            while (count < bytes.length) {
+                int read = in.read(bytes, count, bytes.length - count);
+                if (read == -1) {
+                    throw new IOException("Message content ended at " + (start + count) + " of " + end);
+                }
+                count += read;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static boolean isPartNumber(String name) {
+        if (name.length() == 0 || name.length() > 9) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the header as {@link MimeMessage#writeTo} writes it, blank line included
+     */
+    private static byte[] header(MimeMessage message)
+            throws MessagingException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Enumeration<?> lines = message.getAllHeaderLines();
+        while (lines.hasMoreElements()) {
+            out.write(((String) lines.nextElement()).getBytes("ISO-8859-1"));
+            out.write('\r');
+            out.write('\n');
+        }
+        out.write('\r');
+        out.write('\n');
+        return out.toByteArray();
+    }
+
+    private static int headerLength(byte[] bytes) {
+        for (int i = 3; i < bytes.length; i++) {
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Reads the body of a message or part, up to the delimiter line of an enclosing
+     * multipart (which is left unread) or the end of the content.
+     */
+    private static void body(Scanner s, Part part, String contentType, String encoding,
+                             String defaultType, List<byte[]> boundaries)
+            throws IOException, MessagingException {
+        int startLine = s.getLineCount();
+        ContentType type = contentType(contentType, defaultType);
+        // A multipart or message can only be taken apart if it isn't encoded
+        boolean identity = null == encoding || "7bit".equalsIgnoreCase(encoding.trim())
+                || "8bit".equalsIgnoreCase(encoding.trim()) || "binary".equalsIgnoreCase(encoding.trim());
+        String boundary = type.getParameter("boundary");
+
+        if (identity && type.match("multipart/*") && null != boundary && boundary.length() > 0) {
+            boundaries.add(("--" + boundary).getBytes("ISO-8859-1"));
+            int own = boundaries.size() - 1;
+            String childType = type.match("multipart/digest") ? RFC822 : DEFAULT_TYPE;
+            List<Part> parts = new ArrayList<Part>();
+            // Skip the preamble, then read parts for as long as they end with our delimiter
+            s.skipTo(boundaries);
+            while (s.isPushedBack() && s.getMatch() == own && !s.isCloseDelimiter()) {
+                s.next();
+                long start = s.getPosition();
+                InternetHeaders headers = headers(s, boundaries);
+                Part child = new Part(start, s.getPosition());
+                body(s, child, headers.getHeader("Content-Type", null),
+                        headers.getHeader("Content-Transfer-Encoding", null), childType, boundaries);
+                parts.add(child);
+            }
+            boundaries.remove(own);
+            if (s.isPushedBack() && s.getMatch() == own) {
+                // The close delimiter; skip the epilogue
+                s.next();
+                s.skipTo(boundaries);
+            }
+            part.parts = parts.toArray(new Part[parts.size()]);
+        } else if (identity && type.match(RFC822)) {
+            long start = s.getPosition();
+            InternetHeaders headers = headers(s, boundaries);
+            Part message = new Part(start, s.getPosition());
+            body(s, message, headers.getHeader("Content-Type", null),
+                    headers.getHeader("Content-Transfer-Encoding", null), DEFAULT_TYPE, boundaries);
+            part.message = message;
+        } else {
+            s.skipTo(boundaries);
+        }
+
+        // The line break before a delimiter belongs to the delimiter
+        part.end = s.isPushedBack() ? Math.max(part.bodyStart, s.getPosition() - s.getPreviousTerminatorLength())
+                : s.getPosition();
+        part.lines = s.getLineCount() - startLine;
+    }
+
+    /**
+     * Reads a MIME header, up to and including the blank line ending it.
+     */
+    private static InternetHeaders headers(Scanner s, List<byte[]> boundaries)
+            throws IOException, MessagingException {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        s.capture(captured);
+        int length = 0;
+        try {
+            while (s.next()) {
+                if (s.match(boundaries) >= 0) {
+                    s.pushBack();
+                    break;
+                }
+                length = captured.size();
+                if (s.isBlank()) {
+                    break;
+                }
+            }
+        } finally {
+            s.capture(null);
+        }
+        return new InternetHeaders(new ByteArrayInputStream(captured.toByteArray(), 0, length));
+    }
+
+    private static ContentType contentType(String value, String defaultType) {
+        if (null != value) {
+            try {
+                return new ContentType(value);
+            } catch (ParseException e) {
+                // Treated like a missing content type
+            }
+        }
+        try {
+            return new ContentType(defaultType);
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads content line by line, keeping track of offsets, and recognizes multipart
+     * delimiter lines. One line can be pushed back to be read again.
+     */
+    private static final class Scanner {
+        // delimiter lines are "--" + boundary (up to 70 chars), optionally "--" and whitespace
+        private static final int PREFIX_SIZE = 128;
+
+        private final InputStream in;
+        private long position;
+        private int lineCount;
+        private long lineStart;
+        private long lineEnd;
+        private int terminatorLength;
+        private int previousTerminatorLength;
+        private long bareLineFeeds;
+        private final byte[] prefix = new byte[PREFIX_SIZE];
+        private int prefixLength;
+        private boolean pushedBack;
+        private int match = -1;
+        private boolean closeDelimiter;
+        private ByteArrayOutputStream capture;
+
+        Scanner(InputStream in, long position) {
+            this.in = new BufferedInputStream(in, COPY_BUFFER_SIZE);
+            this.position = position;
+        }
+
+        /**
+         * @return false at the end of the content
+         */
+        boolean next() throws IOException {
+            if (pushedBack) {
+                pushedBack = false;
+                position = lineEnd;
+                lineCount++;
+                return true;
+            }
+            previousTerminatorLength = terminatorLength;
+            lineStart = position;
+            terminatorLength = 0;
+            prefixLength = 0;
+            int b;
+            int last = -1;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (null != capture) {
+                    capture.write(b);
+                }
+                if (b == '\n') {
+                    terminatorLength = last == '\r' ? 2 : 1;
+                    if (terminatorLength == 1) {
+                        bareLineFeeds++;
+                    }
+                    break;
+                }
+                if (prefixLength < PREFIX_SIZE) {
+                    prefix[prefixLength++] = (byte) b;
+                }
+                last = b;
+            }
+            lineEnd = position;
+            if (position == lineStart) {
+                return false;
+            }
+            lineCount++;
+            return true;
+        }
+
+        /**
+         * Unreads the current line, which must be the last one read.
+         */
+        void pushBack() {
+            pushedBack = true;
+            position = lineStart;
+            lineCount--;
+        }
+
+        /**
+         * Reads up to the next delimiter line of any of the boundaries, and pushes it back.
+         */
+        void skipTo(List<byte[]> boundaries) throws IOException {
+            while (next()) {
+                if (match(boundaries) >= 0) {
+                    pushBack();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the index of the boundary whose delimiter the current line is, or -1
+         */
+        int match(List<byte[]> boundaries) {
+            match = -1;
+            // the line without its LF must be all in the prefix
+            long length = lineEnd - lineStart - (terminatorLength > 0 ? 1 : 0);
+            if (prefixLength < 2 || prefix[0] != '-' || prefix[1] != '-' || length > prefixLength) {
+                return -1;
+            }
+            // Innermost first, as an inner boundary may extend an outer one
+            for (int i = boundaries.size() - 1; i >= 0; i--) {
+                byte[] boundary = boundaries.get(i);
+                if (boundary.length > prefixLength || !startsWith(boundary)) {
+                    continue;
+                }
+                int rest = boundary.length;
+                boolean close = rest + 1 < prefixLength && prefix[rest] == '-' && prefix[rest + 1] == '-';
+                if (close) {
+                    rest += 2;
+                }
+                while (rest < prefixLength && (prefix[rest] == ' ' || prefix[rest] == '\t' || prefix[rest] == '\r')) {
+                    rest++;
+                }
+                if (rest == prefixLength) {
+                    match = i;
+                    closeDelimiter = close;
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(byte[] boundary) {
+            for (int i = 0; i < boundary.length; i++) {
+                if (prefix[i] != boundary[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isBlank() {
+            return prefixLength == (terminatorLength == 2 ? 1 : 0) && terminatorLength > 0;
+        }
+
+        boolean isPushedBack() {
+            return pushedBack;
+        }
+
+        int getMatch() {
+            return match;
+        }
+
+        boolean isCloseDelimiter() {
+            return closeDelimiter;
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        int getLineCount() {
+            return lineCount;
+        }
+
+        int getPreviousTerminatorLength() {
+            return previousTerminatorLength;
+        }
+
+        long getBareLineFeeds() {
+            return bareLineFeeds;
+        }
+
+        void capture(ByteArrayOutputStream capture) {
+            this.capture = capture;
+        }
+    }
+}
@@ -86,6 +86,14 @@ public class SimpleMessageAttributes
     }
 
     void setAttributesFor(MimeMessage msg) {
+        setAttributesFor(msg, null);
+    }
+
+    /**
+     * @param structure the message's recorded structure, which gives the body size and line count
+     *                  without rendering the body, or null
+     */
+    void setAttributesFor(MimeMessage msg, MimeStructure structure) {
         try {
             internalDate = msg.getSentDate();
         } catch (MessagingException me) {
@@ -97,7 +105,7 @@ public class SimpleMessageAttributes
 
         internalDateString = new SimpleDateFormat("dd-MMM-yyyy hh:mm:ss Z").format(internalDate);
         interalDateEnvelopeString = new MailDateFormat().format(internalDate);
-        parseMimePart(msg);
+        parseMimePart(msg, structure);
     }
 
     void setUID(int thisUID) {
@@ -109,7 +117,15 @@ public class SimpleMessageAttributes
      * TODO this is a mess, and should be completely revamped.
      */
     void parseMimePart(MimePart part) {
-        size = GreenMailUtil.getBody(part).length();
+        parseMimePart(part, null);
+    }
+
+    private void parseMimePart(MimePart part, MimeStructure structure) {
+        if (null != structure) {
+            size = (int) (structure.getSize() - structure.getHeaderLength());
+        } else {
+            size = GreenMailUtil.getBody(part).length();
+        }
 
         // Section 1 - Message Headers
         if (part instanceof MimeMessage) {
@@ -197,7 +213,7 @@ public class SimpleMessageAttributes
 
         try {
             // TODO this doesn't work
-            lineCount = getLineCount(part);
+            lineCount = null != structure ? structure.getBodyLines() : getLineCount(part);
         } catch (Exception e) {
             e.printStackTrace();
 //            if (DEBUG) getLogger().debug("Exception for getLineCount(): " + e);
@@ -10,6 +10,7 @@ import javax.mail.Flags;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A mail message with all of the extra stuff that IMAP requires.
@@ -25,7 +26,13 @@ public class SimpleStoredMessage
     private Flags flags;
     private Date internalDate;
     private long uid;
+    private volatile long modSeq;
     private SimpleMessageAttributes attributes;
+    private MimeStructure structure;
+    private final long size;
+    private final int lineCount;
+    // Held by the store, and by each POP3 maildrop listing the message
+    private AtomicInteger references = new AtomicInteger(1);
 
     public SimpleStoredMessage(MimeMessage mimeMessage, Date internalDate, long uid)
             throws MessagingException {
@@ -34,10 +41,47 @@ public class SimpleStoredMessage
 
     public SimpleStoredMessage(MimeMessage mimeMessage, Flags flags,
                                Date internalDate, long uid) {
+        this(mimeMessage, flags, internalDate, uid, structureOf(mimeMessage));
+    }
+
+    /**
+     * @param structure the message's MIME structure, when it has been recorded already
+     *                  (as for a message stored for several recipients), or null
+     */
+    public SimpleStoredMessage(MimeMessage mimeMessage, Flags flags,
+                               Date internalDate, long uid, MimeStructure structure) {
         this.mimeMessage = mimeMessage;
         this.flags = flags;
         this.internalDate = internalDate;
         this.uid = uid;
+        this.structure = structure;
+        if (null != structure) {
+            size = structure.getCanonicalSize();
+            lineCount = structure.getBodyLines();
+        } else {
+            size = sizeOf(mimeMessage);
+            lineCount = 0;
+        }
+    }
+
+    /**
+     * @return the message's MIME structure, or null if the message couldn't be taken apart
+     */
+    public static MimeStructure structureOf(MimeMessage mimeMessage) {
+        try {
+            return MimeStructure.parse(mimeMessage);
+        } catch (Exception e) {
+            // Sections are then served by JavaMail
+            return null;
+        }
+    }
+
+    private static long sizeOf(MimeMessage mimeMessage) {
+        try {
+            return Math.max(0, mimeMessage.getSize());
+        } catch (MessagingException e) {
+            return 0;
+        }
     }
 
     public MimeMessage getMimeMessage() {
@@ -56,10 +100,77 @@ public class SimpleStoredMessage
         return uid;
     }
 
+    public long getSize() {
+        return size;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return this message under a new uid, sharing its content, flags and parsed attributes.
+     */
+    public SimpleStoredMessage withUid(long uid) {
+        SimpleStoredMessage message = new SimpleStoredMessage(mimeMessage, flags, internalDate, uid, structure);
+        message.attributes = attributes;
+        message.references = references;
+        return message;
+    }
+
+    /**
+     * The mod-sequence (RFC 7162) of the last change to this message's metadata.
+     */
+    public long getModSeq() {
+        return modSeq;
+    }
+
+    public void setModSeq(long modSeq) {
+        this.modSeq = modSeq;
+    }
+
+    /**
+     * @return the byte offsets of the message's header and body parts, or null if unknown
+     */
+    public MimeStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Takes a reference to the message's content for a reader that may still need it
+     * after the message has left the store, like a POP3 session's maildrop. Each
+     * reference is given back with {@link #release()}.
+     *
+     * @return false if the message has been released for good already
+     */
+    public boolean acquire() {
+        for (;;) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a reference to the message's content. The store gives back its own once
+     * the message has left it for good. When no references are left, the file holding
+     * the content of a message spooled to disk on APPEND is closed, rather than left
+     * open until the message is collected.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            SpooledInputStream.release(mimeMessage);
+        }
+    }
+
     public MailMessageAttributes getAttributes() throws FolderException {
         if (attributes == null) {
             attributes = new SimpleMessageAttributes();
-            attributes.setAttributesFor(mimeMessage);
+            attributes.setAttributesFor(mimeMessage, structure);
         }
         return attributes;
     }
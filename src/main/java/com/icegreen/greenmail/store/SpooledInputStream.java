@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.store;
+
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.SharedInputStream;
+import javax.mail.util.SharedFileInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The content of a message spooled to a file, for a MimeMessage to be parsed from.
+ * <p/>
+ * A MimeMessage only keeps hold of the sub streams it creates, and a SharedFileInputStream
+ * closes the underlying file once the stream it was opened with is collected, so the sub
+ * streams handed out here keep a reference back to it. The file stays open until the
+ * store {@link #release(MimeMessage) releases} the message, or until the message is collected.
+ */
+public class SpooledInputStream extends SharedFileInputStream {
+    public SpooledInputStream(File file) throws IOException {
+        super(file);
+    }
+
+    public InputStream newStream(long start, long end) {
+        return new SubStream(super.newStream(start, end));
+    }
+
+    /**
+     * Closes the file behind a message parsed from a SpooledInputStream. Reading the
+     * message's content fails from then on. Does nothing for any other message.
+     */
+    public static void release(MimeMessage message) {
+        try {
+            InputStream content = message.getRawInputStream();
+            if (content instanceof SubStream) {
+                ((SubStream) content).release();
+            }
+        } catch (Exception e) {
+            // No content to release
+        }
+    }
+
+    class SubStream extends FilterInputStream implements SharedInputStream {
+        SubStream(InputStream in) {
+            super(in);
+        }
+
+        public long getPosition() {
+            return ((SharedInputStream) in).getPosition();
+        }
+
+        public InputStream newStream(long start, long end) {
+            return new SubStream(((SharedInputStream) in).newStream(start, end));
+        }
+
+        void release() throws IOException {
+            SpooledInputStream.this.close();
+        }
+    }
+}
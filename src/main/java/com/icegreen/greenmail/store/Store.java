@@ -85,6 +85,17 @@ public interface Store {
     void renameMailbox(MailFolder existingFolder, String newName)
             throws FolderException;
 
+    /**
+     * Renames the mailbox and moves it, with its children, under a new parent.
+     *
+     * @param existingFolder A mailbox from this store.
+     * @param newParent      The mailbox to move it under.
+     * @param newName        The new name for the mailbox, relative to the new parent.
+     * @throws FolderException If the mailbox couldn't be renamed
+     */
+    void renameMailbox(MailFolder existingFolder, MailFolder newParent, String newName)
+            throws FolderException;
+
     /**
      * Lists all of the mailboxes in the store which have a name
      * matching the supplied search pattern.
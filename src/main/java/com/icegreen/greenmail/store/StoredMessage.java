@@ -23,5 +23,15 @@ public interface StoredMessage {
 
     long getUid();
 
+    /**
+     * @return the size of the message in octets, as recorded when it was stored
+     */
+    long getSize();
+
+    /**
+     * @return the number of lines in the message body, as recorded when it was stored
+     */
+    int getLineCount();
+
     MailMessageAttributes getAttributes() throws FolderException;
 }
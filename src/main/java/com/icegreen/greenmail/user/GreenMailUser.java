@@ -9,6 +9,8 @@ package com.icegreen.greenmail.user;
 import java.util.Date;
 
 import com.icegreen.greenmail.mail.MovingMessage;
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.MailFolder;
 
 import javax.mail.internet.MimeMessage;
 
@@ -20,6 +22,11 @@ public interface GreenMailUser {
     void deliver(MovingMessage msg) throws UserException;
     void deliver(MimeMessage msg) throws UserException;
     void deliver(MimeMessage message, Date internalDate) throws UserException;
+
+    /**
+     * @return the user's INBOX, resolved once and then held, so delivery doesn't look it up by name
+     */
+    MailFolder getInbox() throws FolderException;
     
     void create() throws UserException;
 
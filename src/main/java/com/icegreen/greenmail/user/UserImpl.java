@@ -7,6 +7,8 @@ package com.icegreen.greenmail.user;
 
 import com.icegreen.greenmail.mail.MovingMessage;
 import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.store.MailFolder;
 
 import javax.mail.internet.MimeMessage;
 import java.io.Serializable;
@@ -18,6 +20,7 @@ public class UserImpl implements GreenMailUser, Serializable {
     String login;
     String password;
     private ImapHostManager imapHostManager;
+    private transient MailFolder inbox;
 
     public UserImpl(String email, String login, String password, ImapHostManager imapHostManager) {
         this.email = email;
@@ -31,6 +34,7 @@ public class UserImpl implements GreenMailUser, Serializable {
         try {
 
             imapHostManager.createPrivateMailAccount(this);
+            inbox = imapHostManager.getInbox(this);
         } catch (Exception me) {
             throw new UserException(me);
         }
@@ -48,7 +52,7 @@ public class UserImpl implements GreenMailUser, Serializable {
     public void deliver(MovingMessage msg)
             throws UserException {
         try {
-            imapHostManager.getInbox(this).store(msg);
+            getInbox().store(msg);
         } catch (Exception me) {
             throw new UserException(me);
         }
@@ -57,7 +61,7 @@ public class UserImpl implements GreenMailUser, Serializable {
     public void deliver(MimeMessage msg)
             throws UserException {
         try {
-            imapHostManager.getInbox(this).store(msg);
+            getInbox().store(msg);
         } catch (Exception me) {
             throw new UserException(me);
         }
@@ -67,11 +71,18 @@ public class UserImpl implements GreenMailUser, Serializable {
     public void deliver(MimeMessage message, Date internalDate)
     		throws UserException {
     	try {
-            imapHostManager.getInbox(this).store(message, internalDate);
+            getInbox().store(message, internalDate);
         } catch (Exception me) {
             throw new UserException(me);
         }
     }
+
+    public MailFolder getInbox() throws FolderException {
+        if (inbox == null) {
+            inbox = imapHostManager.getInbox(this);
+        }
+        return inbox;
+    }
     
     public String getEmail() {
         return email;
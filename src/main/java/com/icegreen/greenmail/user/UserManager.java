@@ -7,13 +7,16 @@ package com.icegreen.greenmail.user;
 
 import com.icegreen.greenmail.imap.ImapHostManager;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class UserManager {
-    Map<String, GreenMailUser> _users = Collections.synchronizedMap(new HashMap<String, GreenMailUser>());
+    ConcurrentMap<String, GreenMailUser> _users = new ConcurrentHashMap<String, GreenMailUser>();
+    /**
+     * Users by trimmed, lower-cased email address.
+     */
+    ConcurrentMap<String, GreenMailUser> _usersByEmail = new ConcurrentHashMap<String, GreenMailUser>();
     private ImapHostManager imapHostManager;
 
     public UserManager(ImapHostManager imapHostManager) {
@@ -27,17 +30,30 @@ public class UserManager {
     public GreenMailUser getUserByEmail(String email) {
         GreenMailUser ret = getUser(email);
         if (null == ret) {
-            for (Iterator<GreenMailUser> it = _users.values().iterator(); it.hasNext();) {
-                GreenMailUser u = it.next();
-                if (u.getEmail().trim().equalsIgnoreCase(email.trim())) {
-                    return u;
+            ret = _usersByEmail.get(normalizeEmail(email));
+        }
+        return ret;
+    }
+
+    /**
+     * Looks up the user with the given email address, creating one with login and
+     * password equal to the address if there is none. Concurrent calls for the same
+     * new address create exactly one user and mailbox.
+     */
+    public GreenMailUser getOrCreateUserByEmail(String email) throws UserException {
+        GreenMailUser user = getUserByEmail(email);
+        if (null == user) {
+            synchronized (this) {
+                user = getUserByEmail(email);
+                if (null == user) {
+                    user = createUser(email, email, email);
                 }
             }
         }
-        return ret;
+        return user;
     }
 
-    public GreenMailUser createUser(String name, String login, String password) throws UserException {
+    public synchronized GreenMailUser createUser(String name, String login, String password) throws UserException {
         GreenMailUser user = new UserImpl(name, login, password, imapHostManager);
         user.create();
         addUser(user);
@@ -46,13 +62,20 @@ public class UserManager {
 
     private void addUser(GreenMailUser user) {
         _users.put(user.getLogin(), user);
+        _usersByEmail.put(normalizeEmail(user.getEmail()), user);
     }
 
     public void deleteUser(GreenMailUser user)
             throws UserException {
         user = _users.remove(user.getLogin());
-        if (user != null)
+        if (user != null) {
+            _usersByEmail.remove(normalizeEmail(user.getEmail()), user);
             user.delete();
+        }
+    }
+
+    private static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ENGLISH);
     }
 
     public boolean test(String userid, String password) {
@@ -6,6 +6,7 @@
 package com.icegreen.greenmail.util;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -20,6 +21,7 @@ import com.icegreen.greenmail.imap.ImapServer;
 import com.icegreen.greenmail.pop3.Pop3Server;
 import com.icegreen.greenmail.smtp.SmtpManager;
 import com.icegreen.greenmail.smtp.SmtpServer;
+import com.icegreen.greenmail.store.InMemoryStore;
 import com.icegreen.greenmail.store.SimpleStoredMessage;
 import com.icegreen.greenmail.user.GreenMailUser;
 import com.icegreen.greenmail.user.UserException;
@@ -162,7 +164,10 @@ public class GreenMail {
     /**
      * Use this method if you are sending email in a different thread from the one you're testing from.
      * Block waits for an email to arrive in any mailbox for any user.
-     * Implementation Detail: No polling wait implementation
+     * Implementation Detail: No polling wait implementation. Waits on the store's count of stored
+     * messages, so messages count whatever way they were stored: SMTP, IMAP APPEND or direct
+     * delivery. A message stored for several recipients counts once per recipient, and removed
+     * messages no longer count.
      *
      * @param timeout    maximum time in ms to wait for emailCount of messages to arrive before giving up and returning false
      * @param emailCount waits for these many emails to arrive before returning
@@ -170,23 +175,26 @@ public class GreenMail {
      * @throws InterruptedException
      */
     public boolean waitForIncomingEmail(long timeout, int emailCount) throws InterruptedException {
-        final SmtpManager.WaitObject o = managers.getSmtpManager().createAndAddNewWaitObject(emailCount);
+        final SmtpManager smtpManager = managers.getSmtpManager();
+        final SmtpManager.WaitObject o = smtpManager.createAndAddNewWaitObject(emailCount);
         if (null == o) {
             return true;
         }
 
-        synchronized (o) {
-            long t0 = System.currentTimeMillis();
-            while (!o.isArrived()) {
-                //this loop is necessary to insure correctness, see documentation on Object.wait()
-                o.wait(timeout);
-                if ((System.currentTimeMillis() - t0) > timeout) {
+        try {
+            // as before, only give up once more than the whole timeout has passed
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while (!o.await(remaining)) {
+                remaining = deadline - System.currentTimeMillis();
+                if (remaining < 0) {
                     return false;
                 }
-
             }
+            return true;
+        } finally {
+            smtpManager.removeWaitObject(o);
         }
-        return true;
     }
     /**
      * Does the same thing as {@link #wait(long, int)} but with a timeout of 5000ms
@@ -198,23 +206,64 @@ public class GreenMail {
         return waitForIncomingEmail(5000,emailCount);
     }
     /**
-     * @return Returns all messags in all folders for all users
+     * @return Returns all messages in all folders for all users
      * {@link GreenMailUtil} has a bunch of static helper methods to extract body text etc.
      */
     public MimeMessage[] getReceivedMessages() {
-        List<SimpleStoredMessage> msgs = managers.getImapHostManager().getAllMessages();
-        MimeMessage[] ret = new MimeMessage[msgs.size()];
-        for (int i = 0; i < msgs.size(); i++) {
-            SimpleStoredMessage simpleStoredMessage = msgs.get(i);
-            ret[i] = simpleStoredMessage.getMimeMessage();
-        }
-        return ret;
+        return getReceivedMessages(0, -1);
+    }
+
+    /**
+     * Pages through all messages in all folders for all users, in the order they were stored.
+     *
+     * @param offset number of messages to skip
+     * @param limit  maximum number of messages to return, or -1 for all
+     */
+    public MimeMessage[] getReceivedMessages(int offset, int limit) {
+        return toArray(InMemoryStore.findMessagesBetween(null, null, offset, limit));
+    }
+
+    /**
+     * @return the messages stored from (inclusive) to (exclusive) the given times,
+     * null leaving that side open
+     */
+    public MimeMessage[] getReceivedMessagesBetween(Date from, Date to) {
+        return toArray(InMemoryStore.findMessagesBetween(from, to, 0, -1));
+    }
+
+    /**
+     * @param email a recipient address, matched case insensitively against To, Cc and Bcc
+     */
+    public MimeMessage[] getReceivedMessagesForRecipient(String email) {
+        return toArray(InMemoryStore.findMessages(InMemoryStore.BY_RECIPIENT, email, 0, -1));
+    }
+
+    /**
+     * @param messageId the Message-ID, with or without the angle brackets
+     * @return every stored copy of the message
+     */
+    public MimeMessage[] getReceivedMessagesByMessageId(String messageId) {
+        return toArray(InMemoryStore.findMessages(InMemoryStore.BY_MESSAGE_ID, messageId, 0, -1));
     }
 
     /**
      * This method can be used as an easy 'catch-all' mechanism.
-     * @param domain returns all receved messages arrived to domain.
+     * @param domain returns all received messages arrived to domain or one of its subdomains.
      */
+    public MimeMessage[] getReceivedMessagesForDomain(String domain) {
+        return toArray(InMemoryStore.findMessages(InMemoryStore.BY_DOMAIN, domain, 0, -1));
+    }
+
+    /**
+     * Matches messages whose lower-cased recipient addresses contain <code>domain</code>
+     * anywhere, so "example" matches "user@example.com" and "example@other.org". This scans
+     * every stored message.
+     *
+     * @deprecated use {@link #getReceivedMessagesForDomain(String)}, which uses the domain
+     *             index and matches the domain and its subdomains, label by label: "example.com"
+     *             matches "user@example.com" and "user@mail.example.com", but not "user@myexample.com"
+     */
+    @Deprecated
     public MimeMessage[] getReceviedMessagesForDomain(String domain) {
         List<SimpleStoredMessage> msgs = managers.getImapHostManager().getAllMessages();
         List<MimeMessage> ret = new ArrayList<MimeMessage>();
@@ -229,7 +278,11 @@ public class GreenMail {
         } catch (MessagingException e) {
             throw new RuntimeException(e);
         }
-        return ret.toArray(new MimeMessage[0]);
+        return toArray(ret);
+    }
+
+    private static MimeMessage[] toArray(List<MimeMessage> messages) {
+        return messages.toArray(new MimeMessage[messages.size()]);
     }
     /**
      * Sets the password for the account linked to email. If no account exits, one is automatically created when an email is received
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ *
+ */
+package com.icegreen.greenmail.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte-level line framing for the line based protocols (SMTP, POP3). Bytes are never run
+ * through a charset: message data is handed over as read off the wire, and protocol lines
+ * are mapped one byte to one char (ISO-8859-1), which for the ASCII commands is a plain copy.
+ * Lines end at LF, with an optional CR before it. Input and output both go through fixed
+ * buffers that are reused for the life of the connection.
+ */
+public class LineCodec {
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Longer lines are handed out in pieces of this size, so a client can't make the
+     * line buffer grow without bound.
+     */
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final byte[] inBuffer = new byte[BUFFER_SIZE];
+    private int inPos = 0;
+    private int inLimit = 0;
+
+    private byte[] line = new byte[256];
+
+    private final byte[] outBuffer = new byte[BUFFER_SIZE];
+    private int outCount = 0;
+
+    public LineCodec(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * @return true if input is already buffered or available without blocking
+     */
+    public boolean isInputPending() throws IOException {
+        return inPos < inLimit || in.available() > 0;
+    }
+
+    /**
+     * Reads the next line into the line buffer, terminator included.
+     *
+     * @return the number of bytes in {@link #getLineBuffer()}, or -1 at end of stream.
+     *         The last line of the stream, and the leading pieces of a line longer than
+     *         {@link #MAX_LINE_LENGTH}, have no terminator.
+     */
+    public int readRawLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (inPos == inLimit && !fill()) {
+                return length == 0 ? -1 : length;
+            }
+            int start = inPos;
+            int end = start;
+            int max = Math.min(inLimit, start + MAX_LINE_LENGTH - length);
+            while (end < max && inBuffer[end] != '\n') {
+                end++;
+            }
+            boolean found = end < max;
+            if (found) {
+                end++;
+            }
+            int count = end - start;
+            if (length + count > line.length) {
+                byte[] grown = new byte[Math.min(MAX_LINE_LENGTH, Math.max(line.length * 2, length + count))];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            System.arraycopy(inBuffer, start, line, length, count);
+            length += count;
+            inPos = end;
+            if (found || length == MAX_LINE_LENGTH) {
+                return length;
+            }
+        }
+    }
+
+    /**
+     * @return the buffer holding the line last read by {@link #readRawLine()}; it is
+     *         overwritten by the next read
+     */
+    public byte[] getLineBuffer() {
+        return line;
+    }
+
+    /**
+     * Reads the next line as a String without its terminator.
+     *
+     * @return the line, or null at end of stream
+     */
+    public String readLine() throws IOException {
+        int length = readRawLine();
+        if (length < 0) {
+            return null;
+        }
+        if (length > 0 && line[length - 1] == '\n') {
+            length--;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (line[i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reads exactly length bytes, whatever they contain.
+     *
+     * @throws EOFException if the stream ends first
+     */
+    public void readFully(byte[] b, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (inPos == inLimit) {
+                // large reads go straight to the caller's array
+                if (length >= inBuffer.length) {
+                    flushIfIdle();
+                    int count = in.read(b, offset, length);
+                    if (count == -1) {
+                        throw new EOFException();
+                    }
+                    offset += count;
+                    length -= count;
+                    continue;
+                }
+                if (!fill()) {
+                    throw new EOFException();
+                }
+            }
+            int count = Math.min(length, inLimit - inPos);
+            System.arraycopy(inBuffer, inPos, b, offset, count);
+            inPos += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void flushIfIdle() throws IOException {
+        if (in.available() == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Refills the input buffer, first sending any buffered output if the read may block,
+     * so that a client waiting for replies is never left hanging.
+     */
+    private boolean fill() throws IOException {
+        flushIfIdle();
+        int count = in.read(inBuffer, 0, inBuffer.length);
+        if (count == -1) {
+            return false;
+        }
+        inPos = 0;
+        inLimit = count;
+        return true;
+    }
+
+    /**
+     * Buffers a line for sending, followed by CRLF. Chars are written as single bytes.
+     */
+    public void println(String s) throws IOException {
+        print(s);
+        write('\r');
+        write('\n');
+    }
+
+    public void print(String s) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            write(c < 256 ? c : '?');
+        }
+    }
+
+    public void write(int b) throws IOException {
+        if (outCount == outBuffer.length) {
+            drain();
+        }
+        outBuffer[outCount++] = (byte) b;
+    }
+
+    public void write(byte[] b, int offset, int length) throws IOException {
+        if (length >= outBuffer.length) {
+            drain();
+            out.write(b, offset, length);
+            return;
+        }
+        if (outCount + length > outBuffer.length) {
+            drain();
+        }
+        System.arraycopy(b, offset, outBuffer, outCount, length);
+        outCount += length;
+    }
+
+    /**
+     * Sends all buffered output.
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        if (outCount > 0) {
+            out.write(outBuffer, 0, outCount);
+            outCount = 0;
+        }
+    }
+}
@@ -47,10 +47,30 @@ public class ServerSetup {
 
     public static final ServerSetup[] ALL = new ServerSetup[]{SMTP, SMTPS, POP3, POP3S, IMAP, IMAPS};
 
+    /**
+     * The smallest limit on IMAP non-synchronizing literals, the size LITERAL- allows (RFC 7888)
+     */
+    public static final int MIN_NON_SYNC_LITERAL_SIZE = 4096;
 
     private final int port;
     private final String bindAddress;
     private final String protocol;
+    private int maxNonSyncLiteralSize = -1;
+    private long maxMessageSize = -1;
+    private int backlog = 128;
+    private boolean tcpNoDelay = false;
+    private int receiveBufferSize = -1;
+    private int sendBufferSize = -1;
+    private int idleTimeout = -1;
+    private int readTimeout = -1;
+    private int maxConnections = -1;
+    private int maxConnectionsPerAddress = -1;
+    private boolean startTls = false;
+    private String keyStore;
+    private String keyStorePassword = "changeit";
+    private String keyStoreType;
+    private int tlsSessionCacheSize = -1;
+    private int tlsSessionTimeout = -1;
 
     public ServerSetup(int port, String bindAddress, String protocol) {
         this.port = port;
@@ -73,4 +93,252 @@ public class ServerSetup {
     public int getPort() {
         return port;
     }
+
+    /**
+     * @return the largest IMAP non-synchronizing literal accepted, or -1 for no limit
+     */
+    public int getMaxNonSyncLiteralSize() {
+        return maxNonSyncLiteralSize;
+    }
+
+    /**
+     * Limits the size of IMAP non-synchronizing literals ({n+}, RFC 7888). Larger literals
+     * are rejected, and LITERAL- is advertised instead of LITERAL+.
+     *
+     * @param maxNonSyncLiteralSize the limit in bytes, or -1 for no limit. LITERAL- promises
+     *                              clients literals up to 4096 bytes, so no lower limit is allowed.
+     * @throws IllegalArgumentException if the limit is below 4096 bytes
+     */
+    public void setMaxNonSyncLiteralSize(int maxNonSyncLiteralSize) {
+        if (maxNonSyncLiteralSize != -1 && maxNonSyncLiteralSize < MIN_NON_SYNC_LITERAL_SIZE) {
+            throw new IllegalArgumentException("Non-synchronizing literals of up to "
+                    + MIN_NON_SYNC_LITERAL_SIZE + " bytes must be accepted, not " + maxNonSyncLiteralSize);
+        }
+        this.maxNonSyncLiteralSize = maxNonSyncLiteralSize;
+    }
+
+    /**
+     * @return the largest message accepted over SMTP, in bytes, or -1 for no limit
+     */
+    public long getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Limits the size of messages accepted over SMTP (RFC 1870 SIZE). The limit is advertised
+     * in the EHLO reply, checked against the size a client declares with MAIL FROM, and
+     * enforced while the message data is received.
+     *
+     * @param maxMessageSize the limit in bytes, or -1 for no limit
+     */
+    public void setMaxMessageSize(long maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * @return the length of the queue of connections waiting to be accepted
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Disables Nagle's algorithm on accepted connections, so short replies leave at once.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * @return the SO_RCVBUF size in bytes, or -1 for the system default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets SO_RCVBUF on the listening socket, which accepted connections inherit.
+     *
+     * @param receiveBufferSize the size in bytes, or -1 for the system default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * @return the SO_SNDBUF size in bytes, or -1 for the system default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * @return how long a connection may wait between commands, in ms, or -1 for the protocol's default
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets how long a client may stay silent between commands before the connection is closed.
+     * SMTP and POP3 default to 30s, IMAP to no limit.
+     *
+     * @param idleTimeout the timeout in ms, 0 for no limit or -1 for the protocol's default
+     */
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return how long a read may block once a command has started, in ms, or -1 for the protocol's default
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets how long a read may block while a command is being received, such as message data.
+     * SMTP and POP3 default to 30s, IMAP to no limit.
+     *
+     * @param readTimeout the timeout in ms, 0 for no limit or -1 for the protocol's default
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return the most connections served at once, or -1 for no limit
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Limits the connections served at once. Connections beyond the limit are refused
+     * straight away, with a 421 (SMTP), -ERR (POP3) or BYE (IMAP) greeting.
+     *
+     * @param maxConnections the limit, or -1 for no limit
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the most connections served at once from one client address, or -1 for no limit
+     */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    /**
+     * Limits the connections served at once from one client address, refusing the
+     * rest like {@link #setMaxConnections(int)}.
+     *
+     * @param maxConnectionsPerAddress the limit, or -1 for no limit
+     */
+    public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+    }
+
+    public boolean isStartTls() {
+        return startTls;
+    }
+
+    /**
+     * Offers STARTTLS (SMTP, IMAP) or STLS (POP3) on a plain port.
+     */
+    public void setStartTls(boolean startTls) {
+        this.startTls = startTls;
+    }
+
+    /**
+     * @return whether the server speaks TLS, on connect or after STARTTLS
+     */
+    public boolean isTlsEnabled() {
+        return isSecure() || startTls;
+    }
+
+    /**
+     * @return the key store file holding the server's key and certificate, or null for the built in test key
+     */
+    public String getKeyStore() {
+        return keyStore;
+    }
+
+    public void setKeyStore(String keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    /**
+     * Sets the password of the key store, which is also used for the key. Defaults to "changeit".
+     */
+    public void setKeyStorePassword(String keyStorePassword) {
+        this.keyStorePassword = keyStorePassword;
+    }
+
+    /**
+     * @return the key store type, or null for the JVM's default type
+     */
+    public String getKeyStoreType() {
+        return keyStoreType;
+    }
+
+    public void setKeyStoreType(String keyStoreType) {
+        this.keyStoreType = keyStoreType;
+    }
+
+    /**
+     * @return the number of TLS sessions kept for resumption, or -1 for the JSSE default
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * @param tlsSessionCacheSize the number of TLS sessions kept for resumption, 0 for no
+     *                            limit or -1 for the JSSE default
+     */
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+    }
+
+    /**
+     * @return how long a TLS session may be resumed, in seconds, or -1 for the JSSE default
+     */
+    public int getTlsSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * @param tlsSessionTimeout how long a TLS session may be resumed, in seconds, 0 for no
+     *                          limit or -1 for the JSSE default. This expires the sessions
+     *                          of the server's cache; whether a session restored from a
+     *                          session ticket expires is up to the JSSE provider
+     */
+    public void setTlsSessionTimeout(int tlsSessionTimeout) {
+        this.tlsSessionTimeout = tlsSessionTimeout;
+    }
+
+    /**
+     * @return the given timeout, or the default when it is -1
+     */
+    public static int timeoutOrDefault(int timeout, int defaultTimeout) {
+        return timeout < 0 ? defaultTimeout : timeout;
+    }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ *
+ */
+package com.icegreen.greenmail.util;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TLS setup of a server, shared by its implicit TLS port and STARTTLS.
+ * <p/>
+ * The key store is the one configured in the {@link ServerSetup}, or the built in
+ * test key store of {@link DummySSLServerSocketFactory}. Sessions are cached by the
+ * context, so a client reconnecting within the session timeout resumes its session
+ * instead of doing a full handshake; session tickets are used where the JSSE provider
+ * supports them.
+ * <p/>
+ * A handshake counts as resumed when it didn't choose a server key, as only a full
+ * handshake does.
+ */
+public class TlsContext {
+    private final SSLContext context;
+    private final boolean dummyKeyStore;
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    /**
+     * The connections whose handshake chose a server key. Only a full handshake does,
+     * a resumed one goes on with the key of the session it resumes.
+     */
+    private final Map<Socket, Boolean> fullHandshakes = Collections.synchronizedMap(new WeakHashMap<Socket, Boolean>());
+
+    public TlsContext(ServerSetup setup) {
+        try {
+            KeyStore ks = KeyStore.getInstance(null == setup.getKeyStoreType() ?
+                    KeyStore.getDefaultType() : setup.getKeyStoreType());
+            char[] pass = setup.getKeyStorePassword().toCharArray();
+            dummyKeyStore = null == setup.getKeyStore();
+            InputStream in = dummyKeyStore ?
+                    new ByteArrayInputStream(DummySSLServerSocketFactory.hardCodedKeystore) :
+                    new FileInputStream(setup.getKeyStore());
+            try {
+                ks.load(in, pass);
+            } finally {
+                in.close();
+            }
+            KeyManagerFactory km = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            km.init(ks, pass);
+            context = SSLContext.getInstance("TLS");
+            KeyManager[] keyManagers = km.getKeyManagers();
+            for (int i = 0; i < keyManagers.length; i++) {
+                if (keyManagers[i] instanceof X509KeyManager) {
+                    keyManagers[i] = new TrackingKeyManager((X509KeyManager) keyManagers[i]);
+                }
+            }
+            context.init(keyManagers, new TrustManager[]{new DummyTrustManager()}, null);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to set up TLS", e);
+        }
+
+        SSLSessionContext sessions = context.getServerSessionContext();
+        if (setup.getTlsSessionCacheSize() >= 0) {
+            sessions.setSessionCacheSize(setup.getTlsSessionCacheSize());
+        }
+        if (setup.getTlsSessionTimeout() >= 0) {
+            sessions.setSessionTimeout(setup.getTlsSessionTimeout());
+        }
+    }
+
+    /**
+     * @return an unbound server socket whose connections are counted in the handshake metrics
+     */
+    public ServerSocket createServerSocket() throws IOException {
+        ServerSocket socket = context.getServerSocketFactory().createServerSocket();
+        return dummyKeyStore ? DummySSLServerSocketFactory.addAnonCipher(socket) : socket;
+    }
+
+    /**
+     * Counts the handshake of a connection accepted on an implicit TLS port.
+     */
+    public void accepted(SSLSocket socket) {
+        track(socket);
+    }
+
+    /**
+     * Switches an established plain connection to TLS, as the server side, and completes
+     * the handshake. Any plain text the client sent ahead of the handshake is not part of
+     * the returned socket's input.
+     *
+     * @param socket the plain connection
+     * @return the TLS connection layered over it
+     */
+    public SSLSocket startTls(Socket socket) throws IOException {
+        SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket,
+                socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+        ssl.setUseClientMode(false);
+        track(ssl);
+        ssl.startHandshake();
+        return ssl;
+    }
+
+    private void track(SSLSocket socket) {
+        socket.addHandshakeCompletedListener(tracker);
+    }
+
+    private final HandshakeCompletedListener tracker = new HandshakeCompletedListener() {
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            handshakes.incrementAndGet();
+            if (null == fullHandshakes.remove(event.getSocket())) {
+                resumedHandshakes.incrementAndGet();
+            }
+        }
+    };
+
+    /**
+     * Notes the connections that choose a server key, which only a full handshake does.
+     */
+    private class TrackingKeyManager extends X509ExtendedKeyManager {
+        private final X509KeyManager keyManager;
+
+        TrackingKeyManager(X509KeyManager keyManager) {
+            this.keyManager = keyManager;
+        }
+
+        public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+            if (null != socket) {
+                fullHandshakes.put(socket, Boolean.TRUE);
+            }
+            return keyManager.chooseServerAlias(keyType, issuers, socket);
+        }
+
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            return keyManager.chooseServerAlias(keyType, issuers, null);
+        }
+
+        public String[] getServerAliases(String keyType, Principal[] issuers) {
+            return keyManager.getServerAliases(keyType, issuers);
+        }
+
+        public String[] getClientAliases(String keyType, Principal[] issuers) {
+            return keyManager.getClientAliases(keyType, issuers);
+        }
+
+        public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket) {
+            return keyManager.chooseClientAlias(keyTypes, issuers, socket);
+        }
+
+        public X509Certificate[] getCertificateChain(String alias) {
+            return keyManager.getCertificateChain(alias);
+        }
+
+        public PrivateKey getPrivateKey(String alias) {
+            return keyManager.getPrivateKey(alias);
+        }
+    }
+
+    /**
+     * @return the server side session cache, sized and timed out as the ServerSetup says
+     */
+    public SSLSessionContext getSessionContext() {
+        return context.getServerSessionContext();
+    }
+
+    /**
+     * @return the number of TLS handshakes completed, full or resumed
+     */
+    public long getHandshakeCount() {
+        return handshakes.get();
+    }
+
+    /**
+     * @return the number of TLS handshakes that resumed an earlier session
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+}
@@ -2,9 +2,15 @@ package com.icegreen.greenmail;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.List;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
 import org.junit.After;
 import org.junit.Test;
 
+import com.icegreen.greenmail.store.InMemoryStore;
 import com.icegreen.greenmail.util.GreenMail;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetupTest;
@@ -41,4 +47,46 @@ public class CatchAllTest {
         assertEquals(1, greenMail.getReceviedMessagesForDomain("domain2.com").length);
         assertEquals(3, greenMail.getReceviedMessagesForDomain("domain3.com").length);
     }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedDomainQueryMatchesAnywhere() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+        GreenMailUtil.sendTextEmailTest("to@mydomain1.com", "from@localhost.com", "subject", "body");
+        GreenMailUtil.sendTextEmailTest("domain1@other.org", "from@localhost.com", "subject", "body");
+        GreenMailUtil.sendTextEmailTest("to@mail.domain1.com", "from@localhost.com", "subject", "body");
+        assertEquals(3, greenMail.getReceviedMessagesForDomain("domain1").length);
+        assertEquals(2, greenMail.getReceviedMessagesForDomain("domain1.com").length);
+        assertEquals(1, greenMail.getReceivedMessagesForDomain("domain1.com").length);
+    }
+
+    @Test
+    public void testIndexedQueries() throws MessagingException {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+        GreenMailUtil.sendTextEmailTest("to1@mail.domain1.com", "from@localhost.com", "first", "body");
+        GreenMailUtil.sendTextEmailTest("To2@Domain2.com", "from@localhost.com", "second", "body");
+        GreenMailUtil.sendTextEmailTest("to1@mail.domain1.com", "from@localhost.com", "third", "body");
+
+        MimeMessage[] emails = greenMail.getReceivedMessagesForRecipient("TO1@mail.domain1.com");
+        assertEquals(2, emails.length);
+        assertEquals("first", emails[0].getSubject());
+        assertEquals("third", emails[1].getSubject());
+        assertEquals(1, greenMail.getReceivedMessagesForRecipient("to2@domain2.com").length);
+        assertEquals(2, greenMail.getReceivedMessagesForDomain("domain1.com").length);
+        assertEquals(0, greenMail.getReceivedMessagesForDomain("main1.com").length);
+
+        List<MimeMessage> domainPage = InMemoryStore.findMessages(InMemoryStore.BY_DOMAIN, "domain1.com", 1, 5);
+        assertEquals(1, domainPage.size());
+        assertEquals("third", domainPage.get(0).getSubject());
+
+        MimeMessage[] page = greenMail.getReceivedMessages(1, 1);
+        assertEquals(1, page.length);
+        assertEquals("second", page[0].getSubject());
+
+        String messageId = page[0].getMessageID();
+        assertEquals(1, greenMail.getReceivedMessagesByMessageId(messageId).length);
+        assertEquals(1, greenMail.getReceivedMessagesByMessageId(messageId.substring(1, messageId.length() - 1)).length);
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * The global and per address connection caps of {@link ServerSetup}, for each protocol.
+ */
+public class ConnectionLimitTest {
+    GreenMail greenMail;
+    List<ProtocolClient> clients = new ArrayList<ProtocolClient>();
+
+    @After
+    public void tearDown() {
+        for (ProtocolClient client : clients) {
+            client.close();
+        }
+        try {
+            greenMail.stop();
+        } catch (NullPointerException ignored) {
+            //empty
+        }
+    }
+
+    private ServerSetup start(ServerSetup template, int maxConnections, int maxPerAddress) {
+        ServerSetup setup = new ServerSetup(template.getPort(), null, template.getProtocol());
+        setup.setMaxConnections(maxConnections);
+        setup.setMaxConnectionsPerAddress(maxPerAddress);
+        greenMail = new GreenMail(setup);
+        greenMail.start();
+        return setup;
+    }
+
+    private ProtocolClient connect(ServerSetup setup) throws IOException {
+        ProtocolClient client = new ProtocolClient(setup.getPort());
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Connects and expects the refusal line, followed by the server closing the connection.
+     */
+    private void assertRefused(ServerSetup setup, String refusal) throws IOException {
+        ProtocolClient client = connect(setup);
+        assertEquals(refusal, client.readLine());
+        try {
+            client.readLine();
+            fail("Refused connection left open");
+        } catch (EOFException expected) {
+            // closed by the server
+        }
+    }
+
+    private void assertCap(ServerSetup template, String greeting, String quit, String refusal) throws Exception {
+        ServerSetup setup = start(template, 1, -1);
+        ProtocolClient first = connect(setup);
+        assertTrue(first.readLine().startsWith(greeting));
+        assertRefused(setup, refusal);
+        assertRefused(setup, refusal);
+
+        // The slot is free again once the first session has ended
+        first.send(quit);
+        first.readLine();
+        ProtocolClient next = null;
+        for (int i = 0; i < 50 && null == next; i++) {
+            ProtocolClient client = connect(setup);
+            String line = client.readLine();
+            if (line.startsWith(greeting)) {
+                next = client;
+            } else {
+                assertEquals(refusal, line);
+                Thread.sleep(20);
+            }
+        }
+        assertTrue("Connection not admitted after the first one ended", null != next);
+    }
+
+    @Test
+    public void testSmtpCap() throws Exception {
+        assertCap(ServerSetupTest.SMTP, "220 ", "QUIT", "421 Service not available, too many connections");
+    }
+
+    @Test
+    public void testPop3Cap() throws Exception {
+        assertCap(ServerSetupTest.POP3, "+OK", "QUIT", "-ERR Too many connections");
+    }
+
+    @Test
+    public void testImapCap() throws Exception {
+        assertCap(ServerSetupTest.IMAP, "* OK", "a LOGOUT", "* BYE Too many connections");
+    }
+
+    @Test
+    public void testPerAddressCap() throws Exception {
+        ServerSetup setup = start(ServerSetupTest.SMTP, -1, 2);
+        assertTrue(connect(setup).readLine().startsWith("220 "));
+        assertTrue(connect(setup).readLine().startsWith("220 "));
+        assertRefused(setup, "421 Service not available, too many connections");
+    }
+}
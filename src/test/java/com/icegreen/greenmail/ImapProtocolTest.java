@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * IMAP extensions checked at the protocol level, command by command.
+ */
+public class ImapProtocolTest {
+    private static final int PORT = ServerSetupTest.IMAP.getPort();
+
+    GreenMail greenMail;
+    ProtocolClient client;
+
+    @After
+    public void tearDown() {
+        if (null != client) {
+            client.close();
+        }
+        try {
+            greenMail.stop();
+        } catch (NullPointerException ignored) {
+            //empty
+        }
+    }
+
+    private ProtocolClient login(ServerSetup setup) throws Exception {
+        greenMail = new GreenMail(setup);
+        greenMail.setUser("test@localhost.com", "test", "test");
+        greenMail.start();
+        client = new ProtocolClient(PORT);
+        client.readLine();
+        assertOk(client.imap("a", "LOGIN test test"));
+        return client;
+    }
+
+    private void append(String mailbox, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            String message = "Subject: message " + i + "\r\n\r\nbody " + i + "\r\n";
+            client.write("ap APPEND " + mailbox + " {" + message.length() + "+}\r\n" + message + "\r\n");
+            assertOk(client.readUntil("ap "));
+        }
+    }
+
+    /**
+     * @return the mod-sequence in a FETCH response line
+     */
+    private static long modSeq(String fetch) {
+        int start = fetch.indexOf("MODSEQ (") + "MODSEQ (".length();
+        return Long.parseLong(fetch.substring(start, fetch.indexOf(')', start)));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the number of APPEND spool files this process has open, or -1 if
+     *         the platform doesn't list open files under /proc
+     */
+    private static int openSpoolFiles() throws IOException {
+        File[] fds = new File("/proc/self/fd").listFiles();
+        if (null == fds) {
+            return -1;
+        }
+        int count = 0;
+        for (File fd : fds) {
+            try {
+                if (Files.readSymbolicLink(fd.toPath()).toString().contains("greenmail-append")) {
+                    count++;
+                }
+            } catch (IOException e) {
+                // closed while listing
+            }
+        }
+        return count;
+    }
+
+    private static String spoolSizedMessage(String subject) {
+        StringBuilder builder = new StringBuilder("Subject: " + subject + "\r\n\r\n");
+        for (int i = 0; builder.length() <= 300 * 1024; i++) {
+            builder.append("line ").append(i).append("\r\n");
+        }
+        return builder.toString();
+    }
+
+    private static String last(List<String> lines) {
+        return lines.get(lines.size() - 1);
+    }
+
+    private static void assertOk(List<String> lines) {
+        assertTrue(lines.toString(), last(lines).split(" ")[1].equals("OK"));
+    }
+
+    @Test
+    public void testCompressAfterStartTls() throws Exception {
+        ServerSetup setup = new ServerSetup(PORT, null, ServerSetup.PROTOCOL_IMAP);
+        setup.setStartTls(true);
+        setup.setKeyStore(ProtocolClient.createKeyStore().getPath());
+        setup.setKeyStoreType("PKCS12");
+        greenMail = new GreenMail(setup);
+        greenMail.setUser("test@localhost.com", "test", "test");
+        greenMail.start();
+
+        client = new ProtocolClient(PORT);
+        client.readLine();
+        assertOk(client.imap("a", "STARTTLS"));
+        client.startTls();
+        assertOk(client.imap("b", "LOGIN test test"));
+        assertOk(client.imap("c", "COMPRESS DEFLATE"));
+        client.startCompression();
+
+        List<String> lines = client.imap("d", "SELECT INBOX");
+        assertOk(lines);
+        assertTrue(lines.contains("* 0 EXISTS"));
+        assertOk(client.imap("e", "NOOP"));
+        assertEquals("* BYE IMAP4rev1 Server logging out", client.imap("f", "LOGOUT").get(0));
+    }
+
+    @Test
+    public void testCompress() throws Exception {
+        login(ServerSetupTest.IMAP);
+        List<String> lines = client.imap("b", "CAPABILITY");
+        assertTrue(lines.get(0), Arrays.asList(lines.get(0).split(" ")).contains("COMPRESS=DEFLATE"));
+        append("INBOX", 20);
+        assertOk(client.imap("c", "COMPRESS DEFLATE"));
+        client.startCompression();
+
+        assertOk(client.imap("d", "SELECT INBOX"));
+        lines = client.imap("e", "FETCH 1:20 (BODY[HEADER.FIELDS (SUBJECT)])");
+        assertOk(lines);
+        assertTrue(lines.contains("Subject: message 19"));
+        List<String> failed = client.imap("f", "COMPRESS DEFLATE");
+        assertTrue(last(failed), last(failed).startsWith("f NO [COMPRESSIONACTIVE]"));
+        assertEquals("* BYE IMAP4rev1 Server logging out", client.imap("g", "LOGOUT").get(0));
+    }
+
+    @Test
+    public void testMultiAppend() throws Exception {
+        login(ServerSetupTest.IMAP);
+        String uidValidity = null;
+        for (String line : client.imap("b", "SELECT INBOX")) {
+            if (line.startsWith("* OK [UIDVALIDITY ")) {
+                uidValidity = line.substring("* OK [UIDVALIDITY ".length(), line.indexOf(']'));
+            }
+        }
+        ProtocolClient appender = new ProtocolClient(PORT);
+        try {
+            appender.readLine();
+            assertOk(appender.imap("a", "LOGIN test test"));
+            String first = "Subject: first\r\n\r\nbody\r\n";
+            String second = "Subject: second\r\n\r\nbody\r\n";
+            appender.write("b APPEND INBOX (\\Seen) {" + first.length() + "+}\r\n" + first
+                    + " {" + second.length() + "+}\r\n" + second + "\r\n");
+            List<String> lines = appender.readUntil("b ");
+            assertEquals("b OK [APPENDUID " + uidValidity + " 1:2] APPEND completed.", last(lines));
+        } finally {
+            appender.close();
+        }
+
+        // Announced to the other session as one change
+        List<String> lines = client.imap("d", "NOOP");
+        assertOk(lines);
+        assertEquals(Arrays.asList("* 2 EXISTS", "* 2 RECENT"), lines.subList(0, 2));
+        lines = client.imap("e", "FETCH 1:2 (FLAGS BODY[HEADER.FIELDS (SUBJECT)])");
+        assertTrue(lines.get(0), lines.get(0).contains("\\Seen"));
+        assertTrue(lines.contains("Subject: second"));
+    }
+
+    @Test
+    public void testMultiAppendToMissingMailbox() throws Exception {
+        login(ServerSetupTest.IMAP);
+        int spoolFiles = openSpoolFiles();
+        Assume.assumeTrue(spoolFiles >= 0);
+        String large = spoolSizedMessage("large");
+        String small = "Subject: small\r\n\r\nbody\r\n";
+        client.write("b APPEND missing {" + large.length() + "+}\r\n" + large
+                + " {" + small.length() + "+}\r\n" + small + "\r\n");
+        List<String> lines = client.readUntil("b ");
+        assertTrue(last(lines), last(lines).startsWith("b NO [TRYCREATE]"));
+        // The spool file of the refused message is closed, not left for the collector
+        assertEquals(spoolFiles, openSpoolFiles());
+        assertEquals(0, greenMail.getReceivedMessages().length);
+        assertOk(client.imap("c", "NOOP"));
+    }
+
+    @Test
+    public void testSpooledAppend() throws Exception {
+        login(ServerSetupTest.IMAP);
+        String message = spoolSizedMessage("large");
+        client.write("b APPEND INBOX {" + message.length() + "}\r\n");
+        assertTrue(client.readLine().startsWith("+"));
+        client.write(message + "\r\n");
+        assertOk(client.readUntil("b "));
+
+        assertOk(client.imap("c", "SELECT INBOX"));
+        client.send("d FETCH 1 (BODY.PEEK[])");
+        assertEquals("* 1 FETCH (BODY[] {" + message.length() + "}", client.readLine());
+        assertEquals(message, new String(client.readBytes(message.length()), "ISO-8859-1"));
+        assertOk(client.readUntil("d "));
+
+        MimeMessage stored = greenMail.getReceivedMessages()[0];
+        assertEquals("large", stored.getSubject());
+        InputStream content = stored.getRawInputStream();
+        content.read();
+
+        // Expunging the message closes its spool file
+        assertOk(client.imap("e", "STORE 1 +FLAGS.SILENT (\\Deleted)"));
+        assertOk(client.imap("f", "EXPUNGE"));
+        try {
+            byte[] buffer = new byte[8192];
+            while (content.read(buffer) != -1) {
+                // past what was buffered before
+            }
+            fail("Spool file still open");
+        } catch (IOException expected) {
+            // closed
+        }
+    }
+
+    @Test
+    public void testExpungedMessageStaysReadableForPop3() throws Exception {
+        greenMail = new GreenMail(new ServerSetup[]{ServerSetupTest.IMAP, ServerSetupTest.POP3});
+        greenMail.setUser("test@localhost.com", "test", "test");
+        greenMail.start();
+        client = new ProtocolClient(PORT);
+        client.readLine();
+        assertOk(client.imap("a", "LOGIN test test"));
+        int spoolFiles = openSpoolFiles();
+        String message = spoolSizedMessage("large");
+        client.write("b APPEND INBOX {" + message.length() + "+}\r\n" + message + "\r\n");
+        assertOk(client.readUntil("b "));
+
+        ProtocolClient pop3 = new ProtocolClient(ServerSetupTest.POP3.getPort());
+        try {
+            pop3.readLine();
+            pop3.send("USER test");
+            assertTrue(pop3.readLine().startsWith("+OK"));
+            pop3.send("PASS test");
+            assertTrue(pop3.readLine().startsWith("+OK"));
+
+            // Another client expunges the message while the POP3 session lists it
+            assertOk(client.imap("c", "SELECT INBOX"));
+            assertOk(client.imap("d", "STORE 1 +FLAGS.SILENT (\\Deleted)"));
+            assertOk(client.imap("e", "EXPUNGE"));
+            assertEquals(0, greenMail.getReceivedMessages().length);
+
+            pop3.send("RETR 1");
+            assertTrue(pop3.readLine().startsWith("+OK"));
+            StringBuilder retrieved = new StringBuilder();
+            for (String line = pop3.readLine(); !line.equals("."); line = pop3.readLine()) {
+                retrieved.append(line).append("\r\n");
+            }
+            assertEquals(message, retrieved.toString());
+            pop3.send("TOP 1 2");
+            List<String> top = pop3.readUntil(".");
+            assertEquals(Arrays.asList("+OK", "Subject: large", "", "line 0", "line 1", "."), top);
+            if (spoolFiles >= 0) {
+                assertEquals(spoolFiles + 1, openSpoolFiles());
+            }
+            pop3.send("QUIT");
+            assertTrue(pop3.readLine().startsWith("+OK"));
+        } finally {
+            pop3.close();
+        }
+
+        // Closed once the POP3 session has ended
+        if (spoolFiles >= 0) {
+            for (int i = 0; i < 100 && openSpoolFiles() != spoolFiles; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(spoolFiles, openSpoolFiles());
+        }
+    }
+
+    @Test
+    public void testSynchronizingLiteral() throws Exception {
+        login(ServerSetupTest.IMAP);
+        String message = "Subject: sync\r\n\r\nbody\r\n";
+        client.send("b APPEND INBOX {" + message.length() + "}");
+        assertTrue(client.readLine().startsWith("+"));
+        client.send(message);
+        assertOk(client.readUntil("b "));
+        assertTrue(client.imap("c", "STATUS INBOX (MESSAGES)").contains("* STATUS INBOX (MESSAGES 1)"));
+    }
+
+    @Test
+    public void testNonSynchronizingLiteralLimit() throws Exception {
+        ServerSetup setup = new ServerSetup(PORT, null, ServerSetup.PROTOCOL_IMAP);
+        setup.setMaxNonSyncLiteralSize(ServerSetup.MIN_NON_SYNC_LITERAL_SIZE);
+        login(setup);
+        String capability = client.imap("b", "CAPABILITY").get(0);
+        assertTrue(capability, capability.contains(" LITERAL- "));
+        assertFalse(capability, capability.contains("LITERAL+"));
+
+        String header = "Subject: large\r\n\r\n";
+        String fits = header + repeat('x', 4096 - header.length() - 2) + "\r\n";
+        client.write("c APPEND INBOX {" + fits.length() + "+}\r\n" + fits + "\r\n");
+        assertOk(client.readUntil("c "));
+
+        // The second of three messages is too large: the command fails as a whole,
+        // and the third message is read off as part of it, not taken for a command
+        String small = "Subject: small\r\n\r\nbody\r\n";
+        String large = header + repeat('x', 5000) + "\r\n";
+        client.write("d APPEND INBOX {" + small.length() + "+}\r\n" + small
+                + " {" + large.length() + "+}\r\n" + large
+                + " {" + small.length() + "+}\r\n" + small + "\r\n");
+        assertEquals(1, client.readUntil("d ").size());
+        List<String> lines = client.imap("e", "NOOP");
+        assertOk(lines);
+        assertEquals(1, lines.size());
+        assertTrue(client.imap("f", "STATUS INBOX (MESSAGES)").contains("* STATUS INBOX (MESSAGES 1)"));
+    }
+
+    @Test
+    public void testNonSynchronizingLiteralLimitBelowLiteralMinus() {
+        ServerSetup setup = new ServerSetup(PORT, null, ServerSetup.PROTOCOL_IMAP);
+        try {
+            setup.setMaxNonSyncLiteralSize(ServerSetup.MIN_NON_SYNC_LITERAL_SIZE - 1);
+            fail("LITERAL- requires a limit of at least 4096 bytes");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertEquals(-1, setup.getMaxNonSyncLiteralSize());
+    }
+
+    @Test
+    public void testListReturnStatus() throws Exception {
+        login(ServerSetupTest.IMAP);
+        assertOk(client.imap("b", "CREATE Archive"));
+        append("INBOX", 2);
+        List<String> lines = client.imap("c", "LIST \"\" \"*\" RETURN (STATUS (MESSAGES UIDNEXT))");
+        assertOk(lines);
+        assertTrue(lines.toString(), lines.contains("* STATUS INBOX (MESSAGES 2 UIDNEXT 3)"));
+        assertTrue(lines.toString(), lines.contains("* STATUS Archive (MESSAGES 0 UIDNEXT 1)"));
+        assertEquals("* STATUS INBOX (MESSAGES 2 UIDNEXT 3)", lines.get(lines.indexOf("* LIST () \".\" INBOX") + 1));
+    }
+
+    @Test
+    public void testMoveReportsCopyUid() throws Exception {
+        login(ServerSetupTest.IMAP);
+        assertOk(client.imap("b", "CREATE Trash"));
+        append("INBOX", 4);
+        assertOk(client.imap("c", "SELECT INBOX"));
+        String validity = client.imap("d", "STATUS Trash (UIDVALIDITY)").get(0);
+        validity = validity.substring(validity.indexOf("UIDVALIDITY ") + "UIDVALIDITY ".length(), validity.indexOf(')'));
+
+        List<String> lines = client.imap("e", "UID MOVE 2,4,9 Trash");
+        assertOk(lines);
+        assertEquals("* OK [COPYUID " + validity + " 2,4 1:2]", lines.get(0));
+        assertTrue(lines.toString(), lines.contains("* 4 EXPUNGE"));
+        assertTrue(lines.toString(), lines.contains("* 2 EXPUNGE"));
+
+        lines = client.imap("f", "MOVE 1 Trash");
+        assertEquals("* OK [COPYUID " + validity + " 1 3]", lines.get(0));
+        assertTrue(client.imap("g", "STATUS Trash (MESSAGES)").contains("* STATUS Trash (MESSAGES 3)"));
+    }
+
+    @Test
+    public void testSubscriptionsFollowRenameAndDelete() throws Exception {
+        login(ServerSetupTest.IMAP);
+        assertOk(client.imap("b", "CREATE Projects.Active"));
+        assertOk(client.imap("c", "CREATE Notes"));
+        assertOk(client.imap("d", "SUBSCRIBE Projects.Active"));
+        assertOk(client.imap("e", "SUBSCRIBE Notes"));
+        List<String> lines = client.imap("f", "LSUB \"\" \"*\"");
+        assertOk(lines);
+        assertEquals(3, lines.size());
+        assertTrue(lines.toString(), lines.contains("* LSUB () \".\" Projects.Active"));
+        assertTrue(lines.toString(), lines.contains("* LSUB () \".\" Notes"));
+
+        // A subscription follows its mailbox, and a mailbox whose parent is renamed
+        assertOk(client.imap("g", "RENAME Notes Memo"));
+        assertOk(client.imap("h", "RENAME Projects Archive"));
+        lines = client.imap("i", "LSUB \"\" \"*\"");
+        assertEquals(3, lines.size());
+        assertTrue(lines.toString(), lines.contains("* LSUB () \".\" Archive.Active"));
+        assertTrue(lines.toString(), lines.contains("* LSUB () \".\" Memo"));
+
+        // Deleting drops it, so a new mailbox of the same name isn't subscribed
+        assertOk(client.imap("j", "DELETE Memo"));
+        assertOk(client.imap("k", "CREATE Memo"));
+        lines = client.imap("l", "LSUB \"\" \"*\"");
+        assertEquals(2, lines.size());
+        assertEquals("* LSUB () \".\" Archive.Active", lines.get(0));
+    }
+
+    @Test
+    public void testRenameIntoItselfLeavesNoParents() throws Exception {
+        login(ServerSetupTest.IMAP);
+        assertOk(client.imap("b", "CREATE Projects"));
+        List<String> lines = client.imap("c", "RENAME Projects Projects.Old.Done");
+        assertTrue(lines.toString(), last(lines).startsWith("c NO "));
+        lines = client.imap("d", "LIST \"\" \"Projects*\"");
+        assertEquals(2, lines.size());
+        assertEquals("* LIST () \".\" Projects", lines.get(0));
+
+        assertOk(client.imap("e", "RENAME Projects Archive.Projects"));
+        lines = client.imap("f", "LIST \"\" \"Archive*\"");
+        assertTrue(lines.toString(), lines.contains("* LIST () \".\" Archive.Projects"));
+    }
+
+    @Test
+    public void testCondStoreFetchAndStore() throws Exception {
+        login(ServerSetupTest.IMAP);
+        append("INBOX", 3);
+        List<String> lines = client.imap("b", "SELECT INBOX (CONDSTORE)");
+        assertOk(lines);
+        String highest = null;
+        for (String line : lines) {
+            if (line.startsWith("* OK [HIGHESTMODSEQ ")) {
+                highest = line.substring("* OK [HIGHESTMODSEQ ".length(), line.indexOf(']'));
+            }
+        }
+        long highestModSeq = Long.parseLong(highest);
+
+        lines = client.imap("c", "FETCH 1:3 (FLAGS MODSEQ)");
+        assertOk(lines);
+        assertEquals(4, lines.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(lines.get(i), lines.get(i).startsWith("* " + (i + 1) + " FETCH ("));
+            assertTrue(lines.get(i), modSeq(lines.get(i)) <= highestModSeq);
+        }
+
+        // A change gets a mod-sequence above all earlier ones, shown even for .SILENT
+        lines = client.imap("d", "STORE 2 +FLAGS.SILENT (\\Seen)");
+        assertOk(lines);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("* 2 FETCH (FLAGS (\\Seen) "));
+        long changed = modSeq(lines.get(0));
+        assertTrue(changed > highestModSeq);
+
+        lines = client.imap("e", "FETCH 1:* (FLAGS) (CHANGEDSINCE " + highestModSeq + ")");
+        assertOk(lines);
+        assertEquals(2, lines.size());
+        assertEquals("* 2 FETCH (FLAGS (\\Seen) MODSEQ (" + changed + "))", lines.get(0));
+
+        lines = client.imap("f", "SEARCH MODSEQ " + changed);
+        assertEquals("* SEARCH 2 (MODSEQ " + changed + ")", lines.get(0));
+        lines = client.imap("g", "UID SEARCH MODSEQ \"/flags/\\\\seen\" all " + (changed + 1));
+        assertEquals("* SEARCH", lines.get(0).trim());
+
+        // Message 2 changed since highestModSeq, so only 1 and 3 are flagged
+        lines = client.imap("h", "STORE 1:3 (UNCHANGEDSINCE " + highestModSeq + ") +FLAGS (\\Flagged)");
+        assertEquals("h OK [MODIFIED 2] STORE completed.", last(lines));
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("* 1 FETCH (FLAGS (\\Flagged) MODSEQ ("));
+        assertTrue(lines.get(1), lines.get(1).startsWith("* 3 FETCH (FLAGS (\\Flagged) MODSEQ ("));
+        assertTrue(modSeq(lines.get(0)) > changed);
+
+        lines = client.imap("i", "UID STORE 1:3 (UNCHANGEDSINCE 0) -FLAGS (\\Flagged)");
+        assertEquals("i OK [MODIFIED 1:3] STORE completed.", last(lines));
+        lines = client.imap("j", "FETCH 1:3 (FLAGS)");
+        assertTrue(lines.get(0), lines.get(0).startsWith("* 1 FETCH (FLAGS (\\Flagged) "));
+    }
+
+    @Test
+    public void testExpungeAndMoveSendVanishedAfterQresync() throws Exception {
+        login(ServerSetupTest.IMAP);
+        assertOk(client.imap("b", "CREATE Trash"));
+        append("INBOX", 4);
+        assertOk(client.imap("c", "ENABLE QRESYNC"));
+        assertOk(client.imap("d", "SELECT INBOX"));
+
+        assertOk(client.imap("e", "STORE 2:3 +FLAGS.SILENT (\\Deleted)"));
+        List<String> lines = client.imap("f", "EXPUNGE");
+        assertOk(lines);
+        assertTrue(lines.toString(), lines.contains("* VANISHED 2:3"));
+        for (String line : lines) {
+            assertFalse(line, line.endsWith("EXPUNGE"));
+        }
+
+        lines = client.imap("g", "MOVE 2 Trash");
+        assertOk(lines);
+        assertTrue(lines.toString(), lines.contains("* VANISHED 4"));
+        for (String line : lines) {
+            assertFalse(line, line.endsWith("EXPUNGE"));
+        }
+
+        lines = client.imap("h", "UID FETCH 1:* (FLAGS) (CHANGEDSINCE 1 VANISHED)");
+        assertOk(lines);
+        assertEquals("* VANISHED (EARLIER) 2:4", lines.get(0));
+    }
+
+    @Test
+    public void testExpungeWithoutQresync() throws Exception {
+        login(ServerSetupTest.IMAP);
+        append("INBOX", 2);
+        assertOk(client.imap("b", "SELECT INBOX"));
+        assertOk(client.imap("c", "STORE 1 +FLAGS.SILENT (\\Deleted)"));
+        List<String> lines = client.imap("d", "EXPUNGE");
+        assertOk(lines);
+        assertEquals("* 1 EXPUNGE", lines.get(0));
+    }
+
+    @Test
+    public void testSizeSearchAndStatus() throws Exception {
+        login(ServerSetupTest.IMAP);
+        String[] messages = {"Subject: small\r\n\r\nx\r\n",
+                "Subject: medium\r\n\r\n" + repeat('m', 100) + "\r\n",
+                "Subject: large\r\n\r\n" + repeat('l', 1000) + "\r\n"};
+        int total = 0;
+        for (String message : messages) {
+            client.write("ap APPEND INBOX {" + message.length() + "+}\r\n" + message + "\r\n");
+            assertOk(client.readUntil("ap "));
+            total += message.length();
+        }
+        assertEquals("* STATUS INBOX (SIZE " + total + ")", client.imap("b", "STATUS INBOX (SIZE)").get(0));
+
+        assertOk(client.imap("c", "SELECT INBOX"));
+        List<String> lines = client.imap("d", "FETCH 1:3 (RFC822.SIZE)");
+        assertOk(lines);
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals("* " + (i + 1) + " FETCH (RFC822.SIZE " + messages[i].length() + ")", lines.get(i));
+        }
+        int medium = messages[1].length();
+        assertEquals("* SEARCH 3", client.imap("e", "SEARCH LARGER " + medium).get(0).trim());
+        assertEquals("* SEARCH 2 3", client.imap("f", "SEARCH LARGER " + (medium - 1)).get(0).trim());
+        assertEquals("* SEARCH 1", client.imap("g", "SEARCH SMALLER " + medium).get(0).trim());
+        assertEquals("* SEARCH 1 2", client.imap("h", "SEARCH SMALLER " + (medium + 1)).get(0).trim());
+        assertEquals("* SEARCH", client.imap("i", "SEARCH LARGER 5000").get(0).trim());
+
+        // The running total follows expunges
+        assertOk(client.imap("j", "STORE 3 +FLAGS.SILENT (\\Deleted)"));
+        assertOk(client.imap("k", "EXPUNGE"));
+        total -= messages[2].length();
+        assertEquals("* STATUS INBOX (SIZE " + total + ")", client.imap("l", "STATUS INBOX (SIZE)").get(0));
+    }
+}
@@ -9,9 +9,17 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
 
 import javax.mail.BodyPart;
+import javax.mail.Folder;
 import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.Store;
+import javax.mail.UIDFolder;
 import javax.mail.internet.MimeMultipart;
 
 import org.junit.After;
@@ -139,4 +147,44 @@ public class ImapServerTest {
         }
         retriever.logout();
     }
+
+    @Test
+    public void testUidValidityIsAssigned() throws Exception {
+        greenMail = new GreenMail(ServerSetupTest.SMTP_IMAP);
+        greenMail.start();
+        final String to = "test@localhost.com";
+        GreenMailUtil.sendTextEmailTest(to, "from@localhost.com", GreenMailUtil.random(), GreenMailUtil.random());
+        greenMail.waitForIncomingEmail(5000, 1);
+
+        Retriever retriever = new Retriever(greenMail.getImap());
+        Message[] messages = retriever.getMessages(to);
+        UIDFolder inbox = (UIDFolder) messages[0].getFolder();
+        assertTrue(inbox.getUIDValidity() > 0);
+        retriever.logout();
+    }
+
+    @Test
+    public void testListWildcardsInAnyPosition() throws Exception {
+        greenMail = new GreenMail(ServerSetupTest.IMAP);
+        greenMail.setUser("test@localhost.com", "test", "test");
+        greenMail.start();
+
+        Store store = Session.getInstance(new Properties()).getStore("imap");
+        store.connect("localhost", ServerSetupTest.IMAP.getPort(), "test", "test");
+        try {
+            Folder root = store.getDefaultFolder();
+            root.getFolder("x.Archive.2020").create(Folder.HOLDS_MESSAGES);
+            root.getFolder("y.Archive.2021").create(Folder.HOLDS_MESSAGES);
+            root.getFolder("y.Other.Archive").create(Folder.HOLDS_MESSAGES);
+
+            Folder[] folders = root.list("*.Archive.%");
+            Set<String> names = new HashSet<String>();
+            for (Folder folder : folders) {
+                names.add(folder.getFullName());
+            }
+            assertEquals(new HashSet<String>(Arrays.asList("x.Archive.2020", "y.Archive.2021")), names);
+        } finally {
+            store.close();
+        }
+    }
 }
@@ -9,14 +9,21 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.mail.BodyPart;
+import javax.mail.Flags;
 import javax.mail.Message;
+import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 
 import org.junit.After;
 import org.junit.Test;
 
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.user.GreenMailUser;
 import com.icegreen.greenmail.util.GreenMail;
 import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.Retriever;
@@ -31,9 +38,14 @@ import com.icegreen.greenmail.util.ServerSetupTest;
 public class Pop3ServerTest {
 
     GreenMail greenMail;
+    GreenMailUser user;
+    List<ProtocolClient> clients = new ArrayList<ProtocolClient>();
 
     @After
     public void tearDown() {
+        for (ProtocolClient client : clients) {
+            client.close();
+        }
         try {
             greenMail.stop();
         } catch (NullPointerException ignored) {
@@ -139,4 +151,142 @@ public class Pop3ServerTest {
             assertEquals(i, gif[i]);
         }
     }
+
+    private void deliver(String... subjects) throws Exception {
+        for (String subject : subjects) {
+            user.deliver(GreenMailUtil.newMimeMessage("Subject: " + subject + "\r\n\r\nbody of " + subject + "\r\n"));
+        }
+    }
+
+    private ProtocolClient login() throws Exception {
+        ProtocolClient client = new ProtocolClient(ServerSetupTest.POP3.getPort());
+        clients.add(client);
+        assertTrue(client.readLine().startsWith("+OK"));
+        client.send("USER test");
+        assertTrue(client.readLine().startsWith("+OK"));
+        client.send("PASS test");
+        assertTrue(client.readLine().startsWith("+OK"));
+        return client;
+    }
+
+    private static String command(ProtocolClient client, String command) throws Exception {
+        client.send(command);
+        return client.readLine();
+    }
+
+    /**
+     * Reads a multi-line response up to the terminating ".", undoing the dot-stuffing.
+     */
+    private static List<String> readMultiLine(ProtocolClient client) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (String line = client.readLine(); !line.equals("."); line = client.readLine()) {
+            lines.add(line.startsWith(".") ? line.substring(1) : line);
+        }
+        return lines;
+    }
+
+    private static String subject(ProtocolClient client, int msn) throws Exception {
+        assertTrue(command(client, "RETR " + msn).startsWith("+OK"));
+        String subject = null;
+        for (String line : readMultiLine(client)) {
+            if (line.startsWith("Subject: ")) {
+                subject = line.substring("Subject: ".length());
+            }
+        }
+        return subject;
+    }
+
+    private void startPop3() {
+        greenMail = new GreenMail(ServerSetupTest.POP3);
+        user = greenMail.setUser("test@localhost.com", "test", "test");
+        greenMail.start();
+    }
+
+    @Test
+    public void testNumberingIsFixedForTheSession() throws Exception {
+        startPop3();
+        deliver("one", "two", "three");
+        ProtocolClient client = login();
+        List<String> uidl = new ArrayList<String>();
+        assertTrue(command(client, "UIDL").startsWith("+OK"));
+        uidl.addAll(readMultiLine(client));
+
+        // Another client removes the first message and a new one arrives
+        MailFolder inbox = user.getInbox();
+        inbox.setFlags(new Flags(Flags.Flag.DELETED), true, inbox.getMessageUids()[0], null, false);
+        InMemoryStore.expunge(inbox);
+        deliver("four");
+
+        assertEquals(3, inbox.getMessageCount());
+        assertTrue(command(client, "STAT").startsWith("+OK 3 "));
+        assertTrue(command(client, "UIDL").startsWith("+OK"));
+        assertEquals(uidl, readMultiLine(client));
+        assertEquals("two", subject(client, 2));
+        assertEquals("three", subject(client, 3));
+        assertTrue(command(client, "RETR 4").startsWith("-ERR"));
+    }
+
+    @Test
+    public void testQuitRemovesExactlyTheMarkedMessages() throws Exception {
+        startPop3();
+        deliver("one", "two", "three", "four");
+        ProtocolClient client = login();
+        assertTrue(command(client, "DELE 2").startsWith("+OK"));
+        assertTrue(command(client, "DELE 2").startsWith("-ERR"));
+        assertTrue(command(client, "RETR 2").startsWith("-ERR"));
+        assertTrue(command(client, "STAT").startsWith("+OK 3 "));
+        assertTrue(command(client, "RSET").startsWith("+OK"));
+        assertTrue(command(client, "STAT").startsWith("+OK 4 "));
+        assertTrue(command(client, "DELE 1").startsWith("+OK"));
+        assertTrue(command(client, "DELE 3").startsWith("+OK"));
+        // Delivered during the session, so not in its maildrop and not removed
+        deliver("five");
+        assertTrue(command(client, "QUIT").startsWith("+OK"));
+
+        client = login();
+        assertTrue(command(client, "STAT").startsWith("+OK 3 "));
+        assertEquals("two", subject(client, 1));
+        assertEquals("four", subject(client, 2));
+        assertEquals("five", subject(client, 3));
+    }
+
+    @Test
+    public void testDroppedConnectionDeletesNothing() throws Exception {
+        startPop3();
+        deliver("one", "two");
+        ProtocolClient client = login();
+        assertTrue(command(client, "DELE 1").startsWith("+OK"));
+        assertTrue(command(client, "DELE 2").startsWith("+OK"));
+        client.close();
+
+        client = login();
+        assertTrue(command(client, "STAT").startsWith("+OK 2 "));
+        assertEquals("one", subject(client, 1));
+        assertEquals(2, user.getInbox().getMessageCount());
+    }
+
+    @Test
+    public void testSizesMatchWhatRetrSends() throws Exception {
+        startPop3();
+        user.deliver(GreenMailUtil.newMimeMessage("Subject: crlf\r\n\r\n.dot\r\nline\r\n"));
+        // Bare LFs go out as CRLF, and count as two bytes
+        user.deliver(GreenMailUtil.newMimeMessage("Subject: lf\n\n.dot\nline\nlast\n"));
+        ProtocolClient client = login();
+
+        long total = 0;
+        for (int msn = 1; msn <= 2; msn++) {
+            String list = command(client, "LIST " + msn);
+            long size = Long.parseLong(list.split(" ")[2]);
+            assertTrue(command(client, "RETR " + msn).startsWith("+OK"));
+            long sent = 0;
+            for (String line : readMultiLine(client)) {
+                sent += line.length() + 2;
+            }
+            assertEquals(list, sent, size);
+            total += size;
+        }
+        assertEquals("+OK 2 " + total, command(client, "STAT"));
+        assertTrue(command(client, "LIST").startsWith("+OK"));
+        assertEquals(2, readMultiLine(client).size());
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * A line based client for talking SMTP, POP3 and IMAP to the servers by hand, for
+ * tests that need to see the exact protocol exchange.
+ */
+public class ProtocolClient {
+    private static final int TIMEOUT = 5000;
+    private static SSLContext tlsContext;
+
+    private final Socket plain;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    public ProtocolClient(int port) throws IOException {
+        plain = new Socket("localhost", port);
+        plain.setSoTimeout(TIMEOUT);
+        socket = plain;
+        in = new BufferedInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    /**
+     * @return the next line without its line break
+     * @throws EOFException if the server closed the connection
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.size() == 0) {
+                    throw new EOFException("Connection closed");
+                }
+                break;
+            }
+            line.write(b);
+        }
+        String s = line.toString("ISO-8859-1");
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /**
+     * Reads lines up to and including the first one starting with the given prefix.
+     */
+    public List<String> readUntil(String prefix) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        String line;
+        do {
+            line = readLine();
+            lines.add(line);
+        } while (!line.startsWith(prefix));
+        return lines;
+    }
+
+    /**
+     * @return the given number of bytes, as sent in an IMAP literal
+     */
+    public byte[] readBytes(int count) throws IOException {
+        byte[] bytes = new byte[count];
+        int read = 0;
+        while (read < count) {
+            int n = in.read(bytes, read, count - read);
+            if (n == -1) {
+                throw new EOFException("Connection closed");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Sends the text as it is.
+     */
+    public void write(String text) throws IOException {
+        out.write(text.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    /**
+     * Sends a line, adding the CRLF.
+     */
+    public void send(String line) throws IOException {
+        write(line + "\r\n");
+    }
+
+    /**
+     * Sends a tagged IMAP command and reads the responses up to the tagged one.
+     */
+    public List<String> imap(String tag, String command) throws IOException {
+        send(tag + " " + command);
+        return readUntil(tag + " ");
+    }
+
+    /**
+     * @return the client side TLS setup shared by all clients, so that a client
+     *         reconnecting to a port can resume its earlier session
+     */
+    private static synchronized SSLContext tlsContext() throws Exception {
+        if (null == tlsContext) {
+            tlsContext = SSLContext.getInstance("TLS");
+            tlsContext.init(null, new TrustManager[]{new X509TrustManager() {
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }}, null);
+        }
+        return tlsContext;
+    }
+
+    /**
+     * Continues the connection over TLS, trusting any server certificate. This also
+     * opens a connection to an implicit TLS port.
+     */
+    public void startTls() throws Exception {
+        SSLSocket ssl = (SSLSocket) tlsContext().getSocketFactory().createSocket(plain, "localhost", plain.getPort(), true);
+        ssl.startHandshake();
+        socket = ssl;
+        in = new BufferedInputStream(ssl.getInputStream());
+        out = ssl.getOutputStream();
+    }
+
+    /**
+     * Continues the connection with COMPRESS=DEFLATE (RFC 4978) in both directions.
+     */
+    public void startCompression() {
+        in = new BufferedInputStream(new InflaterInputStream(in, new Inflater(true)));
+        out = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true), true);
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+    }
+
+    /**
+     * Creates a PKCS12 keystore with a fresh self-signed key, password "changeit", for
+     * servers to offer TLS with. The key is generated by the JDK's keytool.
+     */
+    public static File createKeyStore() throws Exception {
+        File keyStore = File.createTempFile("greenmail", ".p12");
+        keyStore.delete();
+        keyStore.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "greenmail",
+                "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost", "-validity", "2",
+                "-storetype", "PKCS12", "-keystore", keyStore.getPath(),
+                "-storepass", "changeit", "-keypass", "changeit")
+                .redirectErrorStream(true).start();
+        InputStream output = process.getInputStream();
+        while (output.read() != -1) {
+            // drain
+        }
+        if (process.waitFor() != 0 || !keyStore.isFile()) {
+            throw new IllegalStateException("keytool failed to create " + keyStore);
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * SMTP service extensions checked at the protocol level.
+ */
+public class SmtpProtocolTest {
+    private static final int PORT = ServerSetupTest.SMTP.getPort();
+    private static final int MAX_MESSAGE_SIZE = 1000;
+
+    GreenMail greenMail;
+    ProtocolClient client;
+
+    @After
+    public void tearDown() {
+        if (null != client) {
+            client.close();
+        }
+        try {
+            greenMail.stop();
+        } catch (NullPointerException ignored) {
+            //empty
+        }
+    }
+
+    private ProtocolClient connect() throws Exception {
+        ServerSetup setup = new ServerSetup(PORT, null, ServerSetup.PROTOCOL_SMTP);
+        setup.setMaxMessageSize(MAX_MESSAGE_SIZE);
+        greenMail = new GreenMail(setup);
+        greenMail.start();
+        client = new ProtocolClient(PORT);
+        assertTrue(client.readLine().startsWith("220 "));
+        return client;
+    }
+
+    private String reply(String command) throws Exception {
+        client.send(command);
+        return client.readLine();
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testEhloExtensions() throws Exception {
+        connect();
+        client.send("EHLO client.example.com");
+        List<String> lines = client.readUntil("250 ");
+        assertEquals(Arrays.asList("PIPELINING", "SIZE " + MAX_MESSAGE_SIZE, "8BITMIME", "CHUNKING", "BINARYMIME"),
+                extensions(lines));
+        for (int i = 0; i < lines.size() - 1; i++) {
+            assertTrue(lines.get(i), lines.get(i).startsWith("250-"));
+        }
+        // No TLS configured, so no STARTTLS
+        assertFalse(lines.toString().contains("STARTTLS"));
+        // HELO stays a one line reply
+        assertTrue(reply("HELO client.example.com").startsWith("250 "));
+        assertEquals("250 Is that all?", reply("NOOP"));
+    }
+
+    private static List<String> extensions(List<String> lines) {
+        String[] extensions = new String[lines.size() - 1];
+        for (int i = 1; i < lines.size(); i++) {
+            extensions[i - 1] = lines.get(i).substring(4);
+        }
+        return Arrays.asList(extensions);
+    }
+
+    @Test
+    public void testPipelinedBatch() throws Exception {
+        connect();
+        client.send("EHLO client.example.com");
+        client.readUntil("250 ");
+
+        // RFC 2920: the whole transaction up to DATA, then the message and the next commands
+        client.write("MAIL FROM:<from@localhost.com>\r\nRCPT TO:<one@localhost.com>\r\n"
+                + "RCPT TO:<two@localhost.com>\r\nDATA\r\n");
+        assertTrue(client.readLine().startsWith("250 "));
+        assertTrue(client.readLine().startsWith("250 "));
+        assertTrue(client.readLine().startsWith("250 "));
+        assertTrue(client.readLine().startsWith("354 "));
+        client.write("Subject: pipelined\r\n\r\n..dot\r\n.\r\nMAIL FROM:<from@localhost.com>\r\n"
+                + "RCPT TO:<one@localhost.com>\r\nDATA\r\n");
+        assertEquals("250 OK", client.readLine());
+        assertTrue(client.readLine().startsWith("250 "));
+        assertTrue(client.readLine().startsWith("250 "));
+        assertTrue(client.readLine().startsWith("354 "));
+        client.write("Subject: second\r\n\r\nbody\r\n.\r\nQUIT\r\n");
+        assertEquals("250 OK", client.readLine());
+        assertTrue(client.readLine().startsWith("221 "));
+
+        MimeMessage[] messages = greenMail.getReceivedMessages();
+        assertEquals(3, messages.length);
+        assertEquals("pipelined", messages[0].getSubject());
+        assertEquals(".dot", GreenMailUtil.getBody(messages[0]).trim());
+        assertEquals("second", messages[2].getSubject());
+    }
+
+    @Test
+    public void testSizeAtMailFrom() throws Exception {
+        connect();
+        assertTrue(reply("EHLO client.example.com").startsWith("250-"));
+        client.readUntil("250 ");
+        assertTrue(reply("MAIL FROM:<from@localhost.com> SIZE=" + (MAX_MESSAGE_SIZE + 1)).startsWith("552 "));
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("503 "));
+        assertTrue(reply("MAIL FROM:<from@localhost.com> SIZE=" + MAX_MESSAGE_SIZE).startsWith("250 "));
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("250 "));
+    }
+
+    @Test
+    public void testSizeDuringData() throws Exception {
+        connect();
+        assertTrue(reply("HELO client.example.com").startsWith("250 "));
+        // Declares no size, so only the message itself can be refused
+        assertTrue(reply("MAIL FROM:<from@localhost.com>").startsWith("250 "));
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("250 "));
+        assertTrue(reply("DATA").startsWith("354 "));
+        client.write("Subject: large\r\n\r\n" + repeat('x', MAX_MESSAGE_SIZE) + "\r\n.\r\n");
+        assertTrue(client.readLine().startsWith("552 "));
+        assertEquals(0, greenMail.getReceivedMessages().length);
+
+        // The rest of the message was read off, so the session goes on
+        assertTrue(reply("MAIL FROM:<from@localhost.com>").startsWith("250 "));
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("250 "));
+        assertTrue(reply("DATA").startsWith("354 "));
+        client.write("Subject: small\r\n\r\nbody\r\n.\r\n");
+        assertEquals("250 OK", client.readLine());
+        assertEquals(1, greenMail.getReceivedMessages().length);
+    }
+
+    @Test
+    public void testBdat() throws Exception {
+        connect();
+        assertTrue(reply("HELO client.example.com").startsWith("250 "));
+        assertTrue(reply("MAIL FROM:<from@localhost.com> BODY=BINARYMIME").startsWith("250 "));
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("250 "));
+
+        String first = "Subject: chunked\r\n\r\n";
+        String second = ".no dot stuffing\r\n.\r\nbody\r\n";
+        client.write("BDAT " + first.length() + "\r\n" + first);
+        assertEquals("250 " + first.length() + " octets received", client.readLine());
+        assertEquals(0, greenMail.getReceivedMessages().length);
+        // Once begun with BDAT, the message can't go on with DATA
+        assertTrue(reply("DATA").startsWith("503 "));
+        client.write("BDAT " + second.length() + " LAST\r\n" + second);
+        assertEquals("250 OK", client.readLine());
+
+        MimeMessage[] messages = greenMail.getReceivedMessages();
+        assertEquals(1, messages.length);
+        assertEquals("chunked", messages[0].getSubject());
+        assertEquals(second.trim(), GreenMailUtil.getBody(messages[0]));
+    }
+
+    @Test
+    public void testBdatOverSize() throws Exception {
+        connect();
+        assertTrue(reply("HELO client.example.com").startsWith("250 "));
+        assertTrue(reply("MAIL FROM:<from@localhost.com>").startsWith("250 "));
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("250 "));
+        String chunk = repeat('x', MAX_MESSAGE_SIZE / 2 + 1);
+        client.write("BDAT " + chunk.length() + "\r\n" + chunk);
+        assertTrue(client.readLine().startsWith("250 "));
+        client.write("BDAT " + chunk.length() + " LAST\r\n" + chunk);
+        assertTrue(client.readLine().startsWith("552 "));
+        // The refused chunk was read off and the transaction dropped
+        assertTrue(reply("RCPT TO:<to@localhost.com>").startsWith("503 "));
+        assertTrue(reply("NOOP").startsWith("250 "));
+        assertEquals(0, greenMail.getReceivedMessages().length);
+    }
+}
@@ -3,10 +3,14 @@
 */
 package com.icegreen.greenmail;
 
+import com.icegreen.greenmail.store.InMemoryStore;
+import com.icegreen.greenmail.store.MailFolder;
+import com.icegreen.greenmail.user.GreenMailUser;
 import com.icegreen.greenmail.util.*;
 import junit.framework.TestCase;
 
 import javax.mail.BodyPart;
+import javax.mail.Flags;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
@@ -16,6 +20,10 @@ import org.junit.After;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Wael Chatila
@@ -58,6 +66,128 @@ public class SmtpServerTest extends TestCase {
         assertEquals(0, emails.length);
     }
 
+    @Test
+    public void testWaitForIncomingEmailCountsDirectDeliveries() throws Throwable {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+        final GreenMailUser user = greenMail.setUser("to@localhost.com", "pwd");
+
+        Thread deliverThread = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    user.deliver(GreenMailUtil.newMimeMessage("Subject: direct\r\n\r\nbody\r\n"));
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        deliverThread.start();
+        assertTrue(greenMail.waitForIncomingEmail(3000, 1));
+        deliverThread.join(10000);
+    }
+
+    @Test
+    public void testWaitForIncomingEmailIgnoresRemovedMessages() throws Throwable {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+        GreenMailUser user = greenMail.setUser("to@localhost.com", "pwd");
+        GreenMailUtil.sendTextEmailTest("to@localhost.com", "from@localhost.com", "subject", "body");
+        assertTrue(greenMail.waitForIncomingEmail(1500, 1));
+
+        MailFolder inbox = greenMail.getManagers().getImapHostManager().getInbox(user);
+        inbox.getMessages().get(0).getFlags().add(Flags.Flag.DELETED);
+        InMemoryStore.expunge(inbox);
+        assertEquals(0, greenMail.getReceivedMessages().length);
+
+        // the removed message doesn't count towards the wait any more
+        assertFalse(greenMail.waitForIncomingEmail(300, 1));
+        GreenMailUtil.sendTextEmailTest("to@localhost.com", "from@localhost.com", "subject", "body");
+        assertTrue(greenMail.waitForIncomingEmail(1500, 1));
+    }
+
+    @Test
+    public void testParallelDeliveriesAndWaiters() throws Throwable {
+        final int senders = 8;
+        final int perSender = 10;
+        final int total = senders * perSender;
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        final CountDownLatch go = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        // A waiter for every count, registered before any delivery
+        for (int count = 1; count <= total; count++) {
+            final int emailCount = count;
+            Thread waiter = new Thread() {
+                public void run() {
+                    try {
+                        if (!greenMail.waitForIncomingEmail(20000, emailCount)) {
+                            failures.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(waiter);
+            waiter.start();
+        }
+        // Waiters that keep registering for the next message while deliveries run
+        List<Thread> chasers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread chaser = new Thread() {
+                public void run() {
+                    try {
+                        for (int count = InMemoryStore.getStoredMessageCount(); count < total;
+                             count = InMemoryStore.getStoredMessageCount()) {
+                            if (!greenMail.waitForIncomingEmail(20000, count + 1)) {
+                                failures.incrementAndGet();
+                                return;
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(chaser);
+            chasers.add(chaser);
+        }
+        for (int i = 0; i < senders; i++) {
+            final String to = "to" + i + "@localhost.com";
+            Thread sender = new Thread() {
+                public void run() {
+                    try {
+                        go.await();
+                        for (int j = 0; j < perSender; j++) {
+                            GreenMailUtil.sendTextEmailTest(to, "from@localhost.com", "subject " + j, "body");
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(sender);
+            sender.start();
+        }
+        go.countDown();
+        for (Thread chaser : chasers) {
+            chaser.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(total, greenMail.getReceivedMessages().length);
+        for (int i = 0; i < senders; i++) {
+            assertEquals(perSender, greenMail.getReceivedMessagesForRecipient("to" + i + "@localhost.com").length);
+        }
+    }
+
     @Test
     public void testSmtpServerReceiveWithSetup() throws Throwable {
         greenMail = new GreenMail(ServerSetupTest.SMTP);
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.icegreen.greenmail.util.TlsContext;
+
+/**
+ * Implicit TLS ports, STARTTLS on SMTP and POP3, and TLS session resumption, with a
+ * key store file configured in the {@link ServerSetup}.
+ */
+public class TlsTest {
+    private static final String SESSION_TICKETS = "jdk.tls.server.enableSessionTicketExtension";
+
+    GreenMail greenMail;
+
+    @After
+    public void tearDown() {
+        try {
+            greenMail.stop();
+        } catch (NullPointerException ignored) {
+            //empty
+        }
+    }
+
+    private static ServerSetup withKeyStore(ServerSetup template) throws Exception {
+        ServerSetup setup = new ServerSetup(template.getPort(), null, template.getProtocol());
+        setup.setKeyStore(ProtocolClient.createKeyStore().getPath());
+        setup.setKeyStoreType("PKCS12");
+        return setup;
+    }
+
+    private void start(ServerSetup setup) {
+        greenMail = new GreenMail(setup);
+        greenMail.setUser("test@localhost.com", "test", "test");
+        greenMail.start();
+    }
+
+    /**
+     * Connects to the implicit TLS port and reads the greeting.
+     */
+    private static void connectSecure(ServerSetup setup) throws Exception {
+        ProtocolClient client = new ProtocolClient(setup.getPort());
+        try {
+            client.startTls();
+            assertTrue(client.readLine().startsWith("* OK"));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * The handshake listener runs on a thread of its own, so the counts are waited for.
+     */
+    private static void assertHandshakes(TlsContext tls, long handshakes, long resumed) throws InterruptedException {
+        for (int i = 0; i < 100 && tls.getHandshakeCount() < handshakes; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(handshakes, tls.getHandshakeCount());
+        assertEquals(resumed, tls.getResumedHandshakeCount());
+    }
+
+    @Test
+    public void testSessionResumption() throws Exception {
+        ServerSetup setup = withKeyStore(ServerSetupTest.IMAPS);
+        start(setup);
+        TlsContext tls = greenMail.getImaps().getTlsContext();
+
+        connectSecure(setup);
+        assertHandshakes(tls, 1, 0);
+        connectSecure(setup);
+        assertHandshakes(tls, 2, 1);
+        connectSecure(setup);
+        assertHandshakes(tls, 3, 2);
+    }
+
+    @Test
+    public void testSessionSettings() throws Exception {
+        // The timeout expires cached sessions, sessions restored from tickets are up to the provider
+        String tickets = System.setProperty(SESSION_TICKETS, "false");
+        try {
+            ServerSetup setup = withKeyStore(ServerSetupTest.IMAPS);
+            setup.setTlsSessionCacheSize(7);
+            setup.setTlsSessionTimeout(1);
+            start(setup);
+            TlsContext tls = greenMail.getImaps().getTlsContext();
+            assertEquals(7, tls.getSessionContext().getSessionCacheSize());
+            assertEquals(1, tls.getSessionContext().getSessionTimeout());
+
+            connectSecure(setup);
+            connectSecure(setup);
+            assertHandshakes(tls, 2, 1);
+            // Past the session timeout, the next connection does a full handshake
+            Thread.sleep(1500);
+            connectSecure(setup);
+            assertHandshakes(tls, 3, 1);
+        } finally {
+            if (null == tickets) {
+                System.clearProperty(SESSION_TICKETS);
+            } else {
+                System.setProperty(SESSION_TICKETS, tickets);
+            }
+        }
+    }
+
+    @Test
+    public void testSmtpStartTls() throws Exception {
+        ServerSetup setup = withKeyStore(ServerSetupTest.SMTP);
+        setup.setStartTls(true);
+        start(setup);
+
+        ProtocolClient client = new ProtocolClient(setup.getPort());
+        try {
+            client.readLine();
+            client.send("EHLO client.example.com");
+            assertTrue(client.readUntil("250 ").toString().contains("STARTTLS"));
+            client.send("STARTTLS");
+            assertTrue(client.readLine().startsWith("220 "));
+            client.startTls();
+
+            client.send("EHLO client.example.com");
+            List<String> lines = client.readUntil("250 ");
+            assertFalse(lines.toString(), lines.toString().contains("STARTTLS"));
+            client.send("MAIL FROM:<from@localhost.com>");
+            assertTrue(client.readLine().startsWith("250 "));
+            client.send("RCPT TO:<test@localhost.com>");
+            assertTrue(client.readLine().startsWith("250 "));
+            client.send("DATA");
+            assertTrue(client.readLine().startsWith("354 "));
+            client.write("Subject: over tls\r\n\r\nbody\r\n.\r\n");
+            assertEquals("250 OK", client.readLine());
+            // Only once per connection
+            client.send("STARTTLS");
+            assertTrue(client.readLine().startsWith("454 "));
+        } finally {
+            client.close();
+        }
+        assertEquals("over tls", greenMail.getReceivedMessages()[0].getSubject());
+        assertHandshakes(greenMail.getSmtp().getTlsContext(), 1, 0);
+    }
+
+    @Test
+    public void testPop3Stls() throws Exception {
+        ServerSetup setup = withKeyStore(ServerSetupTest.POP3);
+        setup.setStartTls(true);
+        start(setup);
+
+        ProtocolClient client = new ProtocolClient(setup.getPort());
+        try {
+            client.readLine();
+            client.send("CAPA");
+            assertTrue(client.readUntil(".").contains("STLS"));
+            client.send("STLS");
+            assertTrue(client.readLine().startsWith("+OK"));
+            client.startTls();
+
+            client.send("CAPA");
+            assertFalse(client.readUntil(".").contains("STLS"));
+            client.send("USER test");
+            assertTrue(client.readLine().startsWith("+OK"));
+            client.send("PASS test");
+            assertTrue(client.readLine().startsWith("+OK"));
+            client.send("STAT");
+            assertEquals("+OK 0 0", client.readLine());
+        } finally {
+            client.close();
+        }
+        assertHandshakes(greenMail.getPop3().getTlsContext(), 1, 0);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.pop3;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.icegreen.greenmail.util.LineCodec;
+
+public class DotStuffingOutputStreamTest {
+
+    /**
+     * Writes each piece with write(byte[]) and returns what went out on the connection.
+     */
+    private static String stuff(String... pieces) throws IOException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        DotStuffingOutputStream out = new DotStuffingOutputStream(
+                new LineCodec(new ByteArrayInputStream(new byte[0]), sent));
+        for (String piece : pieces) {
+            out.write(piece.getBytes("ISO-8859-1"));
+        }
+        out.finish();
+        return sent.toString("ISO-8859-1");
+    }
+
+    /**
+     * Like {@link #stuff(String...)}, one byte at a time.
+     */
+    private static String stuffBytes(String message) throws IOException {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        DotStuffingOutputStream out = new DotStuffingOutputStream(
+                new LineCodec(new ByteArrayInputStream(new byte[0]), sent));
+        for (byte b : message.getBytes("ISO-8859-1")) {
+            out.write(b);
+        }
+        out.finish();
+        return sent.toString("ISO-8859-1");
+    }
+
+    @Test
+    public void testLeadingDotOnFirstLine() throws IOException {
+        assertEquals("..hidden\r\nshown\r\n.\r\n", stuff(".hidden\r\nshown\r\n"));
+        assertEquals("..\r\n.\r\n", stuff(".\r\n"));
+        assertEquals("..hidden\r\nshown\r\n.\r\n", stuffBytes(".hidden\r\nshown\r\n"));
+    }
+
+    @Test
+    public void testDotsWithinLinesAreLeftAlone() throws IOException {
+        assertEquals("a.b\r\nc.\r\n.\r\n", stuff("a.b\r\nc.\r\n"));
+    }
+
+    @Test
+    public void testDotAtLineStartSplitAcrossWrites() throws IOException {
+        assertEquals("a\r\n..b\r\n.\r\n", stuff("a\r\n", ".b\r\n"));
+        assertEquals("a\r\n..b\r\n.\r\n", stuff("a\r", "\n", ".b\r\n"));
+        assertEquals("a\r\n..\r\n..b\r\n.\r\n", stuff("a\r\n.", "\r\n.", "b\r\n"));
+        assertEquals("a\r\nb.\r\n.\r\n", stuff("a\r\nb", ".\r\n"));
+    }
+
+    @Test
+    public void testBareLineFeeds() throws IOException {
+        assertEquals("a\r\nb\r\n..c\r\n.\r\n", stuff("a\nb\n.c\n"));
+        assertEquals("a\r\nb\r\n.\r\n", stuff("a", "\nb", "\n"));
+        assertEquals("a\r\nb\r\n.\r\n", stuffBytes("a\nb\n"));
+    }
+
+    @Test
+    public void testCrLfSplitAcrossWrites() throws IOException {
+        assertEquals("a\r\nb\r\n.\r\n", stuff("a\r", "\nb\r", "\n"));
+        assertEquals("a\r\nb\r\n.\r\n", stuffBytes("a\r\nb\r\n"));
+    }
+
+    @Test
+    public void testMessageWithoutFinalLineBreak() throws IOException {
+        assertEquals("a\r\nlast\r\n.\r\n", stuff("a\r\nlast"));
+        assertEquals("..\r\n.\r\n", stuff("."));
+    }
+
+    @Test
+    public void testEmptyMessage() throws IOException {
+        assertEquals(".\r\n", stuff());
+        assertEquals(".\r\n", stuff(""));
+    }
+}
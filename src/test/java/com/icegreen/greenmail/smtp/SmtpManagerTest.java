@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.mail.MailAddress;
+import com.icegreen.greenmail.mail.MovingMessage;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.user.UserException;
+import com.icegreen.greenmail.user.UserManager;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+
+/**
+ * Per recipient delivery outcomes, with a user manager that can't create some users.
+ */
+public class SmtpManagerTest {
+    private static final MailAddress GOOD = address("good@localhost.com");
+    private static final MailAddress BROKEN = address("broken@localhost.com");
+
+    UserManager userManager;
+    SmtpManager manager;
+    SmtpState state;
+
+    private static MailAddress address(String email) {
+        try {
+            return new MailAddress(email);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // Clears the store
+        ImapHostManager imapHostManager = new GreenMail(new ServerSetup[0]).getManagers().getImapHostManager();
+        userManager = new UserManager(imapHostManager) {
+            public GreenMailUser getOrCreateUserByEmail(String email) throws UserException {
+                if (email.startsWith("broken")) {
+                    throw new UserException("No mailbox for " + email);
+                }
+                return super.getOrCreateUserByEmail(email);
+            }
+        };
+        manager = new SmtpManager(imapHostManager, userManager);
+        state = new SmtpState(null);
+        MovingMessage msg = state.getMessage();
+        msg.setReturnPath(address("from@localhost.com"));
+        msg.startChunks("Subject: test\r\n\r\nbody\r\n");
+        msg.completeChunks();
+    }
+
+    @Test
+    public void testRecipientRefusedAtRcpt() {
+        assertNull(manager.checkRecipient(state, GOOD));
+        assertTrue(manager.checkRecipient(state, BROKEN).startsWith("550 "));
+    }
+
+    @Test
+    public void testPartialDelivery() throws Exception {
+        MovingMessage msg = state.getMessage();
+        msg.addRecipient(GOOD);
+        msg.addRecipient(BROKEN);
+        manager.send(state);
+
+        assertEquals(Arrays.asList(GOOD), msg.getDeliveredRecipients());
+        assertEquals(1, msg.getDeliveryFailures().size());
+        assertTrue(msg.getDeliveryFailures().get(BROKEN) instanceof UserException);
+        assertEquals(1, userManager.getUserByEmail(GOOD.getEmail()).getInbox().getMessageCount());
+    }
+
+    @Test
+    public void testDeliveryFailedForAll() {
+        state.getMessage().addRecipient(BROKEN);
+        try {
+            manager.send(state);
+            fail("Delivered to nobody without an error");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof UserException);
+        }
+    }
+
+    @Test
+    public void testNoRecipients() {
+        manager.send(state);
+        assertTrue(state.getMessage().getDeliveredRecipients().isEmpty());
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Properties;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
+
+import org.junit.Test;
+
+import com.icegreen.greenmail.util.GreenMailUtil;
+
+/**
+ * Checks every section {@link MimeStructure} finds against what JavaMail returns for it.
+ */
+public class MimeStructureTest {
+    private static final Session SESSION = Session.getInstance(new Properties());
+
+    private static final String NESTED = ""
+            + "From: from@localhost.com\r\n"
+            + "To: to@localhost.com\r\n"
+            + "Subject: nested\r\n"
+            + "MIME-Version: 1.0\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"outer\"\r\n"
+            + "\r\n"
+            + "This is the preamble.\r\n"
+            + "--outer\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "first part\r\n"
+            + "--outer\r\n"
+            + "Content-Type: multipart/alternative; boundary=\"inner\"\r\n"
+            + "\r\n"
+            + "--inner\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "plain\r\n"
+            + "\r\n"
+            + "--inner\r\n"
+            + "Content-Type: text/html\r\n"
+            + "\r\n"
+            + "<p>html</p>\r\n"
+            + "--inner--\r\n"
+            + "inner epilogue\r\n"
+            + "--outer\r\n"
+            + "Content-Type: message/rfc822\r\n"
+            + "\r\n"
+            + "Subject: attached\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"attached\"\r\n"
+            + "\r\n"
+            + "--attached\r\n"
+            + "\r\n"
+            + "attached text\r\n"
+            + "--attached\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "Content-Transfer-Encoding: base64\r\n"
+            + "\r\n"
+            + "AAECAwQF\r\n"
+            + "--attached--\r\n"
+            + "--outer--\r\n"
+            + "This is the epilogue.\r\n";
+
+    private static final String DIGEST = ""
+            + "Subject: digest\r\n"
+            + "Content-Type: multipart/digest; boundary=\"digest\"\r\n"
+            + "\r\n"
+            + "--digest\r\n"
+            + "\r\n"
+            + "Subject: one\r\n"
+            + "\r\n"
+            + "message one\r\n"
+            + "--digest\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "not a message\r\n"
+            + "--digest\r\n"
+            + "\r\n"
+            + "Subject: three\r\n"
+            + "Content-Type: multipart/mixed; boundary=\"three\"\r\n"
+            + "\r\n"
+            + "--three\r\n"
+            + "\r\n"
+            + "three.one\r\n"
+            + "--three--\r\n"
+            + "--digest--\r\n";
+
+    @Test
+    public void testNestedMultiparts() throws Exception {
+        MimeMessage message = GreenMailUtil.newMimeMessage(NESTED);
+        MimeStructure structure = assertStructure(message, "\r\n");
+        assertEquals("first part", section(structure, "1"));
+        assertEquals("plain\r\n", section(structure, "2.1"));
+        assertEquals("Content-Type: text/html\r\n\r\n", section(structure, "2.2.MIME"));
+        assertEquals("attached text", section(structure, "3.1"));
+        assertEquals("AAECAwQF", section(structure, "3.2"));
+        assertNull(structure.getSectionRange("4"));
+        assertNull(structure.getSectionRange("1.1"));
+        assertNull(structure.getSectionRange("1.HEADER"));
+        assertNull(structure.getSectionRange("3.3"));
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        MimeMessage message = GreenMailUtil.newMimeMessage(DIGEST);
+        MimeStructure structure = assertStructure(message, "\r\n");
+        assertEquals("Subject: one\r\n\r\n", section(structure, "1.HEADER"));
+        assertEquals("not a message", section(structure, "2"));
+        assertNull(structure.getSectionRange("2.HEADER"));
+        assertEquals("three.one", section(structure, "3.1"));
+    }
+
+    @Test
+    public void testBareLineFeeds() throws Exception {
+        String bare = NESTED.replace("\r\n", "\n");
+        MimeMessage message = GreenMailUtil.newMimeMessage(bare);
+        MimeStructure structure = assertStructure(message, "\n");
+        assertEquals("first part", section(structure, "1"));
+        assertEquals("attached text", section(structure, "3.1"));
+
+        int lineFeeds = bare.length() - bare.replace("\n", "").length();
+        int bodyLineFeeds = lineFeeds - 6;
+        // The header is written with CRLFs, the body is kept as it came
+        assertEquals(structure.getSize() + bodyLineFeeds, structure.getCanonicalSize());
+        assertEquals(NESTED.length(), structure.getCanonicalSize());
+    }
+
+    @Test
+    public void testEncodedMultipartIsNotTakenApart() throws Exception {
+        String encoded = ""
+                + "Subject: encoded\r\n"
+                + "Content-Type: multipart/mixed; boundary=\"b\"\r\n"
+                + "Content-Transfer-Encoding: base64\r\n"
+                + "\r\n"
+                + "LS1iDQoNCmhpZGRlbg0KLS1iLS0NCg==\r\n";
+        MimeMessage message = GreenMailUtil.newMimeMessage(encoded);
+        MimeStructure structure = MimeStructure.parse(message);
+        assertSection(structure, "", bytes(message));
+        assertSection(structure, "TEXT", raw(message));
+        // A non-multipart's only part is its body
+        assertSection(structure, "1", raw(message));
+        assertNull(structure.getSectionRange("2"));
+        assertNull(structure.getSectionRange("1.1"));
+        assertEquals(1, structure.getBodyLines());
+    }
+
+    @Test
+    public void testMessageBuiltThroughTheApi() throws Exception {
+        MimeMessage message = new MimeMessage(SESSION);
+        message.setSubject("built");
+        MimeMultipart multipart = new MimeMultipart();
+        MimeBodyPart text = new MimeBodyPart();
+        text.setText("some text");
+        multipart.addBodyPart(text);
+        MimeBodyPart attachment = new MimeBodyPart();
+        attachment.setContent("<p>html</p>", "text/html");
+        multipart.addBodyPart(attachment);
+        message.setContent(multipart);
+        message.saveChanges();
+
+        // Compared against the message as it is parsed back
+        MimeStructure structure = MimeStructure.parse(message);
+        MimeMessage parsed = new MimeMessage(SESSION, new ByteArrayInputStream(bytes(message)));
+        assertSection(structure, "", bytes(parsed));
+        assertEquals("some text", section(structure, "1"));
+        assertSection(structure, "2", raw((MimeBodyPart) ((MimeMultipart) parsed.getContent()).getBodyPart(1)));
+    }
+
+    /**
+     * Compares every section of the message with JavaMail's view of it, as well as the sizes.
+     */
+    private static MimeStructure assertStructure(MimeMessage message, String eol)
+            throws Exception {
+        MimeStructure structure = MimeStructure.parse(message);
+        byte[] whole = bytes(message);
+        assertSection(structure, "", whole);
+        assertEquals(whole.length, structure.getSize());
+        assertEquals(header(message, "\r\n").length(), structure.getHeaderLength());
+        assertEquals(lines(raw(message)), structure.getBodyLines());
+        assertMessage(structure, "", message, "\r\n", eol);
+        return structure;
+    }
+
+    /**
+     * Checks a message, the top level one or an encapsulated one, whose sections start with prefix.
+     */
+    private static void assertMessage(MimeStructure structure, String prefix, MimeMessage message,
+                                      String headerEol, String eol) throws Exception {
+        assertSection(structure, prefix + "HEADER", header(message, headerEol).getBytes("ISO-8859-1"));
+        assertSection(structure, prefix + "TEXT", raw(message));
+        Object content = message.getContent();
+        if (content instanceof MimeMultipart) {
+            assertParts(structure, prefix, (MimeMultipart) content, eol);
+        } else {
+            assertSection(structure, prefix + "1", raw(message));
+        }
+    }
+
+    private static void assertParts(MimeStructure structure, String prefix, MimeMultipart multipart, String eol)
+            throws Exception {
+        boolean digest = multipart.getContentType().toLowerCase().startsWith("multipart/digest");
+        for (int i = 0; i < multipart.getCount(); i++) {
+            MimeBodyPart part = (MimeBodyPart) multipart.getBodyPart(i);
+            String section = prefix + (i + 1);
+            assertSection(structure, section, raw(part));
+            assertSection(structure, section + ".MIME", header(part, eol).getBytes("ISO-8859-1"));
+            boolean rfc822 = null == part.getHeader("Content-Type", null) ? digest
+                    : part.isMimeType("message/rfc822");
+            if (rfc822) {
+                MimeMessage encapsulated = new MimeMessage(SESSION, part.getRawInputStream());
+                assertMessage(structure, section + ".", encapsulated, eol, eol);
+            } else if (part.isMimeType("multipart/*")) {
+                assertParts(structure, section + ".", (MimeMultipart) part.getContent(), eol);
+            }
+        }
+    }
+
+    private static void assertSection(MimeStructure structure, String section, byte[] expected)
+            throws IOException {
+        long[] range = structure.getSectionRange(section);
+        assertEquals(section, new String(expected, "ISO-8859-1"),
+                new String(structure.read(range[0], range[1]), "ISO-8859-1"));
+    }
+
+    private static String section(MimeStructure structure, String section) throws IOException {
+        long[] range = structure.getSectionRange(section);
+        return new String(structure.read(range[0], range[1]), "ISO-8859-1");
+    }
+
+    private static String header(MimePart part, String eol) throws MessagingException {
+        StringBuilder header = new StringBuilder();
+        Enumeration<?> lines = part.getAllHeaderLines();
+        while (lines.hasMoreElements()) {
+            header.append(lines.nextElement()).append(eol);
+        }
+        return header.append(eol).toString();
+    }
+
+    private static byte[] bytes(MimeMessage message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] raw(MimeMessage message) throws Exception {
+        return read(message.getRawInputStream());
+    }
+
+    private static byte[] raw(MimeBodyPart part) throws Exception {
+        return read(part.getRawInputStream());
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static int lines(byte[] content) {
+        int lines = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                lines++;
+            }
+        }
+        return content.length > 0 && content[content.length - 1] != '\n' ? lines + 1 : lines;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2006 Wael Chatila / Icegreen Technologies. All Rights Reserved.
+ * This software is released under the LGPL which is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package com.icegreen.greenmail.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.icegreen.greenmail.imap.ImapHostManager;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
+import com.icegreen.greenmail.util.ServerSetup;
+
+/**
+ * Looking users up by email address, and creating them on first delivery.
+ */
+public class UserManagerTest {
+    ImapHostManager imapHostManager;
+    UserManager userManager;
+
+    @Before
+    public void setUp() {
+        // Clears the store
+        imapHostManager = new GreenMail(new ServerSetup[0]).getManagers().getImapHostManager();
+        userManager = new UserManager(imapHostManager);
+    }
+
+    @Test
+    public void testLookupIgnoresCaseAndWhitespace() throws Exception {
+        GreenMailUser user = userManager.createUser("Some.One@Example.COM", "someone", "pwd");
+        assertSame(user, userManager.getUserByEmail("some.one@example.com"));
+        assertSame(user, userManager.getUserByEmail("  SOME.ONE@EXAMPLE.COM\t"));
+        assertSame(user, userManager.getOrCreateUserByEmail(" some.one@Example.com "));
+        assertEquals(1, userManager._users.size());
+        assertNull(userManager.getUserByEmail("other@example.com"));
+    }
+
+    @Test
+    public void testDeleteUserRemovesEmailIndex() throws Exception {
+        GreenMailUser user = userManager.createUser("to@localhost.com", "to", "pwd");
+        userManager.deleteUser(user);
+        assertNull(userManager.getUserByEmail("to@localhost.com"));
+        assertEquals(0, userManager._usersByEmail.size());
+
+        // The next delivery creates a new user
+        GreenMailUser created = userManager.getOrCreateUserByEmail("to@localhost.com");
+        assertNotSame(user, created);
+        assertEquals("to@localhost.com", created.getLogin());
+    }
+
+    @Test
+    public void testParallelFirstDeliveries() throws Exception {
+        final int threads = 16;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<GreenMailUser>> results = new ArrayList<Future<GreenMailUser>>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                final String email = 0 == i % 2 ? "new@localhost.com" : " NEW@localhost.com";
+                results.add(executor.submit(new Callable<GreenMailUser>() {
+                    public GreenMailUser call() throws Exception {
+                        barrier.await();
+                        GreenMailUser user = userManager.getOrCreateUserByEmail(email);
+                        user.deliver(GreenMailUtil.newMimeMessage("Subject: first\r\n\r\nbody\r\n"));
+                        return user;
+                    }
+                }));
+            }
+            GreenMailUser user = results.get(0).get();
+            for (Future<GreenMailUser> result : results) {
+                assertSame(user, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, userManager._users.size());
+        assertEquals(1, userManager._usersByEmail.size());
+        GreenMailUser user = userManager.getUserByEmail("new@localhost.com");
+        assertEquals(1, imapHostManager.listMailboxes(user, "INBOX").size());
+        assertEquals(threads, user.getInbox().getMessageCount());
+    }
+}
@@ -7,7 +7,15 @@
                ["com.icegreen.greenmail.CatchAllTest"
                 "com.icegreen.greenmail.GreenMailUtilTest"
                 "com.icegreen.greenmail.ImapServerTest"
+                "com.icegreen.greenmail.ImapProtocolTest"
                 "com.icegreen.greenmail.SmtpServerTest"
+                "com.icegreen.greenmail.SmtpProtocolTest"
+                "com.icegreen.greenmail.smtp.SmtpManagerTest"
+                "com.icegreen.greenmail.user.UserManagerTest"
                 "com.icegreen.greenmail.MultiRequestTest"
+                "com.icegreen.greenmail.ConnectionLimitTest"
+                "com.icegreen.greenmail.TlsTest"
                 "com.icegreen.greenmail.store.SimpleMessageAttributesTest"
-                "com.icegreen.greenmail.Pop3ServerTest"])))
+                "com.icegreen.greenmail.store.MimeStructureTest"
+                "com.icegreen.greenmail.Pop3ServerTest"
+                "com.icegreen.greenmail.pop3.DotStuffingOutputStreamTest"])))